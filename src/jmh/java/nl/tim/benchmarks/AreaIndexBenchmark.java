@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.area.AreaIndex;
+import nl.tim.questplugin.area.Cube;
+import nl.tim.questplugin.area.Region;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding the regions at a location with {@link AreaIndex} against checking every region (the old
+ * implementation of getQuestAtLocation).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AreaIndexBenchmark
+{
+    private static final int WORLD_SIZE = 10000;
+    private static final int REGION_SIZE = 64;
+    private static final int LOCATIONS = 1024;
+
+    @Param({"10", "100", "1000"})
+    private int regionCount;
+
+    private List<Region> regions;
+    private AreaIndex<Region> areaIndex;
+    private Location[] locations;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Random random = new Random(42);
+
+        // Bukkit is not available here, so the world is a simple proxy
+        UUID worldUUID = UUID.randomUUID();
+        World world = (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class[]{World.class},
+                (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                        case "getName":
+                            return "world";
+                        case "getUID":
+                            return worldUUID;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+
+        this.regions = new ArrayList<>();
+        this.areaIndex = new AreaIndex<>();
+
+        for (int i = 0; i < this.regionCount; i++)
+        {
+            double x = random.nextInt(WORLD_SIZE);
+            double y = random.nextInt(WORLD_SIZE);
+            Region region = new Cube(UUID.randomUUID(), new Location(world, x, y, 0),
+                    new Location(world, x + REGION_SIZE, y + REGION_SIZE, 256));
+
+            this.regions.add(region);
+            this.areaIndex.add(region, region);
+        }
+
+        this.locations = new Location[LOCATIONS];
+
+        for (int i = 0; i < LOCATIONS; i++)
+        {
+            this.locations[i] = new Location(world, random.nextInt(WORLD_SIZE), random.nextInt(WORLD_SIZE), 64);
+        }
+    }
+
+    private Location nextLocation()
+    {
+        this.next = (this.next + 1) % LOCATIONS;
+        return this.locations[this.next];
+    }
+
+    @Benchmark
+    public Set<Region> scan()
+    {
+        Location location = this.nextLocation();
+        Set<Region> result = new HashSet<>();
+
+        for (Region region : this.regions)
+        {
+            if (region.inRegion(location))
+            {
+                result.add(region);
+            }
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public Set<Region> index()
+    {
+        return this.areaIndex.query(this.nextLocation());
+    }
+}
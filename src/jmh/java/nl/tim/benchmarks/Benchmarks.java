@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.QuestPlugin;
+import org.bukkit.World;
+import org.objenesis.ObjenesisStd;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stand-ins for the parts of Bukkit the benchmarks need, so they can run without a server.
+ */
+final class Benchmarks
+{
+    private Benchmarks()
+    {
+    }
+
+    /**
+     * Returns a {@link World} that only knows its name and {@link UUID}.
+     */
+    static World world(String name)
+    {
+        UUID worldUUID = UUID.randomUUID();
+
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class[]{World.class},
+                (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                        case "getName":
+                            return name;
+                        case "getUID":
+                            return worldUUID;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    /**
+     * Returns a {@link QuestPlugin} that is not enabled, so all of its handlers are null until they are injected with
+     * {@link #inject(QuestPlugin, String, Object)}. Mocks are avoided because they record every call, which costs more
+     * than most of the code that is measured.
+     */
+    static QuestPlugin plugin()
+    {
+        // Plugins can only be constructed by the Bukkit class loader
+        return (QuestPlugin) new ObjenesisStd().newInstance(QuestPlugin.class);
+    }
+
+    /**
+     * Sets a field of the plugin, like Guice does when the plugin is enabled.
+     */
+    static void inject(QuestPlugin plugin, String name, Object value)
+    {
+        try
+        {
+            Field field = QuestPlugin.class.getDeclaredField(name);
+
+            field.setAccessible(true);
+            field.set(plugin, value);
+        } catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Could not set field '" + name + "' of QuestPlugin", e);
+        }
+    }
+
+    /**
+     * Makes {@link QuestPlugin#getLog()} usable, it is normally only set once the plugin is enabled. Only warnings
+     * are shown, so the output of the benchmarks stays readable.
+     */
+    static void enableLogging()
+    {
+        Logger logger = Logger.getLogger("QuestPlugin");
+
+        logger.setLevel(Level.WARNING);
+
+        inject(null, "logger", logger);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import nl.tim.questplugin.storage.ConfigHandler;
+import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.image.builders.PlayerImageBuilder;
+import nl.tim.questplugin.storage.workers.FileStorage;
+import nl.tim.questplugin.utils.Constants;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures {@link FileStorage} with a realistic amount of stored players in both file layouts: saving the changes of
+ * one player (as done by the autosave), loading a player from a freshly opened storage (as done after a restart) and
+ * loading a player from a storage that already parsed its files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileStorageBenchmark
+{
+    private static final int ACTIVE_TASKS = 20;
+    private static final int COMPLETED_QUESTS = 10;
+    private static final int STAGES_PER_QUEST = 4;
+    private static final int TASKS_PER_STAGE = 5;
+
+    @Param({"SINGLE_FILE", "SHARDED"})
+    private String layout;
+
+    @Param({"100", "1000"})
+    private int storedPlayers;
+
+    private Path directory;
+    private QuestPlugin plugin;
+    private FileStorage storage;
+    private List<UUID> players;
+    private Map<UUID, List<Storage.DataPair>> playerData;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        Benchmarks.enableLogging();
+
+        ConfigHandler configHandler = mock(ConfigHandler.class);
+
+        when(configHandler.getOption(String.class, Constants.FILE_LAYOUT)).thenReturn(this.layout);
+
+        this.plugin = Benchmarks.plugin();
+        Benchmarks.inject(this.plugin, "configHandler", configHandler);
+
+        this.directory = Files.createTempDirectory("questplugin-benchmark");
+        this.storage = this.openStorage();
+        this.players = new ArrayList<>();
+        this.playerData = new HashMap<>();
+
+        for (int i = 0; i < this.storedPlayers; i++)
+        {
+            QPlayer player = this.createPlayer();
+            List<Storage.DataPair> data = PlayerImageBuilder.toDataPairs(player, PlayerImageBuilder.Format.KEY_VALUE);
+
+            this.players.add(player.getUUID());
+            this.playerData.put(player.getUUID(), data);
+            this.storage.save(player.getUUID(), Storage.DataType.PLAYER, data);
+        }
+
+        this.storage.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(this.directory))
+        {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private FileStorage openStorage()
+    {
+        FileStorage storage = new FileStorage(this.plugin, this.directory.toFile());
+
+        storage.init();
+        return storage;
+    }
+
+    private QPlayer createPlayer()
+    {
+        List<ProgressWrapper> progress = new ArrayList<>();
+        Set<UUID> completedQuests = new HashSet<>();
+        MultiValuedMap<UUID, UUID> completedStages = new HashSetValuedHashMap<>();
+        MultiValuedMap<UUID, UUID> completedTasks = new HashSetValuedHashMap<>();
+
+        for (int i = 0; i < ACTIVE_TASKS; i++)
+        {
+            progress.add(new ProgressWrapper(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(),
+                    UUID.randomUUID(), i));
+        }
+
+        for (int i = 0; i < COMPLETED_QUESTS; i++)
+        {
+            UUID quest = UUID.randomUUID();
+
+            completedQuests.add(quest);
+
+            for (int stage = 0; stage < STAGES_PER_QUEST; stage++)
+            {
+                UUID stageUUID = UUID.randomUUID();
+
+                completedStages.put(quest, stageUUID);
+
+                for (int task = 0; task < TASKS_PER_STAGE; task++)
+                {
+                    completedTasks.put(stageUUID, UUID.randomUUID());
+                }
+            }
+        }
+
+        return new QPlayer(progress, completedQuests, completedStages, completedTasks, UUID.randomUUID(),
+                "benchmark", null);
+    }
+
+    private UUID nextPlayer()
+    {
+        this.next = (this.next + 1) % this.players.size();
+        return this.players.get(this.next);
+    }
+
+    @Benchmark
+    public void save()
+    {
+        UUID player = this.nextPlayer();
+
+        this.storage.save(player, Storage.DataType.PLAYER, this.playerData.get(player));
+        this.storage.flush();
+    }
+
+    @Benchmark
+    public List<Storage.DataPair> loadCold()
+    {
+        return this.openStorage().load(this.nextPlayer(), Storage.DataType.PLAYER);
+    }
+
+    @Benchmark
+    public List<Storage.DataPair> loadWarm()
+    {
+        return this.storage.load(this.nextPlayer(), Storage.DataType.PLAYER);
+    }
+}
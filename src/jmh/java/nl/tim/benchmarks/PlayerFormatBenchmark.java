@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.image.PlayerCodec;
+import nl.tim.questplugin.storage.image.builders.PlayerImageBuilder;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the key value format (what ends up in the YAML files) with the binary format of {@link PlayerCodec},
+ * without the cost of the storage itself. The 'Progress' benchmarks only load the progress, like a player joining,
+ * and leave the history for when it is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerFormatBenchmark
+{
+    private static final int TASKS_PER_STAGE = 5;
+    private static final int STAGES_PER_QUEST = 4;
+
+    @Param({"20", "200", "1000"})
+    private int trackedTasks;
+
+    private QPlayer player;
+    private List<Storage.DataPair> keyValueData;
+    private List<Storage.DataPair> binaryData;
+    private List<Storage.DataPair> keyValueProgress;
+    private List<Storage.DataPair> binaryProgress;
+    private ByteBuffer encoded;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        List<ProgressWrapper> wrappers = new ArrayList<>();
+        Set<UUID> completedQuests = new HashSet<>();
+        MultiValuedMap<UUID, UUID> completedStages = new HashSetValuedHashMap<>();
+        MultiValuedMap<UUID, UUID> completedTasks = new HashSetValuedHashMap<>();
+
+        // Give the player as much history as active progress
+        for (int i = 0; i < this.trackedTasks; i += TASKS_PER_STAGE * STAGES_PER_QUEST)
+        {
+            UUID quest = UUID.randomUUID();
+            UUID completedQuest = UUID.randomUUID();
+
+            completedQuests.add(completedQuest);
+
+            for (int stage = 0; stage < STAGES_PER_QUEST; stage++)
+            {
+                UUID stageUUID = UUID.randomUUID();
+                UUID completedStage = UUID.randomUUID();
+
+                completedStages.put(completedQuest, completedStage);
+
+                for (int task = 0; task < TASKS_PER_STAGE; task++)
+                {
+                    wrappers.add(new ProgressWrapper(UUID.randomUUID(), quest, stageUUID, UUID.randomUUID(), task * 7));
+                    completedTasks.put(completedStage, UUID.randomUUID());
+                }
+            }
+        }
+
+        this.player = new QPlayer(wrappers, completedQuests, completedStages, completedTasks, UUID.randomUUID(),
+                "benchmark", null);
+        this.keyValueData = PlayerImageBuilder.toDataPairs(this.player, PlayerImageBuilder.Format.KEY_VALUE);
+        this.binaryData = PlayerImageBuilder.toDataPairs(this.player, PlayerImageBuilder.Format.BINARY);
+        this.encoded = PlayerCodec.encode(this.player);
+        this.keyValueProgress = this.withoutHistory(this.keyValueData);
+        this.binaryProgress = this.withoutHistory(this.binaryData);
+    }
+
+    private List<Storage.DataPair> withoutHistory(List<Storage.DataPair> dataPairs)
+    {
+        List<Storage.DataPair> result = new ArrayList<>();
+
+        for (Storage.DataPair dataPair : dataPairs)
+        {
+            if (!dataPair.getKey().startsWith("completed"))
+            {
+                result.add(dataPair);
+            }
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public List<Storage.DataPair> encodeKeyValue()
+    {
+        return PlayerImageBuilder.toDataPairs(this.player, PlayerImageBuilder.Format.KEY_VALUE);
+    }
+
+    @Benchmark
+    public List<Storage.DataPair> encodeBinary()
+    {
+        return PlayerImageBuilder.toDataPairs(this.player, PlayerImageBuilder.Format.BINARY);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinaryRaw()
+    {
+        return PlayerCodec.encode(this.player);
+    }
+
+    @Benchmark
+    public QPlayer decodeKeyValue()
+    {
+        return PlayerImageBuilder.fromDataPairs(this.player.getUUID(), this.keyValueData);
+    }
+
+    @Benchmark
+    public QPlayer decodeBinary()
+    {
+        return PlayerImageBuilder.fromDataPairs(this.player.getUUID(), this.binaryData);
+    }
+
+    @Benchmark
+    public QPlayer decodeKeyValueProgress()
+    {
+        return PlayerImageBuilder.fromDataPairs(this.player.getUUID(), this.keyValueProgress);
+    }
+
+    @Benchmark
+    public QPlayer decodeBinaryProgress()
+    {
+        return PlayerImageBuilder.fromDataPairs(this.player.getUUID(), this.binaryProgress);
+    }
+
+    @Benchmark
+    public QPlayer decodeBinaryRaw()
+    {
+        return PlayerCodec.decode(this.player.getUUID(), this.encoded.duplicate());
+    }
+}
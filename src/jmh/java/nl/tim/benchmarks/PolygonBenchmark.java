@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.area.Polygon;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.geom.Line2D;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Polygon#inRegion(Location)} with the old implementation, which built a line for every edge and
+ * intersected it with a ray using {@link Line2D}. Run with {@code -prof gc} to see the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonBenchmark
+{
+    private static final double RADIUS = 100;
+    private static final int LOCATIONS = 1024;
+
+    @Param({"4", "64", "1024"})
+    private int vertices;
+
+    private Polygon polygon;
+    private LinkedHashSet<Location> locationSet;
+    private Location[] locations;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Random random = new Random(42);
+
+        // Bukkit is not available here, so the world is a simple proxy
+        UUID worldUUID = UUID.randomUUID();
+        World world = (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class[]{World.class},
+                (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                        case "getName":
+                            return "world";
+                        case "getUID":
+                            return worldUUID;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+
+        this.locationSet = new LinkedHashSet<>();
+
+        // Star shaped polygon, so the result is not simply the distance to the center
+        for (int i = 0; i < this.vertices; i++)
+        {
+            double angle = 2 * Math.PI * i / this.vertices;
+            double radius = i % 2 == 0 ? RADIUS : RADIUS / 2;
+
+            this.locationSet.add(new Location(world, Math.cos(angle) * radius, Math.sin(angle) * radius, 0));
+        }
+
+        this.polygon = new Polygon(UUID.randomUUID(), this.locationSet, true);
+        this.locations = new Location[LOCATIONS];
+
+        // Locations within the borders, so the quick test does not skip the actual check
+        for (int i = 0; i < LOCATIONS; i++)
+        {
+            this.locations[i] = new Location(world, (random.nextDouble() * 2 - 1) * RADIUS,
+                    (random.nextDouble() * 2 - 1) * RADIUS, 0);
+        }
+    }
+
+    private Location nextLocation()
+    {
+        this.next = (this.next + 1) % LOCATIONS;
+        return this.locations[this.next];
+    }
+
+    @Benchmark
+    public boolean line2D()
+    {
+        Location location = this.nextLocation();
+        Location rayEnd = new Location(null, -RADIUS - 1, -RADIUS - 1, 0);
+        Location previous = (Location) this.locationSet.toArray()[this.locationSet.size() - 1];
+        int intersections = 0;
+
+        for (Location current : this.locationSet)
+        {
+            if (Line2D.linesIntersect(previous.getX(), previous.getY(), current.getX(), current.getY(),
+                    location.getX(), location.getY(), rayEnd.getX(), rayEnd.getY()))
+            {
+                intersections++;
+            }
+
+            previous = current;
+        }
+
+        return intersections % 2 == 1;
+    }
+
+    @Benchmark
+    public boolean inRegion()
+    {
+        return this.polygon.inRegion(this.nextLocation());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.Quest;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares progress lookups of {@link QPlayer} with a linear scan over all progress (the old implementation)
+ * for players with a lot of tracked tasks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QPlayerBenchmark
+{
+    private static final int TASKS_PER_STAGE = 5;
+    private static final int STAGES_PER_QUEST = 4;
+
+    @Param({"20", "200", "1000"})
+    private int trackedTasks;
+
+    private QPlayer player;
+    private List<ProgressWrapper> wrappers;
+    private Quest quest;
+    private UUID task;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        this.wrappers = new ArrayList<>();
+        List<Quest> quests = new ArrayList<>();
+
+        // Spread the tasks over quests and stages like a normal player would have them
+        for (int i = 0; i < this.trackedTasks; i += TASKS_PER_STAGE * STAGES_PER_QUEST)
+        {
+            Quest quest = new Quest(UUID.randomUUID(), null, new LinkedList<>(), new HashSet<>(), new HashSet<>(),
+                    new ArrayList<>(), false, false, false, false, true);
+
+            quests.add(quest);
+
+            for (int stage = 0; stage < STAGES_PER_QUEST; stage++)
+            {
+                UUID stageUUID = UUID.randomUUID();
+
+                for (int task = 0; task < TASKS_PER_STAGE; task++)
+                {
+                    this.wrappers.add(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(), stageUUID,
+                            UUID.randomUUID(), 0));
+                }
+            }
+        }
+
+        this.player = new QPlayer(this.wrappers, new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), UUID.randomUUID(), "benchmark", null);
+
+        // Look up something at the end, the worst case for a scan
+        this.quest = quests.get(quests.size() - 1);
+        this.task = this.wrappers.get(this.wrappers.size() - 1).getTaskUUID();
+    }
+
+    @Benchmark
+    public ProgressWrapper getProgress()
+    {
+        return this.player.getProgress(this.task);
+    }
+
+    @Benchmark
+    public ProgressWrapper getProgressScan()
+    {
+        for (ProgressWrapper wrapper : this.wrappers)
+        {
+            if (wrapper.getTaskUUID().equals(this.task))
+            {
+                return wrapper;
+            }
+        }
+
+        return null;
+    }
+
+    @Benchmark
+    public List<UUID> getActiveTasks()
+    {
+        return this.player.getActiveTasks(this.quest);
+    }
+
+    @Benchmark
+    public List<UUID> getActiveTasksScan()
+    {
+        List<UUID> result = new ArrayList<>();
+
+        for (ProgressWrapper wrapper : this.wrappers)
+        {
+            if (wrapper.getQuestUUID().equals(this.quest.getUUID()))
+            {
+                result.add(wrapper.getTaskUUID());
+            }
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public Set<UUID> getActiveStages()
+    {
+        return this.player.getActiveStages(this.quest);
+    }
+
+    @Benchmark
+    public boolean isProgressingQuest()
+    {
+        return this.player.isProgressingQuest(this.quest);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.ExtensionInformation;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.area.Area;
+import nl.tim.questplugin.area.Cube;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.player.MovementTracker;
+import nl.tim.questplugin.player.PlayerHandler;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.Quest;
+import nl.tim.questplugin.quest.QuestHandler;
+import nl.tim.questplugin.quest.TaskHandler;
+import nl.tim.questplugin.quest.stage.Stage;
+import nl.tim.questplugin.quest.stage.StageConfiguration;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures the hot paths of {@link QuestHandler}: finding the quests a player can progress at their location in a
+ * catalogue of area locked quests, and checking for completion after progress was made by a player with a large
+ * history. The plugin is not enabled, but the quests and tasks are real.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuestHandlerBenchmark
+{
+    private static final int STAGES_PER_QUEST = 4;
+    private static final int TASKS_PER_STAGE = 5;
+    private static final int REQUIRED_PROGRESS = 10;
+
+    @ExtensionInformation(identifier = "benchmark", author = "QuestPlugin")
+    public static class BenchmarkTask extends Task
+    {
+        public BenchmarkTask()
+        {
+            super("Benchmark", "Task that is never completed");
+        }
+
+        @Override
+        public Integer getRequiredProgressToFinish()
+        {
+            return REQUIRED_PROGRESS;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Catalogue
+    {
+        private static final int WORLD_SIZE = 10000;
+        private static final int AREA_SIZE = 64;
+        private static final int PLAYERS = 1024;
+
+        @Param({"100", "1000", "10000"})
+        private int quests;
+
+        private QuestHandler questHandler;
+        private QPlayer[] players;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup()
+        {
+            Random random = new Random(42);
+            World world = Benchmarks.world("world");
+            QuestPlugin plugin = Benchmarks.plugin();
+
+            MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+            this.questHandler = new QuestHandler(plugin,
+                    new MovementTracker(mock(PlayerHandler.class), metricsRegistry), metricsRegistry);
+
+            List<Quest> catalogue = new ArrayList<>();
+
+            // One in ten quests can be done everywhere, the others are locked to a random area
+            for (int i = 0; i < this.quests; i++)
+            {
+                Area area = null;
+
+                if (i % 10 != 0)
+                {
+                    double x = random.nextInt(WORLD_SIZE);
+                    double z = random.nextInt(WORLD_SIZE);
+
+                    area = new Area(UUID.randomUUID(), Collections.singleton(new Cube(UUID.randomUUID(),
+                            new Location(world, x, 0, z), new Location(world, x + AREA_SIZE, 256, z + AREA_SIZE))));
+                }
+
+                catalogue.add(new Quest(UUID.randomUUID(), area, new LinkedList<>(),
+                        new HashSet<>(), new HashSet<>(), new ArrayList<>(), area != null, false, false, false, true));
+            }
+
+            this.questHandler.registerQuests(catalogue);
+
+            this.players = new QPlayer[PLAYERS];
+
+            for (int i = 0; i < PLAYERS; i++)
+            {
+                Location location = new Location(world, random.nextInt(WORLD_SIZE), 64, random.nextInt(WORLD_SIZE));
+
+                this.players[i] = new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                        new HashSetValuedHashMap<>(), UUID.randomUUID(), "benchmark", location);
+            }
+        }
+
+        private QPlayer nextPlayer()
+        {
+            this.next = (this.next + 1) % PLAYERS;
+            return this.players[this.next];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Progress
+    {
+        // Amount of quests the player is doing at the same time
+        private static final int ACTIVE_QUESTS = 10;
+
+        @Param({"10", "1000", "10000"})
+        private int completedQuests;
+
+        private QuestHandler questHandler;
+        private QPlayer player;
+        private Quest quest;
+
+        @Setup(Level.Trial)
+        public void setup()
+        {
+            QuestPlugin plugin = Benchmarks.plugin();
+            MetricsRegistry metricsRegistry = new MetricsRegistry();
+            TaskHandler taskHandler = new TaskHandler(plugin, metricsRegistry);
+
+            Benchmarks.inject(plugin, "taskHandler", taskHandler);
+
+            Benchmarks.enableLogging();
+            taskHandler.registerCustomExtension(BenchmarkTask.class);
+            this.questHandler = new QuestHandler(plugin,
+                    new MovementTracker(mock(PlayerHandler.class), metricsRegistry), metricsRegistry);
+
+            Set<UUID> completed = new HashSet<>();
+            MultiValuedMap<UUID, UUID> completedStages = new HashSetValuedHashMap<>();
+            MultiValuedMap<UUID, UUID> completedTasks = new HashSetValuedHashMap<>();
+            List<ProgressWrapper> progress = new ArrayList<>();
+
+            // History of quests that are no longer loaded
+            for (int i = 0; i < this.completedQuests; i++)
+            {
+                UUID questUUID = UUID.randomUUID();
+
+                completed.add(questUUID);
+
+                for (int stage = 0; stage < STAGES_PER_QUEST; stage++)
+                {
+                    UUID stageUUID = UUID.randomUUID();
+
+                    completedStages.put(questUUID, stageUUID);
+
+                    for (int task = 0; task < TASKS_PER_STAGE; task++)
+                    {
+                        completedTasks.put(stageUUID, UUID.randomUUID());
+                    }
+                }
+            }
+
+            // Quests in progress, the player is halfway through the tasks of the first stage
+            for (int i = 0; i < ACTIVE_QUESTS; i++)
+            {
+                Quest quest = this.createQuest(taskHandler);
+                Stage stage = quest.getStages().getFirst();
+                int task = 0;
+
+                for (Task taskWrapper : stage.getConfiguration().getTasks())
+                {
+                    if (task++ == 0)
+                    {
+                        completedTasks.put(stage.getUUID(), taskWrapper.getUUID());
+                    } else
+                    {
+                        progress.add(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(), stage.getUUID(),
+                                taskWrapper.getUUID(), REQUIRED_PROGRESS / 2));
+                    }
+                }
+
+                this.questHandler.registerQuest(quest);
+                this.quest = quest;
+            }
+
+            this.player = new QPlayer(progress, completed, completedStages, completedTasks, UUID.randomUUID(),
+                    "benchmark", null);
+        }
+
+        private Quest createQuest(TaskHandler taskHandler)
+        {
+            LinkedList<Stage> stages = new LinkedList<>();
+            Quest quest = new Quest(UUID.randomUUID(), null, stages, new HashSet<>(), new HashSet<>(),
+                    new ArrayList<>(), false, false, false, false, true);
+
+            for (int i = 0; i < STAGES_PER_QUEST; i++)
+            {
+                Set<Task> tasks = new HashSet<>();
+                StageConfiguration configuration = new StageConfiguration(new HashMap<>(), tasks, null,
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null);
+                Stage stage = new Stage("stage", quest, UUID.randomUUID(), configuration, false, false, false);
+
+                for (int task = 0; task < TASKS_PER_STAGE; task++)
+                {
+                    tasks.add((Task) taskHandler.buildExtension(Task.class, "benchmark", UUID.randomUUID(), stage,
+                            new HashMap<>()));
+                }
+
+                configuration.updateDescriptor();
+                stages.add(stage);
+            }
+
+            return quest;
+        }
+    }
+
+    @Benchmark
+    public Set<Quest> getQuestAtLocation(Catalogue catalogue)
+    {
+        return catalogue.questHandler.getQuestAtLocation(catalogue.nextPlayer());
+    }
+
+    @Benchmark
+    public QPlayer processProgress(Progress progress)
+    {
+        // None of the tasks are done, so this only does the checks and leaves the player untouched
+        progress.questHandler.processProgress(progress.player, progress.quest);
+
+        return progress.player;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.benchmarks;
+
+import nl.tim.questplugin.area.Cube;
+import nl.tim.questplugin.area.Polygon;
+import nl.tim.questplugin.area.Region;
+import nl.tim.questplugin.area.Sphere;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Region#inRegion(Location)} of every shape with regions of roughly the same size. The locations are
+ * spread around the region, so about half of them are inside.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionBenchmark
+{
+    private static final double SIZE = 100;
+    private static final int LOCATIONS = 1024;
+
+    @Param({"CUBE", "SPHERE", "POLYGON"})
+    private String shape;
+
+    // Only used by polygons
+    @Param({"16"})
+    private int corners;
+
+    private Region region;
+    private Location[] locations;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Random random = new Random(42);
+        World world = Benchmarks.world("world");
+
+        switch (this.shape)
+        {
+            case "CUBE":
+                this.region = new Cube(UUID.randomUUID(), new Location(world, -SIZE, 0, -SIZE),
+                        new Location(world, SIZE, 256, SIZE));
+                break;
+            case "SPHERE":
+                this.region = new Sphere(UUID.randomUUID(), new Location(world, 0, 64, 0), SIZE);
+                break;
+            case "POLYGON":
+                LinkedHashSet<Location> points = new LinkedHashSet<>();
+
+                for (int i = 0; i < this.corners; i++)
+                {
+                    double angle = 2 * Math.PI * i / this.corners;
+
+                    points.add(new Location(world, Math.cos(angle) * SIZE, 64, Math.sin(angle) * SIZE));
+                }
+
+                this.region = new Polygon(UUID.randomUUID(), points, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + this.shape);
+        }
+
+        this.locations = new Location[LOCATIONS];
+
+        for (int i = 0; i < LOCATIONS; i++)
+        {
+            this.locations[i] = new Location(world, (random.nextDouble() * 3 - 1.5) * SIZE, 64,
+                    (random.nextDouble() * 3 - 1.5) * SIZE);
+        }
+    }
+
+    @Benchmark
+    public boolean inRegion()
+    {
+        this.next = (this.next + 1) % LOCATIONS;
+        return this.region.inRegion(this.locations[this.next]);
+    }
+}
@@ -19,17 +19,24 @@ package nl.tim.questplugin;
 
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import nl.tim.questplugin.commands.QuestCommand;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.metrics.PrometheusExporter;
+import nl.tim.questplugin.player.MovementTracker;
 import nl.tim.questplugin.player.PlayerHandler;
 import nl.tim.questplugin.quest.QuestHandler;
 import nl.tim.questplugin.quest.TaskHandler;
 import nl.tim.questplugin.storage.ConfigHandler;
-import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.AsyncStorage;
 import nl.tim.questplugin.storage.StorageProvider;
 import nl.tim.questplugin.storage.image.builders.*;
 import nl.tim.questplugin.utils.Constants;
 import org.bukkit.Bukkit;
+import org.bukkit.command.PluginCommand;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Logger;
 
 public class QuestPlugin extends JavaPlugin
@@ -40,7 +47,7 @@ public class QuestPlugin extends JavaPlugin
     private Injector injector;
 
     @Inject private StorageProvider storageProvider;
-    private Storage storage;
+    private AsyncStorage storage;
     private boolean storageLoaded = false;
 
     private ConfigHandler configHandler;
@@ -55,6 +62,11 @@ public class QuestPlugin extends JavaPlugin
     @Inject private TaskHandler taskHandler;
     @Inject private QuestHandler questHandler;
     @Inject private PlayerHandler playerHandler;
+    @Inject private MovementTracker movementTracker;
+
+    @Inject private MetricsRegistry metricsRegistry;
+    @Inject private PrometheusExporter prometheusExporter;
+    @Inject private QuestCommand questCommand;
 
     @Override
     public void onEnable() {
@@ -91,7 +103,7 @@ public class QuestPlugin extends JavaPlugin
         // Continue normally
         logger.info("Loading handlers");
 
-        this.storage = this.storageProvider.getStorage(storageType);
+        this.storage = this.storageProvider.getAsyncStorage(storageType);
         this.storageLoaded = this.storage.init();
 
         // Check if storage loaded properly, otherwise disable plugin
@@ -104,12 +116,91 @@ public class QuestPlugin extends JavaPlugin
         }
 
         // Continue loading if storage was properly initialized
+        Integer flushInterval = this.configHandler.getOption(Integer.class, Constants.STORAGE_FLUSH_INTERVAL);
+        long flushTicks = (flushInterval != null && flushInterval > 0 ?
+                flushInterval : Constants.DEFAULT_STORAGE_FLUSH_INTERVAL) * 20L;
+        Integer autosaveInterval = this.configHandler.getOption(Integer.class, Constants.AUTOSAVE_INTERVAL);
+        long autosaveTicks = (autosaveInterval != null && autosaveInterval > 0 ?
+                autosaveInterval : Constants.DEFAULT_AUTOSAVE_INTERVAL) * 20L;
+
+        // Keep track of online players
+        Bukkit.getPluginManager().registerEvents(this.playerHandler, this);
+        this.playerHandler.loadOnlinePlayers();
+
+        // Keep track of the areas players are in
+        Bukkit.getPluginManager().registerEvents(this.movementTracker, this);
+
+        // Route events to the active tasks of players
+        this.taskHandler.getTaskEventDispatcher().enable(this);
+
+        // Check progress once per interval instead of after every update
+        Integer progressInterval = this.configHandler.getOption(Integer.class, Constants.PROGRESS_INTERVAL);
+        long progressTicks = progressInterval != null && progressInterval > 0 ?
+                progressInterval : Constants.DEFAULT_PROGRESS_INTERVAL;
+
+        Bukkit.getScheduler().runTaskTimer(this, this.questHandler.getProgressAccumulator()::flush,
+                progressTicks, progressTicks);
 
+        // Check the time used and errors thrown by extensions at the end of every tick
+        Bukkit.getScheduler().runTaskTimer(this, this.taskHandler.getExtensionWatchdog()::endTick, 1, 1);
+
+        // Periodically write changed data, so we do not lose everything on a crash
+        Bukkit.getScheduler().runTaskTimer(this, this.playerHandler::saveChanges, autosaveTicks, autosaveTicks);
+        Bukkit.getScheduler().runTaskTimer(this, this.storage::flushAsync, flushTicks, flushTicks);
+
+        // Metrics can be viewed with a command and optionally in a file
+        PluginCommand command = this.getCommand("quests");
+
+        if (command != null)
+        {
+            command.setExecutor(this.questCommand);
+        }
+
+        Integer dumpInterval = this.configHandler.getOption(Integer.class, Constants.METRICS_DUMP_INTERVAL);
+
+        if (dumpInterval != null && dumpInterval > 0)
+        {
+            File dumpFile = new File(this.getDataFolder(), Constants.METRICS_DUMP_FILE);
+
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> this.metricsRegistry.dump(dumpFile),
+                    dumpInterval * 20L, dumpInterval * 20L);
+        }
+
+        this.startPrometheusExporter();
 
         // Done with loading
         logger.info("QuestPlugin is enabled!");
     }
 
+    private void startPrometheusExporter()
+    {
+        Boolean enabled = this.configHandler.getOption(Boolean.class, Constants.METRICS_HTTP_ENABLED);
+
+        if (enabled == null || !enabled)
+        {
+            return;
+        }
+
+        String host = this.configHandler.getOption(String.class, Constants.METRICS_HTTP_HOST);
+        Integer port = this.configHandler.getOption(Integer.class, Constants.METRICS_HTTP_PORT);
+        Integer refreshInterval = this.configHandler.getOption(Integer.class, Constants.METRICS_HTTP_REFRESH_INTERVAL);
+
+        host = host != null ? host : Constants.DEFAULT_METRICS_HTTP_HOST;
+        port = port != null ? port : Constants.DEFAULT_METRICS_HTTP_PORT;
+        refreshInterval = refreshInterval != null && refreshInterval > 0 ?
+                refreshInterval : Constants.DEFAULT_METRICS_HTTP_REFRESH_INTERVAL;
+
+        try
+        {
+            this.prometheusExporter.start(host, port, refreshInterval);
+            logger.info("Serving metrics on http://" + host + ":" + port + "/metrics");
+        } catch (IOException e)
+        {
+            // The plugin works fine without the endpoint
+            logger.severe("Could not serve metrics on " + host + ":" + port + ": " + e.getMessage());
+        }
+    }
+
     @Override
     public void onDisable() {
         // Check if we have to unload anything
@@ -119,6 +210,21 @@ public class QuestPlugin extends JavaPlugin
             return;
         }
 
+        // Give rewards of progress that was not checked yet
+        this.questHandler.getProgressAccumulator().flush();
+
+        // Save all online players
+        this.playerHandler.saveAll();
+
+        // Write everything that was not yet flushed and stop the storage thread
+        this.storage.close();
+
+        this.prometheusExporter.stop();
+
+        // Drop references to extension classes so they don't outlive a reload
+        this.taskHandler.getExtensionWatchdog().clear();
+        this.taskHandler.getExtensionProfiler().clear();
+
         // Continue normal disabling
         logger.info("QuestPlugin is disabled!");
     }
@@ -128,7 +234,7 @@ public class QuestPlugin extends JavaPlugin
         return this.injector;
     }
 
-    public Storage getStorage()
+    public AsyncStorage getStorage()
     {
         return this.storage;
     }
@@ -158,6 +264,16 @@ public class QuestPlugin extends JavaPlugin
         return this.playerHandler;
     }
 
+    public MovementTracker getMovementTracker()
+    {
+        return this.movementTracker;
+    }
+
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return this.metricsRegistry;
+    }
+
     public AreaImageBuilder getAreaImageBuilder()
     {
         return this.areaImageBuilder;
@@ -83,6 +83,14 @@ public abstract class Configurable implements Saveable
 
     public boolean insertSetting(String identifier, String setting)
     {
+        // Check if setting was valid
+        if (!this.isValidSettingType(identifier, setting))
+        {
+            QuestPlugin.getLog().warning("Trying to parse invalid setting '" + setting + "' to type " +
+                    this.requiredType.get(identifier));
+            return false;
+        }
+
         return this.insertSetting(identifier, setting, true);
     }
 
@@ -90,10 +98,9 @@ public abstract class Configurable implements Saveable
     {
         InputType inputType = this.requiredType.get(identifier);
 
-        // Check if setting was valid
-        if (!this.isValidSettingType(identifier, setting))
+        // Check if this setting exists at all
+        if (inputType == null)
         {
-            QuestPlugin.getLog().warning("Trying to parse invalid setting '" + setting + "' to type " + inputType.name());
             return false;
         }
 
@@ -17,7 +17,10 @@
 
 package nl.tim.questplugin.api;
 
+import nl.tim.questplugin.QuestPlugin;
 import nl.tim.questplugin.quest.CustomExtension;
+import nl.tim.questplugin.quest.ExtensionWatchdog;
+import nl.tim.questplugin.quest.TaskHandler;
 import nl.tim.questplugin.quest.stage.Stage;
 import nl.tim.questplugin.storage.Storage;
 import org.bukkit.entity.Player;
@@ -42,8 +45,40 @@ public abstract class Requirement extends CustomExtension
     public boolean requirementMet(Player player)
     {
         boolean negate = Boolean.valueOf(this.getSetting("negate").toString());
+        TaskHandler taskHandler = this.getTaskHandler();
 
-        return negate != this.checkRequirement(player);
+        // Requirements that were not built by the TaskHandler are not profiled or watched
+        if (taskHandler == null)
+        {
+            return negate != this.checkRequirement(player);
+        }
+
+        ExtensionWatchdog watchdog = taskHandler.getExtensionWatchdog();
+
+        // A broken requirement is never met
+        if (watchdog.isBroken(this))
+        {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean met;
+
+        try
+        {
+            met = negate != this.checkRequirement(player);
+        } catch (RuntimeException e)
+        {
+            QuestPlugin.getLog().severe("An error occurred while checking requirement '" + this.getIdentifier() +
+                    "' (" + this.getUUID() + ") for player '" + player.getName() + "':");
+            e.printStackTrace();
+            watchdog.recordFailure(this);
+            met = false;
+        }
+
+        taskHandler.getExtensionProfiler().stop(this, start);
+
+        return met;
     }
 
     @Override
@@ -46,6 +46,12 @@ public abstract class Task extends CustomExtension implements Listener, Owner
     protected void updateProgess(QPlayer player, Integer newProgress)
     {
         player.getProgress(this.getUUID()).updateProgress(newProgress);
+
+        // Completion is checked later, together with other progress of this tick
+        if (this.getStage() != null && this.getStage().getQuest() != null)
+        {
+            this.getQuestHandler().queueProgress(player, this.getStage().getQuest());
+        }
     }
 
     public abstract Integer getRequiredProgressToFinish();
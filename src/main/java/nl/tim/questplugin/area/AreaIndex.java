@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.area;
+
+import org.bukkit.Location;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spatial index that links {@link Region}s to values (e.g. quests). Every world is divided in a grid of cells
+ * (16 by 16 blocks, like chunks) on the x/y plane and every region is added to the cells its {@link Bounds} cover.
+ * A query only checks the regions in the cell of the location, instead of all regions.
+ * @param <T> Type of the values
+ */
+public class AreaIndex<T>
+{
+    private static final int CELL_SHIFT = 4;
+
+    // Regions covering more cells than this are checked on every query, so huge regions do not flood the grid
+    private static final int MAX_CELLS = 1024;
+
+    private static final class Entry<T>
+    {
+        private final Region region;
+        private final T value;
+
+        private Entry(Region region, T value)
+        {
+            this.region = region;
+            this.value = value;
+        }
+    }
+
+    private static final class WorldIndex<T>
+    {
+        // Cell lists are never changed, but replaced, so queries do not have to lock
+        private final Map<Long, List<Entry<T>>> cells = new ConcurrentHashMap<>();
+        private volatile List<Entry<T>> largeRegions = Collections.emptyList();
+    }
+
+    // Regions partitioned per world key, see Region#toWorldKey
+    private final Map<UUID, WorldIndex<T>> worlds;
+
+    public AreaIndex()
+    {
+        this.worlds = new ConcurrentHashMap<>();
+    }
+
+    private static int toCell(double coordinate)
+    {
+        return (int) Math.floor(coordinate) >> CELL_SHIFT;
+    }
+
+    private static long toKey(int cellX, int cellY)
+    {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private static <T> List<Entry<T>> with(List<Entry<T>> entries, Entry<T> entry)
+    {
+        List<Entry<T>> result = new ArrayList<>(entries.size() + 1);
+
+        result.addAll(entries);
+        result.add(entry);
+
+        return Collections.unmodifiableList(result);
+    }
+
+    private static <T> List<Entry<T>> without(List<Entry<T>> entries, T value)
+    {
+        List<Entry<T>> result = new ArrayList<>(entries.size());
+
+        for (Entry<T> entry : entries)
+        {
+            if (!entry.value.equals(value))
+            {
+                result.add(entry);
+            }
+        }
+
+        return result.size() == entries.size() ? entries : Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Adds the given {@link Region} to this index, queries in this region will return the given value.
+     * @param region {@link Region} to add
+     * @param value Value linked to the region
+     */
+    public synchronized void add(Region region, T value)
+    {
+        UUID worldKey = region.getWorldKey();
+
+        // Regions without a world can never contain a location
+        if (worldKey == null)
+        {
+            return;
+        }
+
+        WorldIndex<T> worldIndex = this.worlds.computeIfAbsent(worldKey, k -> new WorldIndex<>());
+        Entry<T> entry = new Entry<>(region, value);
+        Bounds bounds = region.getBounds();
+
+        int minX = toCell(bounds.getMinX());
+        int maxX = toCell(bounds.getMaxX());
+        int minY = toCell(bounds.getMinY());
+        int maxY = toCell(bounds.getMaxY());
+
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_CELLS)
+        {
+            worldIndex.largeRegions = with(worldIndex.largeRegions, entry);
+            return;
+        }
+
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                worldIndex.cells.merge(toKey(x, y), Collections.singletonList(entry), (old, e) -> with(old, entry));
+            }
+        }
+    }
+
+    /**
+     * Removes all regions linked to the given value.
+     * @param value Value to remove
+     */
+    public synchronized void remove(T value)
+    {
+        for (WorldIndex<T> worldIndex : this.worlds.values())
+        {
+            worldIndex.largeRegions = without(worldIndex.largeRegions, value);
+            worldIndex.cells.replaceAll((key, entries) -> without(entries, value));
+            worldIndex.cells.values().removeIf(List::isEmpty);
+        }
+    }
+
+    /**
+     * Returns all values with a {@link Region} containing the given {@link Location}.
+     * @param location {@link Location} to check
+     * @return A {@link Set} with all found values (empty if none were found).
+     */
+    public Set<T> query(Location location)
+    {
+        Set<T> result = new HashSet<>();
+
+        // Check if the location is valid
+        if (location == null || location.getWorld() == null)
+        {
+            return result;
+        }
+
+        // Regions of other worlds are never checked
+        WorldIndex<T> worldIndex = this.worlds.get(Region.toWorldKey(location.getWorld()));
+
+        if (worldIndex == null)
+        {
+            return result;
+        }
+
+        List<Entry<T>> entries = worldIndex.cells.get(toKey(toCell(location.getX()), toCell(location.getY())));
+
+        if (entries != null)
+        {
+            this.test(entries, location, result);
+        }
+
+        this.test(worldIndex.largeRegions, location, result);
+
+        return result;
+    }
+
+    private void test(List<Entry<T>> entries, Location location, Set<T> result)
+    {
+        for (Entry<T> entry : entries)
+        {
+            // No need to check regions of values that were already found
+            if (!result.contains(entry.value) && entry.region.inRegion(location))
+            {
+                result.add(entry.value);
+            }
+        }
+    }
+}
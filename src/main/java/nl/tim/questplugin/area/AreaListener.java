@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.area;
+
+import nl.tim.questplugin.player.QPlayer;
+
+/**
+ * Gets notified when a player enters or leaves an {@link Area}, see
+ * {@link nl.tim.questplugin.player.MovementTracker}.
+ */
+public interface AreaListener
+{
+    /**
+     * Called when the given player enters the given {@link Area}.
+     * @param player {@link QPlayer} that entered the area
+     * @param area {@link Area} that was entered
+     */
+    void onEnter(QPlayer player, Area area);
+
+    /**
+     * Called when the given player leaves the given {@link Area}.
+     * @param player {@link QPlayer} that left the area
+     * @param area {@link Area} that was left
+     */
+    void onLeave(QPlayer player, Area area);
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.area;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Bounding box of a {@link Region} on the x/y plane. Height is ignored, since regions can ignore height as well.
+ */
+public final class Bounds
+{
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    public Bounds(double x1, double y1, double x2, double y2)
+    {
+        this.minX = Math.min(x1, x2);
+        this.minY = Math.min(y1, y2);
+        this.maxX = Math.max(x1, x2);
+        this.maxY = Math.max(y1, y2);
+    }
+
+    public double getMinX()
+    {
+        return this.minX;
+    }
+
+    public double getMinY()
+    {
+        return this.minY;
+    }
+
+    public double getMaxX()
+    {
+        return this.maxX;
+    }
+
+    public double getMaxY()
+    {
+        return this.maxY;
+    }
+
+    public boolean contains(double x, double y)
+    {
+        return x >= this.minX && x <= this.maxX && y >= this.minY && y <= this.maxY;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this)
+                .append("minX", minX)
+                .append("minY", minY)
+                .append("maxX", maxX)
+                .append("maxY", maxY)
+                .toString();
+    }
+}
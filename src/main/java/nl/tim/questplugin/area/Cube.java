@@ -46,7 +46,7 @@ public class Cube extends Region
     public boolean inRegion(Location location, boolean ignoreHeight)
     {
         // Check if location is in the same world
-        if (!location.getWorld().getName().equals(this.getWorld().getName()))
+        if (!this.inWorld(location.getWorld()))
         {
             return false;
         }
@@ -61,6 +61,12 @@ public class Cube extends Region
                 && (ignoreHeight || liesBetween(this.location1.getZ(), this.location2.getZ(), z));
     }
 
+    @Override
+    public Bounds getBounds()
+    {
+        return new Bounds(this.location1.getX(), this.location1.getY(), this.location2.getX(), this.location2.getY());
+    }
+
     private boolean liesBetween(double a, double b, double n)
     {
         return (n - a) * (n - b) <= 0;
@@ -18,10 +18,8 @@
 package nl.tim.questplugin.area;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.bukkit.Location;
 
-import java.awt.geom.Line2D;
 import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.UUID;
@@ -35,51 +33,9 @@ public class Polygon extends Region
     private double yMin = Integer.MAX_VALUE;
     private double yMax = Integer.MIN_VALUE;
 
-    protected class Line
-    {
-        private Point startPoint;
-        private Point endPoint;
-
-        Line(Location startLocation, Location endLocation)
-        {
-            this.startPoint = new Point(startLocation.getX(), startLocation.getY());
-            this.endPoint = new Point(endLocation.getX(), endLocation.getY());
-        }
-
-        private boolean intersect(Line line)
-        {
-            return Line2D.linesIntersect(startPoint.x, startPoint.y, endPoint.x, endPoint.y,
-                    line.startPoint.x, line.startPoint.y, line.endPoint.x, line.endPoint.y);
-        }
-
-        @Override
-        public String toString() {
-            return new ToStringBuilder(this)
-                    .append("startPoint", startPoint)
-                    .append("endPoint", endPoint)
-                    .toString();
-        }
-    }
-
-    protected class Point
-    {
-        private double x;
-        private double y;
-
-        Point(double x, double y)
-        {
-            this.x = x;
-            this.y = y;
-        }
-
-        @Override
-        public String toString() {
-            return new ToStringBuilder(this)
-                    .append("x", x)
-                    .append("y", y)
-                    .toString();
-        }
-    }
+    // Vertices of the polygon in order, so inRegion does not have to touch the location set
+    private double[] xPoints;
+    private double[] yPoints;
 
     public Polygon(UUID uuid, LinkedHashSet<Location> locationSet)
     {
@@ -98,7 +54,7 @@ public class Polygon extends Region
             this.setWorld(firstLocation != null ? firstLocation.getWorld() : null);
         }
 
-        this.calcBorders();
+        this.calcVertices();
     }
 
     public boolean updateLocation(Location oldLocation, Location newLocation)
@@ -112,6 +68,7 @@ public class Polygon extends Region
                 location.setY(newLocation.getY());
                 location.setZ(newLocation.getZ());
 
+                this.calcVertices();
                 return true;
             }
         }
@@ -119,38 +76,52 @@ public class Polygon extends Region
         return false;
     }
 
+    private void calcVertices()
+    {
+        this.xPoints = new double[this.locationSet.size()];
+        this.yPoints = new double[this.locationSet.size()];
+
+        int i = 0;
+
+        for (Location location : this.locationSet)
+        {
+            this.xPoints[i] = location.getX();
+            this.yPoints[i] = location.getY();
+            i++;
+        }
+
+        this.calcBorders();
+    }
+
     private void calcBorders()
     {
         // Calculates borders of polygon, so we can later reduce the time inRegion takes for
         // players who are not nearby
+        this.xMin = Integer.MAX_VALUE;
+        this.xMax = Integer.MIN_VALUE;
+        this.yMin = Integer.MAX_VALUE;
+        this.yMax = Integer.MIN_VALUE;
+
         for (Location location : this.locationSet)
         {
-            double x = location.getX();
-            double y = location.getY();
-
-            if (x < this.xMin)
-            {
-                this.xMin = x;
-            } else if (x > this.xMax)
-            {
-                this.xMax = x;
-            }
-
-            if (y < this.yMin)
-            {
-                this.yMin = y;
-            } else if (y > this.yMax)
-            {
-                this.yMax = y;
-            }
+            this.xMin = Math.min(this.xMin, location.getX());
+            this.xMax = Math.max(this.xMax, location.getX());
+            this.yMin = Math.min(this.yMin, location.getY());
+            this.yMax = Math.max(this.yMax, location.getY());
         }
     }
 
+    @Override
+    public Bounds getBounds()
+    {
+        return new Bounds(this.xMin, this.yMin, this.xMax, this.yMax);
+    }
+
     @Override
     public boolean inRegion(Location location, boolean ignoreHeight)
     {
         // Check if location is in the same world
-        if (!location.getWorld().getName().equals(this.getWorld().getName()))
+        if (!this.inWorld(location.getWorld()))
         {
             return false;
         }
@@ -167,36 +138,23 @@ public class Polygon extends Region
             return false;
         }
 
-        // Create point outside polygon
-        double xStart = this.xMin - 1;
-        double yStart = this.yMin - 1;
-
-        Line rayLine = new Line(location, new Location(null, xStart, yStart, 0D));
-        int intersections = 0;
+        double[] xPoints = this.xPoints;
+        double[] yPoints = this.yPoints;
+        boolean inside = false;
 
-        // Get last location to create a line between the first and last location
-        Location previousLocation = (Location) this.locationSet.toArray()[this.locationSet.size() - 1];
-
-        // Loop through all locations to create lines
-        for (Location itLocation : this.locationSet)
+        // Cast a ray from the location in the positive x direction and count the edges it crosses, every edge between
+        // the last and current vertex that spans the y of the location and lies to the right of it flips the result
+        for (int i = 0, j = xPoints.length - 1; i < xPoints.length; j = i++)
         {
-            if (previousLocation != null)
+            if ((yPoints[i] > y) != (yPoints[j] > y)
+                    && x < (xPoints[j] - xPoints[i]) * (y - yPoints[i]) / (yPoints[j] - yPoints[i]) + xPoints[i])
             {
-                // Create line between current points
-                Line line = new Line(previousLocation, itLocation);
-
-                // If the lines intersect increment 'intersections'
-                if (line.intersect(rayLine))
-                {
-                    intersections++;
-                }
+                inside = !inside;
             }
-
-            previousLocation = itLocation;
         }
 
-        // If the location is in the polygon the number of intersections will be odd
-        return intersections % 2 == 1;
+        // If the location is in the polygon the number of crossings will be odd
+        return inside;
     }
 
     @Override
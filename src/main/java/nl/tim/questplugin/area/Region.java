@@ -20,6 +20,7 @@ package nl.tim.questplugin.area;
 import org.bukkit.Location;
 import org.bukkit.World;
 
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashSet;
 import java.util.UUID;
 
@@ -36,12 +37,34 @@ public abstract class Region
     private World world;
     private boolean ignoreHeight;
 
+    // Key of the world, so world checks do not have to compare names
+    private UUID worldKey;
+
     public Region(String regionFileIdentifier, UUID uiud, World world, boolean ignoreHeight)
     {
         this.regionFileIdentifier = regionFileIdentifier;
         this.uuid = uiud;
-        this.world = world;
         this.ignoreHeight = ignoreHeight;
+        this.setWorld(world);
+    }
+
+    /**
+     * Returns the key of the given {@link World}, which is the {@link UUID} of the world if it has one. Worlds
+     * with the same key are the same world, even if they are different instances.
+     * @param world {@link World} to get the key of
+     * @return The key of the world, or null if the world is null.
+     */
+    public static UUID toWorldKey(World world)
+    {
+        if (world == null)
+        {
+            return null;
+        }
+
+        UUID uid = world.getUID();
+
+        // Fall back to the name for worlds without a UUID
+        return uid != null ? uid : UUID.nameUUIDFromBytes(world.getName().getBytes(StandardCharsets.UTF_8));
     }
 
     public boolean inRegion(Location location)
@@ -52,6 +75,28 @@ public abstract class Region
     public void setWorld(World world)
     {
         this.world = world;
+        this.worldKey = toWorldKey(world);
+    }
+
+    /**
+     * Checks if the given {@link World} is the world of this region.
+     * @param world {@link World} to check
+     * @return True if the world is the world of this region, false otherwise.
+     */
+    public boolean inWorld(World world)
+    {
+        // Loaded worlds are the same instance, so this is almost always enough
+        if (world == this.world)
+        {
+            return world != null;
+        }
+
+        return world != null && this.worldKey != null && this.worldKey.equals(toWorldKey(world));
+    }
+
+    public UUID getWorldKey()
+    {
+        return this.worldKey;
     }
 
     public World getWorld()
@@ -76,6 +121,12 @@ public abstract class Region
 
     public abstract boolean inRegion(Location location, boolean ignoreHeight);
 
+    /**
+     * Returns the {@link Bounds} of this region on the x/y plane. Every location in this region lies within them.
+     * @return The {@link Bounds} of this region.
+     */
+    public abstract Bounds getBounds();
+
     public abstract boolean equals(Object object);
 
     public abstract int hashCode();
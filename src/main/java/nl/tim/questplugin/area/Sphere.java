@@ -61,7 +61,7 @@ public class Sphere extends Region
     public boolean inRegion(Location location, boolean ignoreHeight)
     {
         // Check if location is in the same world
-        if (!location.getWorld().getName().equals(this.getWorld().getName()))
+        if (!this.inWorld(location.getWorld()))
         {
             return false;
         }
@@ -77,6 +77,13 @@ public class Sphere extends Region
         return distanceToCenter <= this.radius * this.radius;
     }
 
+    @Override
+    public Bounds getBounds()
+    {
+        return new Bounds(this.center.getX() - this.radius, this.center.getY() - this.radius,
+                this.center.getX() + this.radius, this.center.getY() + this.radius);
+    }
+
     @Override
     public boolean equals(Object object)
     {
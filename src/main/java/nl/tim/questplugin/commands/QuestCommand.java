@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.commands;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.quest.TaskHandler;
+import nl.tim.questplugin.utils.Constants;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Handles the /quests command.
+ */
+@Singleton
+public class QuestCommand implements CommandExecutor
+{
+    private MetricsRegistry metricsRegistry;
+    private TaskHandler taskHandler;
+
+    @Inject
+    public QuestCommand(MetricsRegistry metricsRegistry, TaskHandler taskHandler)
+    {
+        this.metricsRegistry = metricsRegistry;
+        this.taskHandler = taskHandler;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args)
+    {
+        String subCommand = args.length == 1 ? args[0].toLowerCase(Locale.ROOT) : "";
+
+        // Metrics of the plugin and of extensions are the only sub commands for now
+        if (!subCommand.equals("metrics") && !subCommand.equals("extensions"))
+        {
+            sender.sendMessage("Usage: /" + label + " <metrics|extensions>");
+            return true;
+        }
+
+        if (!sender.hasPermission(Constants.METRICS_PERMISSION))
+        {
+            sender.sendMessage("You do not have permission to view the metrics of QuestPlugin.");
+            return true;
+        }
+
+        List<String> report = subCommand.equals("metrics") ?
+                this.metricsRegistry.report() : this.extensionReport();
+        String title = subCommand.equals("metrics") ?
+                "QuestPlugin metrics:" : "Time used by extensions (percentiles of the last 1000 calls):";
+
+        sender.sendMessage(title);
+        sender.sendMessage(report.toArray(new String[0]));
+
+        return true;
+    }
+
+    private List<String> extensionReport()
+    {
+        List<String> report = new ArrayList<>(this.taskHandler.getExtensionProfiler().report());
+        Set<String> broken = this.taskHandler.getExtensionWatchdog().getBrokenExtensions();
+
+        if (!broken.isEmpty())
+        {
+            report.add("Disabled extensions: " + String.join(", ", broken));
+        }
+
+        return report;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often something happened. Increments are striped over multiple cells, so threads do not contend with
+ * each other.
+ */
+public class Counter
+{
+    private final LongAdder count;
+
+    public Counter()
+    {
+        this.count = new LongAdder();
+    }
+
+    public void increment()
+    {
+        this.count.increment();
+    }
+
+    public void add(long amount)
+    {
+        this.count.add(amount);
+    }
+
+    public long getCount()
+    {
+        return this.count.sum();
+    }
+}
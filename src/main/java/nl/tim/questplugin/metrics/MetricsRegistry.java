@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.metrics;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import nl.tim.questplugin.QuestPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps all {@link Counter}s, {@link Timer}s and gauges of the plugin by name. Metrics should be looked up once and
+ * kept in a field, so recording them does not need a map lookup. Names are lower case words separated by dots and can
+ * end with labels, e.g. storage.save{data_type=player}.
+ */
+@Singleton
+public class MetricsRegistry
+{
+    private Map<String, Counter> counters;
+    private Map<String, Timer> timers;
+    private Map<String, LongSupplier> gauges;
+
+    @Inject
+    public MetricsRegistry()
+    {
+        this.counters = new ConcurrentHashMap<>();
+        this.timers = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the {@link Counter} with the given name, it is created if it does not exist yet.
+     * @param name Name of the counter
+     * @return The {@link Counter} with the given name.
+     */
+    public Counter counter(String name)
+    {
+        return this.counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Returns the {@link Timer} with the given name, it is created if it does not exist yet.
+     * @param name Name of the timer
+     * @return The {@link Timer} with the given name.
+     */
+    public Timer timer(String name)
+    {
+        return this.timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Registers a gauge, a value that is only read when the metrics are reported. Replaces any gauge with the same
+     * name.
+     * @param name Name of the gauge
+     * @param value Supplier of the current value, should be cheap and thread safe
+     */
+    public void gauge(String name, LongSupplier value)
+    {
+        this.gauges.put(name, value);
+    }
+
+    public SortedMap<String, Counter> getCounters()
+    {
+        return new TreeMap<>(this.counters);
+    }
+
+    public SortedMap<String, Timer> getTimers()
+    {
+        return new TreeMap<>(this.timers);
+    }
+
+    /**
+     * Returns the current value of all gauges.
+     * @return A map containing the value of every gauge by name.
+     */
+    public SortedMap<String, Long> getGauges()
+    {
+        SortedMap<String, Long> result = new TreeMap<>();
+
+        this.gauges.forEach((name, value) -> result.put(name, value.getAsLong()));
+
+        return result;
+    }
+
+    /**
+     * Returns a human readable report of all metrics, one metric per line.
+     * @return The lines of the report.
+     */
+    public List<String> report()
+    {
+        List<String> lines = new ArrayList<>();
+
+        this.getTimers().forEach((name, timer) -> {
+            Timer.Snapshot snapshot = timer.snapshot();
+
+            lines.add(name + ": " + snapshot.getCount() + " calls, mean " + format((long) snapshot.getMeanNanos()) +
+                    ", p50 " + format(snapshot.getPercentileNanos(0.5)) +
+                    ", p99 " + format(snapshot.getPercentileNanos(0.99)) +
+                    ", max " + format(snapshot.getMaxNanos()));
+        });
+        this.getCounters().forEach((name, counter) -> lines.add(name + ": " + counter.getCount()));
+        this.getGauges().forEach((name, value) -> lines.add(name + ": " + value));
+
+        return lines;
+    }
+
+    /**
+     * Writes the report of {@link #report()} to the given file, replacing its contents.
+     * @param file File to write to
+     */
+    public void dump(File file)
+    {
+        List<String> lines = new ArrayList<>();
+
+        lines.add("# QuestPlugin metrics at " + new Date());
+        lines.addAll(this.report());
+
+        try
+        {
+            // Write to a temporary file first, so readers never see half a dump
+            File temporary = new File(file.getPath() + ".tmp");
+
+            Files.write(temporary.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e)
+        {
+            QuestPlugin.getLog().severe("Could not write metrics to '" + file + "'");
+            e.printStackTrace();
+        }
+    }
+
+    private static String format(long nanos)
+    {
+        if (nanos < 1000)
+        {
+            return nanos + "ns";
+        } else if (nanos < 1000000)
+        {
+            return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+        } else if (nanos < 1000000000)
+        {
+            return String.format(Locale.ROOT, "%.2fms", nanos / 1000000.0);
+        }
+
+        return String.format(Locale.ROOT, "%.2fs", nanos / 1000000000.0);
+    }
+}
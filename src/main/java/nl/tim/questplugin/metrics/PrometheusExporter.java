@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.metrics;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import nl.tim.questplugin.QuestPlugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the metrics of a {@link MetricsRegistry} in the Prometheus text format over HTTP. The metrics are rendered
+ * periodically on the exporter thread and scrapes only get the last rendered snapshot, so they never wait for (or
+ * slow down) the server thread.
+ */
+@Singleton
+public class PrometheusExporter
+{
+    private static final String PREFIX = "questplugin_";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private MetricsRegistry metricsRegistry;
+
+    private HttpServer server;
+    private ScheduledExecutorService executor;
+    private volatile byte[] snapshot;
+
+    @Inject
+    public PrometheusExporter(MetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+        this.snapshot = new byte[0];
+    }
+
+    /**
+     * Starts serving the metrics on http://host:port/metrics.
+     * @param host Host to bind to
+     * @param port Port to bind to, 0 picks a free port
+     * @param refreshInterval Time in seconds between renders of the metrics
+     * @throws IOException If the server could not be started, e.g. because the port is in use.
+     */
+    public synchronized void start(String host, int port, int refreshInterval) throws IOException
+    {
+        if (this.server != null)
+        {
+            return;
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "QuestPlugin-Metrics");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try
+        {
+            this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (IOException e)
+        {
+            this.executor.shutdownNow();
+            throw e;
+        }
+
+        this.server.createContext("/metrics", this::handle);
+        this.server.setExecutor(this.executor);
+        this.executor.scheduleAtFixedRate(this::refresh, 0, refreshInterval, TimeUnit.SECONDS);
+        this.server.start();
+    }
+
+    /**
+     * Stops the server, does nothing if it was not started.
+     */
+    public synchronized void stop()
+    {
+        if (this.server == null)
+        {
+            return;
+        }
+
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.server = null;
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     * @return The port, or -1 if the server is not running.
+     */
+    public synchronized int getPort()
+    {
+        return this.server != null ? this.server.getAddress().getPort() : -1;
+    }
+
+    private void refresh()
+    {
+        try
+        {
+            this.snapshot = this.render().getBytes(StandardCharsets.UTF_8);
+        } catch (RuntimeException e)
+        {
+            // Keep serving the old snapshot, a broken gauge should not stop the exporter
+            QuestPlugin.getLog().severe("Could not render metrics:");
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        byte[] body = this.snapshot;
+
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (OutputStream output = exchange.getResponseBody())
+        {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text format. {@link Timer}s become histograms in seconds, {@link Counter}s
+     * become counters and gauges stay gauges.
+     * @return The rendered metrics.
+     */
+    public String render()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        // Metrics with labels share their name with others, which have to be grouped under one type line
+        this.group(this.metricsRegistry.getTimers()).forEach((family, timers) -> {
+            String name = family + "_seconds";
+
+            builder.append("# TYPE ").append(name).append(" histogram\n");
+            timers.forEach((labels, timer) -> this.renderHistogram(builder, name, labels, timer.snapshot()));
+        });
+
+        this.group(this.metricsRegistry.getCounters()).forEach((family, counters) -> {
+            String name = family + "_total";
+
+            builder.append("# TYPE ").append(name).append(" counter\n");
+            counters.forEach((labels, counter) ->
+                    this.renderSample(builder, name, labels, Long.toString(counter.getCount())));
+        });
+
+        this.group(this.metricsRegistry.getGauges()).forEach((name, gauges) -> {
+            builder.append("# TYPE ").append(name).append(" gauge\n");
+            gauges.forEach((labels, value) -> this.renderSample(builder, name, labels, Long.toString(value)));
+        });
+
+        return builder.toString();
+    }
+
+    private void renderHistogram(StringBuilder builder, String name, String labels, Timer.Snapshot snapshot)
+    {
+        long[] bounds = Timer.getBounds();
+        long[] buckets = snapshot.getBuckets();
+        long cumulative = 0;
+
+        for (int i = 0; i < bounds.length; i++)
+        {
+            cumulative += buckets[i];
+            this.renderSample(builder, name + "_bucket", this.withLabel(labels, "le", toSeconds(bounds[i])),
+                    Long.toString(cumulative));
+        }
+
+        this.renderSample(builder, name + "_bucket", this.withLabel(labels, "le", "+Inf"),
+                Long.toString(snapshot.getCount()));
+        this.renderSample(builder, name + "_sum", labels, toSeconds(snapshot.getTotalNanos()));
+        this.renderSample(builder, name + "_count", labels, Long.toString(snapshot.getCount()));
+    }
+
+    private void renderSample(StringBuilder builder, String name, String labels, String value)
+    {
+        builder.append(name);
+
+        if (!labels.isEmpty())
+        {
+            builder.append('{').append(labels).append('}');
+        }
+
+        builder.append(' ').append(value).append('\n');
+    }
+
+    private String withLabel(String labels, String name, String value)
+    {
+        String label = name + "=\"" + value + "\"";
+
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    /**
+     * Groups metrics by their Prometheus name, the keys of the inner maps are the rendered labels of every metric.
+     */
+    private <T> SortedMap<String, SortedMap<String, T>> group(Map<String, T> metrics)
+    {
+        SortedMap<String, SortedMap<String, T>> result = new TreeMap<>();
+
+        metrics.forEach((name, metric) -> {
+            int labelStart = name.indexOf('{');
+            String baseName = labelStart < 0 ? name : name.substring(0, labelStart);
+            String labels = labelStart < 0 ? "" : this.renderLabels(name.substring(labelStart + 1, name.length() - 1));
+
+            result.computeIfAbsent(PREFIX + baseName.replaceAll("[^a-zA-Z0-9_]", "_"), key -> new TreeMap<>())
+                    .put(labels, metric);
+        });
+
+        return result;
+    }
+
+    private String renderLabels(String labels)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (String label : labels.split(","))
+        {
+            String[] parts = label.split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+
+            if (builder.length() > 0)
+            {
+                builder.append(',');
+            }
+
+            builder.append(parts[0].trim()).append("=\"")
+                    .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+
+        return builder.toString();
+    }
+
+    private static String toSeconds(long nanos)
+    {
+        return Double.toString(nanos / 1e9);
+    }
+}
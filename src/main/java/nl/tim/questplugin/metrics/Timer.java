@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how often something was done and how long it took in a histogram with fixed buckets. Recording only
+ * increments a few striped counters, so it is cheap enough for the hot paths.
+ */
+public class Timer
+{
+    /**
+     * Immutable view of a {@link Timer} at one point in time.
+     */
+    public static final class Snapshot
+    {
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        private Snapshot(long count, long totalNanos, long maxNanos, long[] buckets)
+        {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public long getCount()
+        {
+            return this.count;
+        }
+
+        public long getTotalNanos()
+        {
+            return this.totalNanos;
+        }
+
+        public long getMaxNanos()
+        {
+            return this.maxNanos;
+        }
+
+        public double getMeanNanos()
+        {
+            return this.count == 0 ? 0 : (double) this.totalNanos / this.count;
+        }
+
+        /**
+         * Returns the amount of recorded durations per bucket (not cumulative), see {@link Timer#getBounds()}. The
+         * last bucket contains everything slower than the last bound.
+         * @return The amount of durations per bucket.
+         */
+        public long[] getBuckets()
+        {
+            return this.buckets.clone();
+        }
+
+        /**
+         * Returns an estimate of the given percentile. Durations are only known per bucket, so this is the upper
+         * bound of the bucket the percentile falls in (or the maximum if that is lower).
+         * @param percentile Percentile between 0 and 1
+         * @return The estimated percentile in nanoseconds.
+         */
+        public long getPercentileNanos(double percentile)
+        {
+            long target = (long) Math.ceil(percentile * this.count);
+            long seen = 0;
+
+            for (int i = 0; i < BOUNDS.length; i++)
+            {
+                seen += this.buckets[i];
+
+                if (seen >= target && seen > 0)
+                {
+                    return Math.min(BOUNDS[i], this.maxNanos);
+                }
+            }
+
+            return this.maxNanos;
+        }
+    }
+
+    // Upper bounds of the buckets in nanoseconds
+    private static final long[] BOUNDS = {
+            TimeUnit.MICROSECONDS.toNanos(1),
+            TimeUnit.MICROSECONDS.toNanos(10),
+            TimeUnit.MICROSECONDS.toNanos(50),
+            TimeUnit.MICROSECONDS.toNanos(100),
+            TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.MILLISECONDS.toNanos(50),
+            TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(1)
+    };
+
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final LongAdder totalNanos;
+    private final LongAccumulator maxNanos;
+
+    public Timer()
+    {
+        this.buckets = new LongAdder[BOUNDS.length + 1];
+        this.count = new LongAdder();
+        this.totalNanos = new LongAdder();
+        this.maxNanos = new LongAccumulator(Math::max, 0);
+
+        for (int i = 0; i < this.buckets.length; i++)
+        {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the upper bounds of the buckets in nanoseconds.
+     * @return The bounds of all buckets, except the last one which has no upper bound.
+     */
+    public static long[] getBounds()
+    {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * Records a duration.
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        int bucket = 0;
+
+        while (bucket < BOUNDS.length && nanos > BOUNDS[bucket])
+        {
+            bucket++;
+        }
+
+        this.buckets[bucket].increment();
+        this.count.increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Records the time since the given start.
+     * @param startNanos Start as returned by {@link System#nanoTime()}
+     */
+    public void stop(long startNanos)
+    {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount()
+    {
+        return this.count.sum();
+    }
+
+    public Snapshot snapshot()
+    {
+        long[] bucketCounts = new long[this.buckets.length];
+
+        for (int i = 0; i < bucketCounts.length; i++)
+        {
+            bucketCounts[i] = this.buckets[i].sum();
+        }
+
+        // Other threads might record in between, so the count is based on the buckets to stay consistent
+        return new Snapshot(Arrays.stream(bucketCounts).sum(), this.totalNanos.sum(), this.maxNanos.get(),
+                bucketCounts);
+    }
+}
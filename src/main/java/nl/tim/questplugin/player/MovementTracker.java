@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.player;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.area.Area;
+import nl.tim.questplugin.area.AreaIndex;
+import nl.tim.questplugin.area.AreaListener;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.metrics.Timer;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the {@link Area}s every online player is in. Move events are only handled when a player moves to
+ * another block (so looking around is ignored), and only the areas near the new location are checked. The
+ * {@link AreaListener}s of areas that were entered or left are notified.
+ */
+@Singleton
+public class MovementTracker implements Listener
+{
+    private PlayerHandler playerHandler;
+
+    private AreaIndex<Area> areaIndex;
+
+    // Listeners per area, replaced on every change so events do not have to lock
+    private volatile Map<Area, List<AreaListener>> listeners;
+
+    // Areas every player is currently in
+    private Map<UUID, Set<Area>> playerAreas;
+
+    private Timer lookupTimer;
+
+    @Inject
+    public MovementTracker(PlayerHandler playerHandler, MetricsRegistry metricsRegistry)
+    {
+        this.playerHandler = playerHandler;
+        this.areaIndex = new AreaIndex<>();
+        this.listeners = Collections.emptyMap();
+        this.playerAreas = new ConcurrentHashMap<>();
+        this.lookupTimer = metricsRegistry.timer("area.lookup");
+    }
+
+    /**
+     * Starts tracking the given {@link Area}. Players that are already in the area are noticed once they move.
+     * @param area {@link Area} to track
+     * @param listeners {@link AreaListener}s to notify when a player enters or leaves the area
+     */
+    public synchronized void register(Area area, Collection<? extends AreaListener> listeners)
+    {
+        Map<Area, List<AreaListener>> listenerMap = new HashMap<>(this.listeners);
+        List<AreaListener> areaListeners = listenerMap.get(area);
+
+        // First registration of this area, so add its regions
+        if (areaListeners == null)
+        {
+            areaListeners = Collections.emptyList();
+            area.getRegions().forEach(region -> this.areaIndex.add(region, area));
+        }
+
+        List<AreaListener> newListeners = new ArrayList<>(areaListeners);
+
+        newListeners.addAll(listeners);
+        listenerMap.put(area, Collections.unmodifiableList(newListeners));
+
+        this.listeners = listenerMap;
+    }
+
+    /**
+     * Stops tracking the given {@link Area}, its {@link AreaListener}s will no longer be notified.
+     * @param area {@link Area} to stop tracking
+     */
+    public synchronized void unregister(Area area)
+    {
+        if (!this.listeners.containsKey(area))
+        {
+            return;
+        }
+
+        Map<Area, List<AreaListener>> listenerMap = new HashMap<>(this.listeners);
+
+        listenerMap.remove(area);
+        this.areaIndex.remove(area);
+        this.playerAreas.values().forEach(areas -> areas.remove(area));
+
+        this.listeners = listenerMap;
+    }
+
+    /**
+     * Returns all tracked {@link Area}s the given player is in. If the player is not tracked (yet), the areas at
+     * the last known location of the player are returned.
+     * @param player {@link QPlayer} to check
+     * @return A {@link Set} with all areas the player is in.
+     */
+    public Set<Area> getAreas(QPlayer player)
+    {
+        Set<Area> areas = this.playerAreas.get(player.getUUID());
+
+        return areas != null ? Collections.unmodifiableSet(areas) : this.areaIndex.query(player.getLastLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event)
+    {
+        Player player = event.getPlayer();
+
+        this.update(player, player.getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMove(PlayerMoveEvent event)
+    {
+        // Most move events are players looking around or moving within a block, these can never change the areas
+        if (!this.changedBlock(event.getFrom(), event.getTo()))
+        {
+            return;
+        }
+
+        this.update(event.getPlayer(), event.getTo());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onTeleport(PlayerTeleportEvent event)
+    {
+        this.onMove(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event)
+    {
+        this.playerAreas.remove(event.getPlayer().getUniqueId());
+    }
+
+    private boolean changedBlock(Location from, Location to)
+    {
+        return to != null && (from == null
+                || from.getWorld() != to.getWorld()
+                || from.getBlockX() != to.getBlockX()
+                || from.getBlockY() != to.getBlockY()
+                || from.getBlockZ() != to.getBlockZ());
+    }
+
+    private void update(Player bukkitPlayer, Location location)
+    {
+        QPlayer player = this.playerHandler.getPlayer(bukkitPlayer);
+
+        // Check if the player is loaded
+        if (player == null)
+        {
+            return;
+        }
+
+        player.updateLocation(location);
+
+        long start = System.nanoTime();
+        Set<Area> newAreas = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        newAreas.addAll(this.areaIndex.query(location));
+        this.lookupTimer.stop(start);
+
+        Set<Area> oldAreas = this.playerAreas.put(player.getUUID(), newAreas);
+        Map<Area, List<AreaListener>> listeners = this.listeners;
+
+        // Only notify listeners of areas that actually changed
+        if (oldAreas != null)
+        {
+            for (Area area : oldAreas)
+            {
+                if (!newAreas.contains(area))
+                {
+                    this.notify(listeners.get(area), listener -> listener.onLeave(player, area));
+                }
+            }
+        }
+
+        for (Area area : newAreas)
+        {
+            if (oldAreas == null || !oldAreas.contains(area))
+            {
+                this.notify(listeners.get(area), listener -> listener.onEnter(player, area));
+            }
+        }
+    }
+
+    private void notify(List<AreaListener> listeners, Consumer<AreaListener> callback)
+    {
+        // The area might have been unregistered in the meantime
+        if (listeners == null)
+        {
+            return;
+        }
+
+        for (AreaListener listener : listeners)
+        {
+            try
+            {
+                callback.accept(listener);
+            } catch (RuntimeException e)
+            {
+                QuestPlugin.getLog().severe("An error occurred in area listener '" +
+                        listener.getClass().getSimpleName() + "':");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -20,52 +20,232 @@ package nl.tim.questplugin.player;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.storage.image.ImageLoadException;
+import nl.tim.questplugin.storage.image.builders.PlayerImageBuilder;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps track of all online players. Players are loaded while they are logging in (on an async thread) and
+ * saved and removed from memory when they leave.
+ */
 @Singleton
-public class PlayerHandler
+public class PlayerHandler implements Listener
 {
+    /**
+     * Player that was loaded during login, but did not join yet.
+     */
+    private static final class PendingPlayer
+    {
+        private final QPlayer player;
+        private final long loadedAt;
+
+        private PendingPlayer(QPlayer player)
+        {
+            this.player = player;
+            this.loadedAt = System.nanoTime();
+        }
+    }
+
+    // Time after which a player that never joined is forgotten
+    private static final long PENDING_EXPIRY = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String LOAD_FAILED_MESSAGE = "Your quest data could not be loaded, please contact an " +
+            "administrator";
+
     private QuestPlugin questPlugin;
-    private Set<QPlayer> players;
+    private PlayerImageBuilder playerImageBuilder;
+
+    private Map<UUID, QPlayer> players;
+    private Map<UUID, Player> onlinePlayers;
+    private Map<UUID, PendingPlayer> pendingPlayers;
 
     @Inject
-    public PlayerHandler(QuestPlugin questPlugin)
+    public PlayerHandler(QuestPlugin questPlugin, PlayerImageBuilder playerImageBuilder,
+                         MetricsRegistry metricsRegistry)
     {
         this.questPlugin = questPlugin;
-        this.players = new HashSet<>();
+        this.playerImageBuilder = playerImageBuilder;
+        this.players = new ConcurrentHashMap<>();
+        this.onlinePlayers = new ConcurrentHashMap<>();
+        this.pendingPlayers = new ConcurrentHashMap<>();
+
+        metricsRegistry.gauge("player.online", this.onlinePlayers::size);
+        metricsRegistry.gauge("player.loaded", this.players::size);
+        metricsRegistry.gauge("player.progress",
+                () -> this.players.values().stream().mapToLong(QPlayer::getProgressCount).sum());
     }
 
-    public Set<QPlayer> getPlayers()
+    /**
+     * Loads all players that are already online, e.g. after a reload.
+     */
+    public void loadOnlinePlayers()
     {
-        return this.players;
+        for (Player player : Bukkit.getOnlinePlayers())
+        {
+            this.players.computeIfAbsent(player.getUniqueId(),
+                    uuid -> this.loadPlayerOrReadOnly(uuid, player.getName()));
+            this.onlinePlayers.put(player.getUniqueId(), player);
+        }
     }
 
-    public QPlayer getPlayer(Player player)
+    /**
+     * Saves all online players, should be called before the storage is closed.
+     */
+    public void saveAll()
+    {
+        this.players.values().forEach(this.playerImageBuilder::save);
+    }
+
+    /**
+     * Saves what changed for all online players since they were last saved, used for periodic autosaves.
+     */
+    public void saveChanges()
+    {
+        this.players.values().forEach(this.playerImageBuilder::saveChanges);
+    }
+
+    private QPlayer loadPlayer(UUID uuid, String name)
     {
-        for (QPlayer currentPlayer : this.players)
+        QPlayer player = this.playerImageBuilder.load(uuid);
+
+        // New player, so start with empty progress
+        if (player == null)
         {
-            if (currentPlayer.getUUID().equals(player.getUniqueId()))
-            {
-                return currentPlayer;
-            }
+            player = this.createPlayer(uuid, name);
         }
 
-        return null;
+        return player;
     }
 
-    public Player getPlayer(QPlayer player)
+    private QPlayer loadPlayerOrReadOnly(UUID uuid, String name)
+    {
+        try
+        {
+            return this.loadPlayer(uuid, name);
+        } catch (ImageLoadException e)
+        {
+            QuestPlugin.getLog().severe(e.getMessage() + ", their data will not be saved");
+
+            // The player is already online, so let them play without touching the saved data
+            QPlayer player = this.createPlayer(uuid, name);
+
+            player.markReadOnly();
+            return player;
+        }
+    }
+
+    private QPlayer createPlayer(UUID uuid, String name)
+    {
+        return new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), uuid, name, null);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event)
+    {
+        // Check if the player is actually allowed to join
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        // Forget players whose connection was lost before they joined
+        this.pendingPlayers.values().removeIf(pending -> now - pending.loadedAt > PENDING_EXPIRY);
+
+        // This is an async thread, so we can wait for the storage here. The player is only kept once they join
+        try
+        {
+            this.pendingPlayers.put(event.getUniqueId(), new PendingPlayer(this.loadPlayer(event.getUniqueId(),
+                    event.getName())));
+        } catch (ImageLoadException e)
+        {
+            // Joining with empty data would overwrite the saved data on the next save
+            QuestPlugin.getLog().severe(e.getMessage() + ", login denied");
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, LOAD_FAILED_MESSAGE);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLogin(PlayerLoginEvent event)
+    {
+        // Player will not join (e.g. whitelist or full server), so there is no quit to remove them
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED)
+        {
+            this.pendingPlayers.remove(event.getPlayer().getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event)
     {
-        for (Player currentPlayer : questPlugin.getServer().getOnlinePlayers())
+        Player player = event.getPlayer();
+        PendingPlayer pending = this.pendingPlayers.remove(player.getUniqueId());
+
+        // Should already be loaded during login, but just in case
+        this.players.computeIfAbsent(player.getUniqueId(),
+                uuid -> pending != null ? pending.player : this.loadPlayerOrReadOnly(uuid, player.getName()));
+        this.onlinePlayers.put(player.getUniqueId(), player);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event)
+    {
+        UUID uuid = event.getPlayer().getUniqueId();
+
+        // Handle progress of the last tick while the player is still known, so it is part of the save
+        if (this.questPlugin.getQuestHandler() != null)
         {
-            if (currentPlayer.getUniqueId().equals(player.getUUID()))
-            {
-                return currentPlayer;
-            }
+            this.questPlugin.getQuestHandler().getProgressAccumulator().flush(uuid);
         }
 
-        return null;
+        QPlayer player = this.players.remove(uuid);
+
+        this.onlinePlayers.remove(uuid);
+
+        // Save, the actual writing happens on the storage thread
+        if (player != null)
+        {
+            this.playerImageBuilder.save(player);
+        }
+    }
+
+    public Collection<QPlayer> getPlayers()
+    {
+        return this.players.values();
+    }
+
+    public QPlayer getPlayer(UUID uuid)
+    {
+        return this.players.get(uuid);
+    }
+
+    public QPlayer getPlayer(Player player)
+    {
+        return this.players.get(player.getUniqueId());
+    }
+
+    public Player getPlayer(QPlayer player)
+    {
+        return this.onlinePlayers.get(player.getUUID());
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.player;
+
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Completed quests, stages and tasks of a {@link QPlayer}. Kept apart from the progress, so it can be loaded when
+ * it is first needed instead of when the player joins.
+ */
+public class PlayerHistory
+{
+    private Set<UUID> completedQuests;
+    private MultiValuedMap<UUID, UUID> completedStages;
+    private MultiValuedMap<UUID, UUID> completedTasks;
+
+    // Whether this history was saved in another format than the current one
+    private boolean outdated;
+
+    // Whether the saved history could not be read, this is then an empty placeholder
+    private boolean failed;
+
+    public PlayerHistory(Set<UUID> completedQuests,
+                         MultiValuedMap<UUID, UUID> completedStages,
+                         MultiValuedMap<UUID, UUID> completedTasks)
+    {
+        this.completedQuests = completedQuests;
+        this.completedStages = completedStages;
+        this.completedTasks = completedTasks;
+    }
+
+    /**
+     * Creates an empty history, for new players.
+     */
+    public PlayerHistory()
+    {
+        this(new HashSet<>(), new HashSetValuedHashMap<>(), new HashSetValuedHashMap<>());
+    }
+
+    public Set<UUID> getCompletedQuests()
+    {
+        return this.completedQuests;
+    }
+
+    public MultiValuedMap<UUID, UUID> getCompletedStages()
+    {
+        return this.completedStages;
+    }
+
+    public MultiValuedMap<UUID, UUID> getCompletedTasks()
+    {
+        return this.completedTasks;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.completedQuests.isEmpty() && this.completedStages.isEmpty() && this.completedTasks.isEmpty();
+    }
+
+    /**
+     * Marks this history as saved in another format, so the player is saved completely the next time.
+     */
+    public void markOutdated()
+    {
+        this.outdated = true;
+    }
+
+    public boolean isOutdated()
+    {
+        return this.outdated;
+    }
+
+    /**
+     * Marks this history as failed to load, so the saved history is never overwritten by this (empty) one.
+     */
+    public void markFailed()
+    {
+        this.failed = true;
+    }
+
+    public boolean hasFailed()
+    {
+        return this.failed;
+    }
+}
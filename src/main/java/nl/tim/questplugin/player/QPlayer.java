@@ -21,20 +21,81 @@ import nl.tim.questplugin.quest.Quest;
 import nl.tim.questplugin.api.Task;
 import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
 import nl.tim.questplugin.quest.stage.Stage;
+import nl.tim.questplugin.quest.stage.StageDescriptor;
+import org.apache.commons.collections4.MultiMapUtils;
 import org.apache.commons.collections4.MultiValuedMap;
 import org.bukkit.Location;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public class QPlayer
 {
-    private List<ProgressWrapper> progress;
+    /**
+     * Completed tasks of a stage by task index, only valid for the {@link StageDescriptor} the indices came from.
+     */
+    private static final class TaskCompletion
+    {
+        private final StageDescriptor descriptor;
+        private final BitSet bits;
+
+        private TaskCompletion(StageDescriptor descriptor, Collection<UUID> completedTasks)
+        {
+            this.descriptor = descriptor;
+            this.bits = new BitSet(descriptor.getRequiredTaskCount());
+
+            // Tasks that were removed from the stage do not have an index anymore
+            for (UUID task : completedTasks)
+            {
+                this.set(task);
+            }
+        }
+
+        private void set(UUID task)
+        {
+            int index = this.descriptor.getTaskIndex(task);
+
+            if (index >= 0)
+            {
+                this.bits.set(index);
+            }
+        }
+    }
+
+    // Progress by task UUID, with the tracked task UUIDs grouped per quest and per stage
+    private Map<UUID, ProgressWrapper> progress;
+    private Map<UUID, Set<UUID>> questTasks;
+    private Map<UUID, Set<UUID>> stageTasks;
 
     private Set<UUID> completedQuests;
     private MultiValuedMap<UUID, UUID> completedStages;
     private MultiValuedMap<UUID, UUID> completedTasks;
 
+    // Flat sets of all completed stages and tasks, a stage or task only belongs to one parent
+    private Set<UUID> completedStageSet;
+    private Set<UUID> completedTaskSet;
+
+    // Completed tasks by task index of the stages the player is working on, built when a stage is first checked.
+    // Dropped once the player no longer has progress in the stage, so only active stages take extra memory
+    private Map<UUID, TaskCompletion> taskCompletion;
+
+    // Starts loading the completed data when it is first needed, null once started
+    private Supplier<CompletableFuture<PlayerHistory>> historyLoader;
+
+    // Completes with the completed data while it is loading, null once it is set
+    private CompletableFuture<PlayerHistory> pendingHistory;
+
+    // Changes since the last save (see markClean), players that were never saved have to be saved completely
+    private boolean saved;
+    private Set<UUID> removedProgress;
+    private boolean completedQuestsChanged;
+    private Set<UUID> changedCompletedStages;
+    private Set<UUID> changedCompletedTasks;
+
+    // Set when the saved data could not be read, the player is then never saved so the stored data is kept
+    private boolean readOnly;
+
     private UUID uuid;
     private String name;
     private Location location;
@@ -47,13 +108,190 @@ public class QPlayer
                    String name,
                    Location location)
     {
-        this.progress = progress;
-        this.completedQuests = completedQuests;
-        this.completedStages = completedStages;
-        this.completedTasks = completedTasks;
+        this(progress, (Supplier<CompletableFuture<PlayerHistory>>) null, uuid, name, location);
+        this.setHistory(new PlayerHistory(completedQuests, completedStages, completedTasks));
+    }
+
+    /**
+     * Creates a player of which the completed quests, stages and tasks are only loaded when they are first needed.
+     * @param progress all progress of the player
+     * @param historyLoader starts loading the {@link PlayerHistory} of the player, called at most once
+     * @param uuid {@link UUID} of the player
+     * @param name name of the player
+     * @param location last known {@link Location} of the player
+     */
+    public QPlayer(List<ProgressWrapper> progress,
+                   Supplier<CompletableFuture<PlayerHistory>> historyLoader,
+                   UUID uuid,
+                   String name,
+                   Location location)
+    {
+        this.progress = new LinkedHashMap<>();
+        this.questTasks = new HashMap<>();
+        this.stageTasks = new HashMap<>();
+        this.taskCompletion = new HashMap<>();
+        this.historyLoader = historyLoader;
+        this.removedProgress = new HashSet<>();
+        this.changedCompletedStages = new HashSet<>();
+        this.changedCompletedTasks = new HashSet<>();
         this.uuid = uuid;
         this.name = name;
         this.location = location;
+
+        // Build indices
+        progress.forEach(this::addProgress);
+    }
+
+    private void setHistory(PlayerHistory history)
+    {
+        this.completedQuests = history.getCompletedQuests();
+        this.completedStages = history.getCompletedStages();
+        this.completedTasks = history.getCompletedTasks();
+        this.completedStageSet = new HashSet<>(this.completedStages.values());
+        this.completedTaskSet = new HashSet<>(this.completedTasks.values());
+    }
+
+    /**
+     * Starts loading the completed quests, stages and tasks of this player if that did not happen yet, without
+     * waiting for it. Should be checked before anything that needs the history is done on the main thread, since that
+     * would otherwise wait for the storage.
+     * @return true if the history is loaded, false if it is still loading.
+     */
+    public boolean requestHistory()
+    {
+        if (this.historyLoader != null)
+        {
+            this.pendingHistory = this.historyLoader.get();
+            this.historyLoader = null;
+        }
+
+        if (this.pendingHistory != null && this.pendingHistory.isDone())
+        {
+            this.applyHistory();
+        }
+
+        return this.isHistoryLoaded();
+    }
+
+    private void loadHistory()
+    {
+        // Only waits for the storage if the history was not requested first
+        if (!this.requestHistory())
+        {
+            this.applyHistory();
+        }
+    }
+
+    private void applyHistory()
+    {
+        PlayerHistory history = this.pendingHistory.join();
+
+        this.pendingHistory = null;
+        this.setHistory(history);
+
+        // Saving only the changes would mix formats
+        if (history.isOutdated())
+        {
+            this.saved = false;
+        }
+
+        if (history.hasFailed())
+        {
+            this.markReadOnly();
+        }
+    }
+
+    /**
+     * Marks this player as read only, used when the saved data of the player could not be loaded. The player can
+     * still make progress, but it is never saved so the stored data can be recovered.
+     */
+    public void markReadOnly()
+    {
+        this.readOnly = true;
+    }
+
+    public boolean isReadOnly()
+    {
+        return this.readOnly;
+    }
+
+    /**
+     * Checks if this player has to be saved completely, because it was never saved (or loaded) before.
+     * @return true if everything has to be saved, false if saving the changes is enough.
+     */
+    public boolean needsFullSave()
+    {
+        return !this.saved;
+    }
+
+    /**
+     * Checks if anything changed since the last save.
+     * @return true if there is something to save, false otherwise.
+     */
+    public boolean isDirty()
+    {
+        return !this.saved || !this.removedProgress.isEmpty() || this.completedQuestsChanged
+                || !this.changedCompletedStages.isEmpty() || !this.changedCompletedTasks.isEmpty()
+                || this.progress.values().stream().anyMatch(ProgressWrapper::isDirty);
+    }
+
+    /**
+     * Returns the {@link UUID}s of the {@link ProgressWrapper}s that were removed since the last save.
+     * @return {@link Set} of removed progress.
+     */
+    public Set<UUID> getRemovedProgress()
+    {
+        return Collections.unmodifiableSet(this.removedProgress);
+    }
+
+    /**
+     * Checks if quests were completed or cleared since the last save.
+     * @return true if the completed quests changed, false otherwise.
+     */
+    public boolean hasCompletedQuestsChanged()
+    {
+        return this.completedQuestsChanged;
+    }
+
+    /**
+     * Returns the {@link UUID}s of the quests of which the completed stages changed since the last save.
+     * @return {@link Set} of quest UUIDs.
+     */
+    public Set<UUID> getChangedCompletedStages()
+    {
+        return Collections.unmodifiableSet(this.changedCompletedStages);
+    }
+
+    /**
+     * Returns the {@link UUID}s of the stages of which the completed tasks changed since the last save.
+     * @return {@link Set} of stage UUIDs.
+     */
+    public Set<UUID> getChangedCompletedTasks()
+    {
+        return Collections.unmodifiableSet(this.changedCompletedTasks);
+    }
+
+    /**
+     * Marks everything of this player as saved, should be called after the player is written to storage.
+     */
+    public void markClean()
+    {
+        this.saved = true;
+        this.removedProgress.clear();
+        this.completedQuestsChanged = false;
+        this.changedCompletedStages.clear();
+        this.changedCompletedTasks.clear();
+        this.progress.values().forEach(ProgressWrapper::markClean);
+    }
+
+    /**
+     * Checks if the completed quests, stages and tasks of this player are loaded. Data that is not loaded has not
+     * changed, so it does not have to be saved either.
+     * @return true if the history is loaded, false otherwise.
+     */
+    public boolean isHistoryLoaded()
+    {
+        return this.historyLoader == null && this.pendingHistory == null;
     }
 
     public UUID getUUID()
@@ -66,9 +304,85 @@ public class QPlayer
         return this.name;
     }
 
-    public List<ProgressWrapper> getProgressWrappers()
+    public Set<UUID> getCompletedQuests()
+    {
+        this.loadHistory();
+        return Collections.unmodifiableSet(this.completedQuests);
+    }
+
+    public MultiValuedMap<UUID, UUID> getCompletedStages()
+    {
+        this.loadHistory();
+        return MultiMapUtils.unmodifiableMultiValuedMap(this.completedStages);
+    }
+
+    public MultiValuedMap<UUID, UUID> getCompletedTasks()
+    {
+        this.loadHistory();
+        return MultiMapUtils.unmodifiableMultiValuedMap(this.completedTasks);
+    }
+
+    public Collection<ProgressWrapper> getProgressWrappers()
+    {
+        return Collections.unmodifiableCollection(this.progress.values());
+    }
+
+    /**
+     * Starts tracking the given {@link ProgressWrapper}, replacing earlier progress of the same task.
+     * @param wrapper {@link ProgressWrapper} to add
+     */
+    public void addProgress(ProgressWrapper wrapper)
+    {
+        // Remove old progress first, it might belong to another stage
+        this.removeProgress(wrapper.getTaskUUID());
+        this.removedProgress.remove(wrapper.getUUID());
+
+        this.progress.put(wrapper.getTaskUUID(), wrapper);
+        this.questTasks.computeIfAbsent(wrapper.getQuestUUID(), k -> new LinkedHashSet<>()).add(wrapper.getTaskUUID());
+        this.stageTasks.computeIfAbsent(wrapper.getStageUUID(), k -> new LinkedHashSet<>()).add(wrapper.getTaskUUID());
+    }
+
+    /**
+     * Stops tracking progress of the {@link Task} with the given {@link UUID}.
+     * @param taskUUID {@link UUID} of the {@link Task}
+     */
+    private void removeProgress(UUID taskUUID)
+    {
+        ProgressWrapper wrapper = this.progress.remove(taskUUID);
+
+        if (wrapper != null)
+        {
+            this.removeFromIndex(this.questTasks, wrapper.getQuestUUID(), taskUUID);
+            this.removeFromIndex(this.stageTasks, wrapper.getStageUUID(), taskUUID);
+            this.removedProgress.add(wrapper.getUUID());
+
+            if (!this.stageTasks.containsKey(wrapper.getStageUUID()))
+            {
+                this.taskCompletion.remove(wrapper.getStageUUID());
+            }
+        }
+    }
+
+    private void removeFromIndex(Map<UUID, Set<UUID>> index, UUID key, UUID taskUUID)
+    {
+        Set<UUID> tasks = index.get(key);
+
+        // Remove empty groups, so a group exists only while something is being tracked
+        if (tasks != null && tasks.remove(taskUUID) && tasks.isEmpty())
+        {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Removes progress of all given tasks. A copy is used, since the indices change while removing.
+     */
+    private void removeProgress(Set<UUID> taskUUIDs)
     {
-        return this.progress;
+        if (taskUUIDs != null)
+        {
+            new ArrayList<>(taskUUIDs).forEach(this::removeProgress);
+        }
     }
 
     /**
@@ -84,13 +398,7 @@ public class QPlayer
         }
 
         // Remove progress
-        for (Stage stage : quest.getStages())
-        {
-            for (Task task : stage.getConfiguration().getTasks())
-            {
-                this.progress.remove(this.getProgress(task.getUUID()));
-            }
-        }
+        this.removeProgress(this.questTasks.get(quest.getUUID()));
 
         // Remove completed tasks & stages
         this.clearCompletedQuest(quest);
@@ -108,17 +416,22 @@ public class QPlayer
             return;
         }
 
+        this.loadHistory();
+
         // Remove tasks
         for (Stage stage : quest.getStages())
         {
-            this.completedTasks.remove(stage.getUUID());
+            this.completedTaskSet.removeAll(this.completedTasks.remove(stage.getUUID()));
+            this.taskCompletion.remove(stage.getUUID());
+            this.changedCompletedTasks.add(stage.getUUID());
         }
 
         // Remove stage
-        this.completedStages.remove(quest.getUUID());
+        this.completedStageSet.removeAll(this.completedStages.remove(quest.getUUID()));
+        this.changedCompletedStages.add(quest.getUUID());
 
         // Remove quest
-        this.completedQuests.remove(quest.getUUID());
+        this.completedQuestsChanged |= this.completedQuests.remove(quest.getUUID());
     }
 
     /**
@@ -128,15 +441,7 @@ public class QPlayer
      */
     public ProgressWrapper getProgress(UUID taskUUID)
     {
-        for (ProgressWrapper wrapper : this.progress)
-        {
-            if (wrapper.getTaskUUID().equals(taskUUID))
-            {
-                return wrapper;
-            }
-        }
-
-        return null;
+        return this.progress.get(taskUUID);
     }
 
     /**
@@ -166,10 +471,7 @@ public class QPlayer
     {
         if (parent != null && stage != null)
         {
-            for (Task task : stage.getConfiguration().getTasks())
-            {
-                this.progress.remove(this.getProgress(task.getUUID()));
-            }
+            this.removeProgress(this.stageTasks.get(stage.getUUID()));
         }
     }
 
@@ -181,9 +483,13 @@ public class QPlayer
      */
     public void cleanQuestProgressAfterBranch(Quest quest, List<UUID> excludeFromClean)
     {
-        if (quest != null)
+        Set<UUID> tasks = quest != null ? this.questTasks.get(quest.getUUID()) : null;
+
+        if (tasks != null)
         {
-            this.progress.removeIf(pw -> pw.getQuestUUID().equals(quest.getUUID()) && !excludeFromClean.contains(pw.getStageUUID()));
+            new ArrayList<>(tasks).stream()
+                    .filter(task -> !excludeFromClean.contains(this.progress.get(task).getStageUUID()))
+                    .forEach(this::removeProgress);
         }
     }
 
@@ -191,8 +497,19 @@ public class QPlayer
     {
         if (parent != null && task != null)
         {
-            this.progress.remove(this.getProgress(task.getUUID()));
+            this.removeProgress(task.getUUID());
+            this.loadHistory();
             this.completedTasks.put(parent.getUUID(), task.getUUID());
+            this.completedTaskSet.add(task.getUUID());
+            this.changedCompletedTasks.add(parent.getUUID());
+
+            // Keep the bits up to date if they were already built
+            TaskCompletion completion = this.taskCompletion.get(parent.getUUID());
+
+            if (completion != null)
+            {
+                completion.set(task.getUUID());
+            }
         }
     }
 
@@ -208,43 +525,50 @@ public class QPlayer
         this.cleanStageProgress(parent, stage);
 
         // Add stage to completed list
+        this.loadHistory();
         this.completedStages.put(parent.getUUID(), stage.getUUID());
+        this.completedStageSet.add(stage.getUUID());
+        this.changedCompletedStages.add(parent.getUUID());
     }
 
     public void completeQuest(Quest quest)
     {
         if (quest != null)
         {
-            this.completedQuests.add(quest.getUUID());
+            this.loadHistory();
+            this.completedQuestsChanged |= this.completedQuests.add(quest.getUUID());
         }
     }
 
     public boolean hasCompletedQuest(Quest quest)
     {
+        this.loadHistory();
         return this.completedQuests.contains(quest.getUUID());
     }
 
     public boolean hasCompletedStage(Stage stage)
     {
-        return this.completedStages.containsValue(stage.getUUID());
+        this.loadHistory();
+        return this.completedStageSet.contains(stage.getUUID());
     }
 
     public boolean hasCompletedTask(Task task)
     {
-        return this.completedTasks.containsValue(task.getUUID());
+        return this.hasCompletedTask(task.getUUID());
     }
 
-    public boolean isProgressingQuest(Quest quest)
+    public boolean hasCompletedTask(UUID taskUUID)
     {
-        return quest != null && !this.getActiveTasks(quest, true).isEmpty();
+        this.loadHistory();
+        return this.completedTaskSet.contains(taskUUID);
     }
 
-    public List<UUID> getActiveTasks(Quest quest)
+    public boolean isProgressingQuest(Quest quest)
     {
-        return quest != null ? this.getActiveTasks(quest, false) : null;
+        return quest != null && this.questTasks.containsKey(quest.getUUID());
     }
 
-    private List<UUID> getActiveTasks(Quest quest, boolean search)
+    public List<UUID> getActiveTasks(Quest quest)
     {
         // Check if quest was null
         if (quest == null)
@@ -252,34 +576,21 @@ public class QPlayer
             return null;
         }
 
-        List<UUID> result = new ArrayList<>();
-
-        for (ProgressWrapper wrapper : this.progress)
-        {
-            if (wrapper.getQuestUUID().equals(quest.getUUID()))
-            {
-                result.add(wrapper.getTaskUUID());
+        Set<UUID> tasks = this.questTasks.get(quest.getUUID());
 
-                // Check if this was just a search
-                if (search)
-                {
-                    return result;
-                }
-            }
-        }
-
-        return result;
+        return tasks != null ? new ArrayList<>(tasks) : new ArrayList<>();
     }
 
     public Set<UUID> getActiveStages(Quest quest)
     {
         Set<UUID> result = new HashSet<>();
+        Set<UUID> tasks = this.questTasks.get(quest.getUUID());
 
-        for (ProgressWrapper progress : this.progress)
+        if (tasks != null)
         {
-            if (progress.getQuestUUID().equals(quest.getUUID()))
+            for (UUID task : tasks)
             {
-                result.add(progress.getStageUUID());
+                result.add(this.progress.get(task).getStageUUID());
             }
         }
 
@@ -288,14 +599,68 @@ public class QPlayer
 
     public Set<UUID> getActiveTasks()
     {
-        return this.progress.stream().map(ProgressWrapper::getTaskUUID).collect(Collectors.toSet());
+        return new HashSet<>(this.progress.keySet());
+    }
+
+    /**
+     * Returns the amount of tasks the player is progressing, without copying them.
+     * @return The amount of {@link ProgressWrapper}s of this player.
+     */
+    public int getProgressCount()
+    {
+        return this.progress.size();
     }
 
     public List<UUID> getCompletedTasks(Stage stage)
     {
+        this.loadHistory();
         return stage != null ? new ArrayList<>(this.completedTasks.get(stage.getUUID())) : null;
     }
 
+    /**
+     * Returns the amount of completed tasks of the given {@link Stage}, without copying them.
+     * @param stage {@link Stage} to check
+     * @return The amount of completed tasks.
+     */
+    public int getCompletedTaskCount(Stage stage)
+    {
+        return this.getTaskCompletion(stage).cardinality();
+    }
+
+    /**
+     * Returns the amount of completed branching tasks of the given {@link Stage}.
+     * @param stage {@link Stage} to check
+     * @return The amount of completed branching tasks.
+     */
+    public int getCompletedBranchCount(Stage stage)
+    {
+        return stage.getConfiguration().getDescriptor().countBranchingTasks(this.getTaskCompletion(stage));
+    }
+
+    private BitSet getTaskCompletion(Stage stage)
+    {
+        this.loadHistory();
+
+        StageDescriptor descriptor = stage.getConfiguration().getDescriptor();
+        TaskCompletion completion = this.taskCompletion.get(stage.getUUID());
+
+        // Indices change when the descriptor is compiled again, so the bits have to be built again as well
+        if (completion != null && completion.descriptor == descriptor)
+        {
+            return completion.bits;
+        }
+
+        completion = new TaskCompletion(descriptor, this.completedTasks.get(stage.getUUID()));
+
+        // Only keep the bits of stages the player is working on
+        if (this.stageTasks.containsKey(stage.getUUID()))
+        {
+            this.taskCompletion.put(stage.getUUID(), completion);
+        }
+
+        return completion.bits;
+    }
+
     /**
      * Returns the last {@link Location} of this player.
      * @return The last {@link Location} of this player.
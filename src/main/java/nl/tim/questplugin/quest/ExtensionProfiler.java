@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.ExtensionInformation;
+import nl.tim.questplugin.metrics.Counter;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.metrics.Timer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Attributes the time spent in extension code (event handlers of tasks, rewards and requirements) to the extension
+ * that ran it, identified by its {@link ExtensionInformation}. The most recent durations of every extension are kept
+ * for percentiles, and at the end of every tick the time of each extension is compared with the tick budget, so
+ * extensions that cause lag are logged.
+ */
+public class ExtensionProfiler
+{
+    /**
+     * Statistics of all extensions with the same identifier.
+     */
+    public static final class ExtensionStats
+    {
+        private final String identifier;
+        private final String author;
+        private final Timer timer;
+        private final Counter overBudget;
+
+        // Time spent in the current tick
+        private final LongAdder tickNanos;
+        private volatile long worstTickNanos;
+        private long lastWarning;
+
+        // Ring buffer with the most recent durations
+        private final long[] samples;
+        private long sampleCount;
+
+        private ExtensionStats(String identifier, String author, MetricsRegistry metricsRegistry)
+        {
+            String labels = "{extension=" + label(identifier) + ",author=" + label(author) + "}";
+
+            this.identifier = identifier;
+            this.author = author;
+            this.timer = metricsRegistry.timer("extension.time" + labels);
+            this.overBudget = metricsRegistry.counter("extension.over_budget" + labels);
+            this.tickNanos = new LongAdder();
+            this.samples = new long[SAMPLES];
+            this.lastWarning = Long.MIN_VALUE;
+        }
+
+        private static String label(String value)
+        {
+            // These characters separate labels in metric names
+            return value.replaceAll("[{}=,]", "_");
+        }
+
+        private void record(long nanos)
+        {
+            this.timer.record(nanos);
+            this.tickNanos.add(nanos);
+
+            synchronized (this)
+            {
+                this.samples[(int) (this.sampleCount++ % SAMPLES)] = nanos;
+            }
+        }
+
+        public String getIdentifier()
+        {
+            return this.identifier;
+        }
+
+        public String getAuthor()
+        {
+            return this.author;
+        }
+
+        public long getCalls()
+        {
+            return this.timer.getCount();
+        }
+
+        public long getWorstTickNanos()
+        {
+            return this.worstTickNanos;
+        }
+
+        public long getOverBudgetTicks()
+        {
+            return this.overBudget.getCount();
+        }
+
+        /**
+         * Returns the given percentile of the most recent calls of this extension.
+         * @param percentile Percentile between 0 and 1
+         * @return The percentile in nanoseconds, or 0 if the extension was not called yet.
+         */
+        public long getPercentileNanos(double percentile)
+        {
+            long[] recent;
+
+            synchronized (this)
+            {
+                recent = Arrays.copyOf(this.samples, (int) Math.min(this.sampleCount, SAMPLES));
+            }
+
+            if (recent.length == 0)
+            {
+                return 0;
+            }
+
+            Arrays.sort(recent);
+
+            return recent[Math.max(0, (int) Math.ceil(percentile * recent.length) - 1)];
+        }
+    }
+
+    // Amount of recent calls per extension used for percentiles
+    private static final int SAMPLES = 1000;
+
+    // Minimum time between two warnings about the same extension
+    private static final long WARNING_COOLDOWN = TimeUnit.MINUTES.toNanos(1);
+
+    private MetricsRegistry metricsRegistry;
+    private long tickBudgetNanos;
+
+    private Map<String, ExtensionStats> stats;
+    private Map<Class<?>, ExtensionStats> classStats;
+
+    /**
+     * @param metricsRegistry {@link MetricsRegistry} to register the timers of extensions in
+     * @param tickBudgetNanos Time in nanoseconds a single extension may use per tick, 0 or less disables the warnings
+     */
+    public ExtensionProfiler(MetricsRegistry metricsRegistry, long tickBudgetNanos)
+    {
+        this.metricsRegistry = metricsRegistry;
+        this.tickBudgetNanos = tickBudgetNanos;
+        this.stats = new ConcurrentHashMap<>();
+        this.classStats = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records the given duration for the given extension.
+     * @param extension {@link CustomExtension} that was running
+     * @param durationNanos Time the extension was running in nanoseconds
+     */
+    public void record(CustomExtension extension, long durationNanos)
+    {
+        this.getStats(extension.getClass()).record(durationNanos);
+    }
+
+    /**
+     * Records the time since the given start for the given extension.
+     * @param extension {@link CustomExtension} that was running
+     * @param startNanos Start as returned by {@link System#nanoTime()}
+     */
+    public void stop(CustomExtension extension, long startNanos)
+    {
+        this.record(extension, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the statistics of the given extension class.
+     * @param extensionClass Class of the extension
+     * @return The {@link ExtensionStats} of the identifier of the class.
+     */
+    public ExtensionStats getStats(Class<? extends CustomExtension> extensionClass)
+    {
+        ExtensionStats stats = this.classStats.get(extensionClass);
+
+        return stats != null ? stats : this.classStats.computeIfAbsent(extensionClass, this::createStats);
+    }
+
+    /**
+     * Forgets all extension classes, so their class loaders can be unloaded. Should be called when the plugin is
+     * disabled.
+     */
+    public void clear()
+    {
+        this.classStats.clear();
+    }
+
+    /**
+     * Returns the statistics of all extensions that were called at least once, sorted by identifier.
+     * @return A list with all {@link ExtensionStats}.
+     */
+    public List<ExtensionStats> getStats()
+    {
+        return new ArrayList<>(new TreeMap<>(this.stats).values());
+    }
+
+    /**
+     * Compares the time every extension used in this tick with the budget and starts a new tick. Should be called
+     * once per tick.
+     * @return The {@link ExtensionStats} of all extensions that went over the budget in this tick.
+     */
+    public List<ExtensionStats> endTick()
+    {
+        long now = System.nanoTime();
+        List<ExtensionStats> overBudget = Collections.emptyList();
+
+        for (ExtensionStats extensionStats : this.stats.values())
+        {
+            long tickNanos = extensionStats.tickNanos.sumThenReset();
+
+            if (tickNanos > extensionStats.worstTickNanos)
+            {
+                extensionStats.worstTickNanos = tickNanos;
+            }
+
+            if (this.tickBudgetNanos <= 0 || tickNanos <= this.tickBudgetNanos)
+            {
+                continue;
+            }
+
+            extensionStats.overBudget.increment();
+
+            if (overBudget.isEmpty())
+            {
+                overBudget = new ArrayList<>();
+            }
+
+            overBudget.add(extensionStats);
+
+            // Do not flood the log when an extension is slow every tick
+            if (extensionStats.lastWarning == Long.MIN_VALUE || now - extensionStats.lastWarning >= WARNING_COOLDOWN)
+            {
+                extensionStats.lastWarning = now;
+                QuestPlugin.getLog().warning("Extension '" + extensionStats.identifier + "' by " +
+                        extensionStats.author + " used " + formatMillis(tickNanos) + " in one tick (budget " +
+                        formatMillis(this.tickBudgetNanos) + "), this extension might cause lag!");
+            }
+        }
+
+        return overBudget;
+    }
+
+    /**
+     * Returns a human readable report of all extensions, one extension per line.
+     * @return The lines of the report.
+     */
+    public List<String> report()
+    {
+        List<String> lines = new ArrayList<>();
+
+        for (ExtensionStats extensionStats : this.getStats())
+        {
+            lines.add(extensionStats.identifier + " (" + extensionStats.author + "): " + extensionStats.getCalls() +
+                    " calls, p50 " + formatMillis(extensionStats.getPercentileNanos(0.5)) +
+                    ", p95 " + formatMillis(extensionStats.getPercentileNanos(0.95)) +
+                    ", p99 " + formatMillis(extensionStats.getPercentileNanos(0.99)) +
+                    ", worst tick " + formatMillis(extensionStats.worstTickNanos) +
+                    ", " + extensionStats.getOverBudgetTicks() + " ticks over budget");
+        }
+
+        return lines;
+    }
+
+    private static String formatMillis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.3fms", nanos / 1000000.0);
+    }
+
+    private ExtensionStats createStats(Class<?> type)
+    {
+        ExtensionInformation information = type.getAnnotation(ExtensionInformation.class);
+        String identifier = information != null ? information.identifier() : type.getSimpleName();
+        String author = information != null ? information.author() : "unknown";
+
+        return this.stats.computeIfAbsent(identifier,
+                key -> new ExtensionStats(identifier, author, this.metricsRegistry));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker for extensions. An extension that throws or goes over the tick budget of the
+ * {@link ExtensionProfiler} too often in a row is marked broken and will not be called for a while. After that time
+ * the extension is probed: if it works in the first tick it is called in again it is enabled, otherwise it is
+ * disabled for another period.
+ */
+public class ExtensionWatchdog
+{
+    public enum State
+    {
+        // Extension is called as usual
+        ENABLED,
+        // Extension is broken and will not be called
+        DISABLED,
+        // Extension is called again, the next tick it is used decides whether it is enabled again
+        PROBING
+    }
+
+    /**
+     * State of all extensions with the same identifier.
+     */
+    private static final class Circuit
+    {
+        private final ExtensionProfiler.ExtensionStats stats;
+
+        // Only changed at the end of a tick, but read by every call
+        private volatile State state;
+        private final AtomicInteger tickFailures;
+        private int failures;
+        private long lastCalls;
+        private long disabledUntil;
+
+        private Circuit(ExtensionProfiler.ExtensionStats stats)
+        {
+            this.stats = stats;
+            this.state = State.ENABLED;
+            this.tickFailures = new AtomicInteger();
+        }
+    }
+
+    private ExtensionProfiler extensionProfiler;
+    private int failureThreshold;
+    private long disableNanos;
+
+    private Map<String, Circuit> circuits;
+    private Map<Class<?>, Circuit> classCircuits;
+
+    /**
+     * @param extensionProfiler {@link ExtensionProfiler} that measures the time of extensions
+     * @param metricsRegistry {@link MetricsRegistry} to register the amount of broken extensions in
+     * @param failureThreshold Failures in a row after which an extension is disabled, 0 or less disables the watchdog
+     * @param disableNanos Time in nanoseconds an extension stays disabled before it is probed
+     */
+    public ExtensionWatchdog(ExtensionProfiler extensionProfiler,
+                             MetricsRegistry metricsRegistry,
+                             int failureThreshold,
+                             long disableNanos)
+    {
+        this.extensionProfiler = extensionProfiler;
+        this.failureThreshold = failureThreshold;
+        this.disableNanos = disableNanos;
+        this.circuits = new ConcurrentHashMap<>();
+        this.classCircuits = new ConcurrentHashMap<>();
+
+        metricsRegistry.gauge("extension.broken", () -> this.getBrokenExtensions().size());
+    }
+
+    /**
+     * Returns a boolean indicating whether the given extension is broken. Broken extensions should not be called.
+     * @param extension {@link CustomExtension} to check
+     * @return True if the extension is disabled by this watchdog.
+     */
+    public boolean isBroken(CustomExtension extension)
+    {
+        return this.getCircuit(extension.getClass()).state == State.DISABLED;
+    }
+
+    /**
+     * Returns the current state of the given extension class.
+     * @param extensionClass Class of the extension
+     * @return The {@link State} of the identifier of the class.
+     */
+    public State getState(Class<? extends CustomExtension> extensionClass)
+    {
+        return this.getCircuit(extensionClass).state;
+    }
+
+    /**
+     * Marks a failed call (e.g. an exception) of the given extension.
+     * @param extension {@link CustomExtension} that failed
+     */
+    public void recordFailure(CustomExtension extension)
+    {
+        this.getCircuit(extension.getClass()).tickFailures.incrementAndGet();
+    }
+
+    /**
+     * Forgets all extension classes, so their class loaders can be unloaded. Should be called when the plugin is
+     * disabled.
+     */
+    public void clear()
+    {
+        this.classCircuits.clear();
+    }
+
+    /**
+     * Returns the identifiers of all extensions that are not enabled at the moment, sorted.
+     * @return A sorted set with identifiers.
+     */
+    public SortedSet<String> getBrokenExtensions()
+    {
+        SortedSet<String> broken = new TreeSet<>();
+
+        this.circuits.forEach((identifier, circuit) -> {
+            if (circuit.state != State.ENABLED)
+            {
+                broken.add(identifier);
+            }
+        });
+
+        return broken;
+    }
+
+    /**
+     * Ends the tick of the {@link ExtensionProfiler} and updates the state of all extensions with the failures of
+     * this tick. Should be called once per tick.
+     */
+    public void endTick()
+    {
+        List<ExtensionProfiler.ExtensionStats> overBudget = this.extensionProfiler.endTick();
+
+        // Make sure extensions that were only slow are known as well
+        for (ExtensionProfiler.ExtensionStats stats : overBudget)
+        {
+            this.circuits.computeIfAbsent(stats.getIdentifier(), key -> new Circuit(stats));
+        }
+
+        long now = System.nanoTime();
+
+        for (Circuit circuit : this.circuits.values())
+        {
+            int failures = circuit.tickFailures.getAndSet(0) + (overBudget.contains(circuit.stats) ? 1 : 0);
+            long calls = circuit.stats.getCalls();
+            boolean called = calls != circuit.lastCalls;
+
+            circuit.lastCalls = calls;
+
+            if (this.failureThreshold <= 0)
+            {
+                continue;
+            }
+
+            switch (circuit.state)
+            {
+                case ENABLED:
+                    if (failures > 0)
+                    {
+                        circuit.failures += failures;
+                    } else if (called)
+                    {
+                        // Only failures in a row count
+                        circuit.failures = 0;
+                    }
+
+                    if (circuit.failures >= this.failureThreshold)
+                    {
+                        this.disable(circuit, now);
+                        QuestPlugin.getLog().warning("Extension '" + circuit.stats.getIdentifier() + "' by " +
+                                circuit.stats.getAuthor() + " failed " + circuit.failures + " times in a row " +
+                                "(errors or ticks over budget) and is disabled for " +
+                                TimeUnit.NANOSECONDS.toSeconds(this.disableNanos) + " seconds. Quests using it " +
+                                "will not progress in the meantime!");
+                    }
+                    break;
+                case DISABLED:
+                    if (now - circuit.disabledUntil >= 0)
+                    {
+                        circuit.state = State.PROBING;
+                    }
+                    break;
+                case PROBING:
+                    if (failures > 0)
+                    {
+                        this.disable(circuit, now);
+                        QuestPlugin.getLog().warning("Extension '" + circuit.stats.getIdentifier() + "' by " +
+                                circuit.stats.getAuthor() + " still fails and is disabled for another " +
+                                TimeUnit.NANOSECONDS.toSeconds(this.disableNanos) + " seconds.");
+                    } else if (called)
+                    {
+                        circuit.state = State.ENABLED;
+                        circuit.failures = 0;
+                        QuestPlugin.getLog().info("Extension '" + circuit.stats.getIdentifier() + "' by " +
+                                circuit.stats.getAuthor() + " works again and is enabled.");
+                    }
+                    break;
+            }
+        }
+    }
+
+    private Circuit getCircuit(Class<? extends CustomExtension> extensionClass)
+    {
+        Circuit circuit = this.classCircuits.get(extensionClass);
+
+        return circuit != null ? circuit : this.classCircuits.computeIfAbsent(extensionClass, type -> {
+            ExtensionProfiler.ExtensionStats stats = this.extensionProfiler.getStats(extensionClass);
+
+            return this.circuits.computeIfAbsent(stats.getIdentifier(), key -> new Circuit(stats));
+        });
+    }
+
+    private void disable(Circuit circuit, long now)
+    {
+        circuit.state = State.DISABLED;
+        circuit.disabledUntil = now + this.disableNanos;
+    }
+}
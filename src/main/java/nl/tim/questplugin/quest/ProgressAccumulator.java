@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.player.QPlayer;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the (player, quest) pairs that made progress and checks them for completion later, instead of after
+ * every single update. A burst of progress (e.g. breaking a lot of blocks in one tick) is only checked once per
+ * player and quest. Pairs are processed in the order they first made progress. Pairs of players whose completed
+ * quests, stages and tasks are still loading wait until a later flush, so the main thread never waits for storage.
+ */
+public class ProgressAccumulator
+{
+    private static final class Key
+    {
+        private final UUID player;
+        private final UUID quest;
+
+        private Key(UUID player, UUID quest)
+        {
+            this.player = player;
+            this.quest = quest;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (this == object)
+            {
+                return true;
+            }
+
+            if (!(object instanceof Key))
+            {
+                return false;
+            }
+
+            Key key = (Key) object;
+
+            return this.player.equals(key.player) && this.quest.equals(key.quest);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.player, this.quest);
+        }
+    }
+
+    private static final class Entry
+    {
+        private final QPlayer player;
+        private final Quest quest;
+
+        private Entry(QPlayer player, Quest quest)
+        {
+            this.player = player;
+            this.quest = quest;
+        }
+    }
+
+    private QuestHandler questHandler;
+
+    // Pairs waiting to be checked, in insertion order
+    private LinkedHashMap<Key, Entry> pending;
+
+    private AtomicLong queuedUpdates;
+    private AtomicLong coalescedUpdates;
+
+    public ProgressAccumulator(QuestHandler questHandler)
+    {
+        this.questHandler = questHandler;
+        this.pending = new LinkedHashMap<>();
+        this.queuedUpdates = new AtomicLong();
+        this.coalescedUpdates = new AtomicLong();
+    }
+
+    /**
+     * Marks that the given player made progress in the given {@link Quest}, it will be checked on the next
+     * {@link #flush()}.
+     * @param player {@link QPlayer} that made progress
+     * @param quest {@link Quest} the progress was made in
+     */
+    public synchronized void markDirty(QPlayer player, Quest quest)
+    {
+        this.queuedUpdates.incrementAndGet();
+
+        // Already waiting, so this update is handled by the same check
+        if (this.pending.putIfAbsent(new Key(player.getUUID(), quest.getUUID()), new Entry(player, quest)) != null)
+        {
+            this.coalescedUpdates.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks all pending pairs for completion. Should be called on the main thread, since rewards are given here.
+     */
+    public void flush()
+    {
+        Collection<Entry> entries;
+
+        synchronized (this)
+        {
+            // Nothing to do
+            if (this.pending.isEmpty())
+            {
+                return;
+            }
+
+            entries = this.pending.values();
+            this.pending = new LinkedHashMap<>();
+        }
+
+        List<Entry> loading = this.process(entries);
+
+        // Check these again once their history is loaded
+        synchronized (this)
+        {
+            for (Entry entry : loading)
+            {
+                this.pending.putIfAbsent(new Key(entry.player.getUUID(), entry.quest.getUUID()), entry);
+            }
+        }
+    }
+
+    /**
+     * Checks the pending pairs of the given player for completion, e.g. before the player leaves. Should be called
+     * on the main thread, since rewards are given here. If the history of the player is still loading the pairs are
+     * dropped, the progress itself is still saved and completion is checked again when the player makes progress.
+     * @param player {@link UUID} of the player
+     */
+    public void flush(UUID player)
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        synchronized (this)
+        {
+            Iterator<Map.Entry<Key, Entry>> iterator = this.pending.entrySet().iterator();
+
+            while (iterator.hasNext())
+            {
+                Map.Entry<Key, Entry> entry = iterator.next();
+
+                if (entry.getKey().player.equals(player))
+                {
+                    entries.add(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        this.process(entries);
+    }
+
+    private List<Entry> process(Collection<Entry> entries)
+    {
+        List<Entry> loading = new ArrayList<>();
+
+        for (Entry entry : entries)
+        {
+            // Completion checks need the history of the player, which is loaded on the I/O thread
+            if (!entry.player.requestHistory())
+            {
+                loading.add(entry);
+                continue;
+            }
+
+            try
+            {
+                this.questHandler.processProgress(entry.player, entry.quest);
+            } catch (RuntimeException e)
+            {
+                QuestPlugin.getLog().severe("An error occurred while processing progress of quest '" +
+                        entry.quest.getUUID() + "' for player '" + entry.player.getUUID() + "':");
+                e.printStackTrace();
+            }
+        }
+
+        return loading;
+    }
+
+    /**
+     * Returns the amount of pairs waiting to be checked.
+     * @return The amount of pending pairs.
+     */
+    public synchronized int getPendingCount()
+    {
+        return this.pending.size();
+    }
+
+    /**
+     * Returns the total amount of progress updates that were queued.
+     * @return The amount of queued updates.
+     */
+    public long getQueuedUpdates()
+    {
+        return this.queuedUpdates.get();
+    }
+
+    /**
+     * Returns the amount of progress updates that were merged with an update that was already waiting.
+     * @return The amount of coalesced updates.
+     */
+    public long getCoalescedUpdates()
+    {
+        return this.coalescedUpdates.get();
+    }
+}
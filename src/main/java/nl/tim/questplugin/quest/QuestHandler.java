@@ -23,43 +23,201 @@ import nl.tim.questplugin.QuestPlugin;
 import nl.tim.questplugin.api.Reward;
 import nl.tim.questplugin.api.Task;
 import nl.tim.questplugin.api.Trigger;
+import nl.tim.questplugin.area.Area;
+import nl.tim.questplugin.area.AreaListener;
+import nl.tim.questplugin.metrics.Counter;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.metrics.Timer;
+import nl.tim.questplugin.player.MovementTracker;
 import nl.tim.questplugin.player.QPlayer;
 import nl.tim.questplugin.quest.stage.Stage;
-import nl.tim.questplugin.quest.stage.rewards.StageLinkReward;
+import nl.tim.questplugin.quest.stage.StageDescriptor;
 
 import org.bukkit.entity.Player;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Singleton
 public class QuestHandler
 {
+    /**
+     * Immutable snapshot of all registered quests and stages. Registering replaces the whole snapshot, so lookups
+     * never have to lock and always see a consistent state.
+     */
+    private static final class Registry
+    {
+        private final Map<UUID, Quest> quests;
+        private final Map<UUID, Stage> stages;
+
+        // Reverse index from stage to the quest it belongs to
+        private final Map<UUID, Quest> stageQuests;
+
+        // Quests that can be progressed anywhere
+        private final Set<Quest> unlockedQuests;
+
+        // Area locked quests per area
+        private final Map<UUID, List<Quest>> areaQuests;
+
+        private Registry(Map<UUID, Quest> quests, Map<UUID, Stage> stages, Map<UUID, Quest> stageQuests)
+        {
+            this.quests = Collections.unmodifiableMap(quests);
+            this.stages = Collections.unmodifiableMap(stages);
+            this.stageQuests = Collections.unmodifiableMap(stageQuests);
+            this.unlockedQuests = Collections.unmodifiableSet(quests.values().stream()
+                    .filter(quest -> !quest.isAreaLocked())
+                    .collect(Collectors.toSet()));
+            this.areaQuests = Collections.unmodifiableMap(quests.values().stream()
+                    .filter(quest -> quest.isAreaLocked() && quest.getQuestArea() != null)
+                    .collect(Collectors.groupingBy(quest -> quest.getQuestArea().getUUID())));
+        }
+    }
+
     private QuestPlugin questPlugin;
 
-    private Set<Quest> quests;
-    private Set<Stage> stages;
+    private volatile Registry registry;
+
+    private MovementTracker movementTracker;
+    private ProgressAccumulator progressAccumulator;
+
+    private Timer processProgressTimer;
+    private Timer acceptQuestTimer;
+    private Timer rewardTimer;
+    private Counter completedQuests;
+    private Counter completedStages;
+    private Counter completedTasks;
 
     private Map<String, Class<? extends CustomExtension>> basicTriggers;
 
     @Inject
-    public QuestHandler(QuestPlugin questPlugin)
+    public QuestHandler(QuestPlugin questPlugin, MovementTracker movementTracker, MetricsRegistry metricsRegistry)
     {
         this.questPlugin = questPlugin;
-        this.quests = new HashSet<>();
-        this.stages = new HashSet<>();
+        this.movementTracker = movementTracker;
+        this.progressAccumulator = new ProgressAccumulator(this);
+        this.registry = new Registry(new HashMap<>(), new HashMap<>(), new HashMap<>());
         this.basicTriggers = new HashMap<>();
+
+        this.processProgressTimer = metricsRegistry.timer("quest.process_progress");
+        this.acceptQuestTimer = metricsRegistry.timer("quest.accept");
+        this.rewardTimer = metricsRegistry.timer("quest.reward");
+        this.completedQuests = metricsRegistry.counter("quest.completed");
+        this.completedStages = metricsRegistry.counter("stage.completed");
+        this.completedTasks = metricsRegistry.counter("task.completed");
+
+        metricsRegistry.gauge("progress.pending", this.progressAccumulator::getPendingCount);
+        metricsRegistry.gauge("progress.queued", this.progressAccumulator::getQueuedUpdates);
+        metricsRegistry.gauge("progress.coalesced", this.progressAccumulator::getCoalescedUpdates);
+        metricsRegistry.gauge("quest.registered", () -> this.registry.quests.size());
+        metricsRegistry.gauge("stage.registered", () -> this.registry.stages.size());
     }
 
     public void registerQuest(Quest quest)
     {
-        this.quests.add(quest);
+        this.registerQuests(Collections.singletonList(quest));
+    }
+
+    /**
+     * Registers all given quests and their stages at once. Use this when loading many quests, since every
+     * registration rebuilds the indices of all quests.
+     * @param quests {@link Quest}s to register
+     */
+    public void registerQuests(Collection<Quest> quests)
+    {
+        this.register(quests, Collections.emptyList());
     }
 
     public void registerStage(Stage stage)
     {
-        this.stages.add(stage);
+        this.register(Collections.emptyList(), Collections.singletonList(stage));
+    }
+
+    private synchronized void register(Collection<Quest> newQuests, Collection<Stage> floatingStages)
+    {
+        Map<UUID, Quest> quests = new HashMap<>(this.registry.quests);
+        Map<UUID, Stage> stageMap = new HashMap<>(this.registry.stages);
+        Map<UUID, Quest> stageQuests = new HashMap<>(this.registry.stageQuests);
+        List<Task> tasks = new ArrayList<>();
+
+        for (Quest quest : newQuests)
+        {
+            Quest oldQuest = quests.put(quest.getUUID(), quest);
+
+            // Replace the area of an older version of this quest
+            if (oldQuest != null && oldQuest.getQuestArea() != null)
+            {
+                this.movementTracker.unregister(oldQuest.getQuestArea());
+            }
+
+            this.trackArea(quest);
+
+            if (quest.getStages() != null)
+            {
+                this.addStages(quest, quest.getStages(), stageMap, stageQuests, tasks);
+            }
+        }
+
+        this.addStages(null, floatingStages, stageMap, stageQuests, tasks);
+        this.registry = new Registry(quests, stageMap, stageQuests);
+
+        // Make the tasks of these stages available as well
+        TaskHandler taskHandler = this.questPlugin.getTaskHandler();
+
+        if (taskHandler != null && !tasks.isEmpty())
+        {
+            taskHandler.registerTasks(tasks);
+        }
+    }
+
+    private void addStages(Quest quest,
+                           Collection<Stage> stages,
+                           Map<UUID, Stage> stageMap,
+                           Map<UUID, Quest> stageQuests,
+                           List<Task> tasks)
+    {
+        for (Stage stage : stages)
+        {
+            Quest parent = quest != null ? quest : stage.getQuest();
+
+            stageMap.put(stage.getUUID(), stage);
+
+            // Floating stages do not belong to a quest (yet)
+            if (parent != null)
+            {
+                stageQuests.put(stage.getUUID(), parent);
+            }
+
+            if (stage.getConfiguration() != null)
+            {
+                tasks.addAll(stage.getConfiguration().getTasks());
+            }
+        }
+    }
+
+    private void trackArea(Quest quest)
+    {
+        Area area = quest.getQuestArea();
+
+        if (area == null)
+        {
+            return;
+        }
+
+        // Triggers that react to the quest area get notified when players enter or leave it
+        List<AreaListener> listeners = new ArrayList<>();
+
+        if (quest.getTriggers() != null)
+        {
+            quest.getTriggers().stream()
+                    .filter(trigger -> trigger instanceof AreaListener)
+                    .map(AreaListener.class::cast)
+                    .forEach(listeners::add);
+        }
+
+        if (quest.isAreaLocked() || !listeners.isEmpty())
+        {
+            this.movementTracker.register(area, listeners);
+        }
     }
 
     protected boolean registerQuestTrigger(Class<? extends CustomExtension> triggerClazz, String identifier)
@@ -82,26 +240,26 @@ public class QuestHandler
         return this.basicTriggers;
     }
 
-    public Set<Quest> getQuests()
+    public Collection<Quest> getQuests()
     {
-        return this.quests;
+        return this.registry.quests.values();
     }
 
     public Quest getQuestByUUID(UUID uuid)
     {
-        Set<UUID> uuids = Stream.of(uuid).collect(Collectors.toCollection(HashSet::new));
-        Set<Quest> result = this.getQuest(uuids);
-
-        return result.isEmpty() ? null : result.iterator().next();
+        return this.registry.quests.get(uuid);
     }
 
     public Set<Quest> getQuest(Set<UUID> uuids)
     {
+        Map<UUID, Quest> quests = this.registry.quests;
         Set<Quest> result = new HashSet<>();
 
-        for (Quest quest : this.quests)
+        for (UUID uuid : uuids)
         {
-            if (uuids.contains(quest.getUUID()))
+            Quest quest = quests.get(uuid);
+
+            if (quest != null)
             {
                 result.add(quest);
             }
@@ -112,15 +270,17 @@ public class QuestHandler
 
     public Stage getStage(UUID uuid)
     {
-        for (Stage stage : this.stages)
-        {
-            if (stage.getUUID().equals(uuid))
-            {
-                return stage;
-            }
-        }
+        return this.registry.stages.get(uuid);
+    }
 
-        return null;
+    /**
+     * Returns the {@link Quest} the {@link Stage} with the given {@link UUID} belongs to.
+     * @param stageUUID {@link UUID} of the {@link Stage}
+     * @return The {@link Quest} of the stage, or null if the stage is unknown or floating.
+     */
+    public Quest getQuestOfStage(UUID stageUUID)
+    {
+        return this.registry.stageQuests.get(stageUUID);
     }
 
     /**
@@ -130,15 +290,15 @@ public class QuestHandler
      */
     public Set<Quest> getQuestAtLocation(QPlayer player)
     {
-        Set<Quest> result = new HashSet<>();
+        // Quests without an area can always be progressed
+        Set<Quest> result = new HashSet<>(this.registry.unlockedQuests);
 
-        // Check all quests
-        for (Quest quest : this.quests)
+        // Area locked quests of the areas the player is in
+        Map<UUID, List<Quest>> areaQuests = this.registry.areaQuests;
+
+        for (Area area : this.movementTracker.getAreas(player))
         {
-            if (!quest.isAreaLocked() || quest.getQuestArea().inArea(player))
-            {
-                result.add(quest);
-            }
+            result.addAll(areaQuests.getOrDefault(area.getUUID(), Collections.emptyList()));
         }
 
         return result;
@@ -202,20 +362,52 @@ public class QuestHandler
 
     private void handleRewards(Collection<Reward> rewards, QPlayer player)
     {
-        for (Reward reward : rewards)
+        // Check if there is anything to give
+        if (rewards.isEmpty())
+        {
+            return;
+        }
+
+        Player bukkitPlayer = questPlugin.getPlayerHandler().getPlayer(player);
+
+        if (bukkitPlayer == null)
         {
-            Player bukkitPlayer = questPlugin.getPlayerHandler().getPlayer(player);
+            QuestPlugin.getLog().severe("Player DB went out of sync (trying to complete a quest/stage/task" +
+                    " for an offline player). Player '" + player.getName() + "' with UUID '" + player.getUUID() + "'");
+            //TODO: Add something to handle this
+            return;
+        }
 
-            if (bukkitPlayer == null)
+        ExtensionProfiler profiler = this.questPlugin.getTaskHandler().getExtensionProfiler();
+        ExtensionWatchdog watchdog = this.questPlugin.getTaskHandler().getExtensionWatchdog();
+
+        for (Reward reward : rewards)
+        {
+            // Log skipped rewards, so they can be given by hand
+            if (watchdog.isBroken(reward))
             {
-                QuestPlugin.getLog().severe("Player DB went out of sync (trying to complete a quest/stage/task" +
-                        " for an offline player). Player '" + player.getName() + "' with UUID '" + player.getUUID() + "'");
-                //TODO: Add something to handle this
-                return;
+                QuestPlugin.getLog().warning("Did not give reward '" + reward.getIdentifier() + "' (" +
+                        reward.getUUID() + ") to player '" + player.getName() + "' with UUID '" + player.getUUID() +
+                        "', because the extension is disabled!");
+                continue;
             }
 
+            long start = System.nanoTime();
+
             // Trigger reward
-            reward.giveReward(bukkitPlayer);
+            try
+            {
+                reward.giveReward(bukkitPlayer);
+            } catch (RuntimeException e)
+            {
+                QuestPlugin.getLog().severe("An error occurred while giving reward '" + reward.getIdentifier() +
+                        "' (" + reward.getUUID() + ") to player '" + player.getName() + "':");
+                e.printStackTrace();
+                watchdog.recordFailure(reward);
+            }
+
+            this.rewardTimer.stop(start);
+            profiler.stop(reward, start);
         }
     }
 
@@ -226,40 +418,26 @@ public class QuestHandler
 
     public boolean checkStageComplete(QPlayer player, Stage stage)
     {
+        StageDescriptor descriptor = stage.getConfiguration().getDescriptor();
+
         // Check if the stage has branching tasks
         if (stage.hasBranchingTasks())
         {
-            boolean branchCompleted = false;
+            // Only branching tasks can complete this stage
+            int completedBranches = player.getCompletedBranchCount(stage);
 
-            // Check tasks for completion
-            for (Task task : stage.getConfiguration().getTasks())
+            // Check if more than one branching task was completed, should not be the case
+            if (completedBranches > 1)
             {
-                boolean completed = player.hasCompletedTask(task);
-
-                // Check if this is a branching task
-                if (stage.getConfiguration().getRewardForTask(task)
-                        .stream()
-                        .anyMatch(reward -> reward instanceof StageLinkReward))
-                {
-                    if (completed)
-                    {
-                        // Check if another branching task was completed, should not be the case
-                        if (branchCompleted)
-                        {
-                            QuestPlugin.getLog().severe("An error occurred while checking for stage completion: " +
-                                    "Stage '" + stage.getUUID() + "' has two or more completed branching tasks for player '" + player.getUUID() + "'!");
-                        }
-
-                        branchCompleted = true;
-                    }
-                }
+                QuestPlugin.getLog().severe("An error occurred while checking for stage completion: " +
+                        "Stage '" + stage.getUUID() + "' has two or more completed branching tasks for player '" + player.getUUID() + "'!");
             }
 
-            return branchCompleted;
+            return completedBranches > 0;
 
         } else
         {
-            return player.getCompletedTasks(stage).size() == stage.getConfiguration().getTasks().size();
+            return player.getCompletedTaskCount(stage) == descriptor.getRequiredTaskCount();
         }
     }
 
@@ -268,7 +446,37 @@ public class QuestHandler
         return player.getProgress(task.getUUID()).getProgress() >= task.getRequiredProgressToFinish();
     }
 
+    /**
+     * Queues a completion check for the given {@link Quest} and player, see {@link ProgressAccumulator}. Should be
+     * used instead of {@link #processProgress(QPlayer, Quest)} whenever progress is made.
+     * @param player {@link QPlayer} that made progress
+     * @param quest {@link Quest} the progress was made in
+     */
+    public void queueProgress(QPlayer player, Quest quest)
+    {
+        this.progressAccumulator.markDirty(player, quest);
+    }
+
+    public ProgressAccumulator getProgressAccumulator()
+    {
+        return this.progressAccumulator;
+    }
+
+    /**
+     * Checks the given {@link Quest} of the player for completion right away. This waits for the storage if the
+     * history of the player is not loaded yet, see {@link QPlayer#requestHistory()}.
+     * @param player {@link QPlayer} to check
+     * @param quest {@link Quest} to check
+     */
     public void processProgress(QPlayer player, Quest quest)
+    {
+        long start = System.nanoTime();
+
+        this.checkProgress(player, quest);
+        this.processProgressTimer.stop(start);
+    }
+
+    private void checkProgress(QPlayer player, Quest quest)
     {
         // First check task completion
         for (UUID taskUUID : player.getActiveTasks(quest))
@@ -303,6 +511,7 @@ public class QuestHandler
     {
         // Update player progress
         player.completeQuest(quest);
+        this.completedQuests.increment();
 
         // Trigger rewards
         this.handleRewards(quest.getRewards(), player);
@@ -315,20 +524,13 @@ public class QuestHandler
     {
         // Update player progress
         player.completeStage(parent, stage);
+        this.completedStages.increment();
 
         // Check if branch
         if (stage.isBranching())
         {
-            // Get new branches
-            List<UUID> newBranches = stage.getConfiguration().getStageRewards()
-                    .stream()
-                    .filter(rw -> rw instanceof StageLinkReward)
-                    .map(rw -> rw.getSetting("STAGE_LINK_UUID"))//TODO: Add enum for these values
-                    .map(UUID.class::cast)
-                    .collect(Collectors.toList());
-
             // Was a branch to we have to do some cleaning up of other stages
-            player.cleanQuestProgressAfterBranch(parent, newBranches);
+            player.cleanQuestProgressAfterBranch(parent, stage.getConfiguration().getDescriptor().getBranchTargets());
         }
 
         // Trigger rewards
@@ -342,9 +544,10 @@ public class QuestHandler
     {
         // Update player progress
         player.completeTaskWrapper(parent, taskWrapper);
+        this.completedTasks.increment();
 
         // Check if branch
-        if (parent.getConfiguration().getRewardForTask(taskWrapper).stream().anyMatch(rw -> rw instanceof StageLinkReward))
+        if (parent.getConfiguration().getDescriptor().isBranchingTask(taskWrapper.getUUID()))
         {
             // Was a branch so we have to do some cleaning up
             player.cleanStageProgress(quest, parent);
@@ -368,10 +571,25 @@ public class QuestHandler
             }
         }
 
+        // Not known yet if the quest was completed before, and the main thread should not wait for the storage
+        if (!player.requestHistory())
+        {
+            return false;
+        }
+
         return !player.isProgressingQuest(quest) && (!player.hasCompletedQuest(quest) || quest.isReplayable());
     }
 
     public boolean acceptQuest(QPlayer player, Quest quest)
+    {
+        long start = System.nanoTime();
+        boolean accepted = this.startQuest(player, quest);
+
+        this.acceptQuestTimer.stop(start);
+        return accepted;
+    }
+
+    private boolean startQuest(QPlayer player, Quest quest)
     {
         // Quick check to see if the player can start the quest
         if (!this.canStartQuest(player, quest))
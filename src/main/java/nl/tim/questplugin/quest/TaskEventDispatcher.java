@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.player.PlayerHandler;
+import nl.tim.questplugin.player.QPlayer;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Projectile;
+import org.bukkit.event.*;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityEvent;
+import org.bukkit.event.player.PlayerEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Routes Bukkit events to {@link Task}s. Instead of registering every task as a listener, one executor is
+ * registered per event class and priority. An event is only passed to the active tasks of the player that caused it
+ * (e.g. the damager or killer for damage and death events), so the cost of an event depends on the tasks of that
+ * player instead of all configured tasks. Events without an actor go to all tasks of the classes handling them.
+ * Tasks keep using {@link EventHandler} methods to declare which events they handle.
+ */
+public class TaskEventDispatcher implements Listener
+{
+    private static final class EventKey
+    {
+        private final Class<? extends Event> eventClass;
+        private final EventPriority priority;
+
+        private EventKey(Class<? extends Event> eventClass, EventPriority priority)
+        {
+            this.eventClass = eventClass;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (this == object)
+            {
+                return true;
+            }
+
+            if (!(object instanceof EventKey))
+            {
+                return false;
+            }
+
+            EventKey eventKey = (EventKey) object;
+
+            return this.eventClass == eventKey.eventClass && this.priority == eventKey.priority;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.eventClass, this.priority);
+        }
+    }
+
+    private static final class Handler
+    {
+        private final Method method;
+        private final boolean ignoreCancelled;
+
+        private Handler(Method method, boolean ignoreCancelled)
+        {
+            this.method = method;
+            this.ignoreCancelled = ignoreCancelled;
+        }
+    }
+
+    private TaskHandler taskHandler;
+    private QuestPlugin questPlugin;
+    private Plugin plugin;
+
+    // Handlers per event class and priority, per task class
+    private Map<EventKey, Map<Class<? extends Task>, List<Handler>>> handlers;
+
+    // Functions to get the acting entity per event class, empty for events without an actor
+    private Map<Class<? extends Event>, Optional<Function<Event, Entity>>> actorGetters;
+
+    public TaskEventDispatcher(TaskHandler taskHandler, QuestPlugin questPlugin)
+    {
+        this.taskHandler = taskHandler;
+        this.questPlugin = questPlugin;
+        this.handlers = new ConcurrentHashMap<>();
+        this.actorGetters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registers the executors of all known events with Bukkit. Task classes registered after this are registered
+     * with Bukkit right away.
+     * @param plugin {@link Plugin} to register the executors for
+     */
+    public synchronized void enable(Plugin plugin)
+    {
+        this.plugin = plugin;
+        this.handlers.keySet().forEach(this::hook);
+    }
+
+    /**
+     * Finds all {@link EventHandler} methods of the given {@link Task} class, so events get routed to its instances.
+     * @param taskClass {@link Task} class to register
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void registerTaskClass(Class<? extends Task> taskClass)
+    {
+        for (Method method : taskClass.getMethods())
+        {
+            EventHandler eventHandler = method.getAnnotation(EventHandler.class);
+
+            // Check if this is a valid event handler
+            if (eventHandler == null || method.getParameterCount() != 1
+                    || !Event.class.isAssignableFrom(method.getParameterTypes()[0]))
+            {
+                continue;
+            }
+
+            EventKey key = new EventKey((Class<? extends Event>) method.getParameterTypes()[0], eventHandler.priority());
+            Map<Class<? extends Task>, List<Handler>> taskHandlers = this.handlers.get(key);
+
+            // First handler of this event, so Bukkit has to know about it
+            if (taskHandlers == null)
+            {
+                taskHandlers = new ConcurrentHashMap<>();
+                this.handlers.put(key, taskHandlers);
+
+                if (this.plugin != null)
+                {
+                    this.hook(key);
+                }
+            }
+
+            method.setAccessible(true);
+            taskHandlers.computeIfAbsent(taskClass, k -> new ArrayList<>())
+                    .add(new Handler(method, eventHandler.ignoreCancelled()));
+        }
+    }
+
+    private void hook(EventKey key)
+    {
+        Bukkit.getPluginManager().registerEvent(key.eventClass, this, key.priority,
+                (listener, event) -> this.dispatch(key, event), this.plugin);
+    }
+
+    /**
+     * Passes the given event to the tasks that handle it with the given priority.
+     * @param eventClass Class the event was registered for
+     * @param priority {@link EventPriority} of the handlers to call
+     * @param event Event to pass
+     */
+    public void dispatch(Class<? extends Event> eventClass, EventPriority priority, Event event)
+    {
+        this.dispatch(new EventKey(eventClass, priority), event);
+    }
+
+    private void dispatch(EventKey key, Event event)
+    {
+        // Bukkit also calls executors for subclasses sharing the handler list of the registered event
+        if (!key.eventClass.isInstance(event))
+        {
+            return;
+        }
+
+        Map<Class<? extends Task>, List<Handler>> taskHandlers = this.handlers.get(key);
+
+        if (taskHandlers == null || taskHandlers.isEmpty())
+        {
+            return;
+        }
+
+        Optional<Function<Event, Entity>> actorGetter =
+                this.actorGetters.computeIfAbsent(event.getClass(), this::findActorGetter);
+
+        // Events without an actor go to every task handling them
+        if (!actorGetter.isPresent())
+        {
+            taskHandlers.forEach((taskClass, handlers) -> {
+                for (Task task : this.taskHandler.getTasks(taskClass))
+                {
+                    this.call(handlers, task, event);
+                }
+            });
+
+            return;
+        }
+
+        Entity actor = actorGetter.get().apply(event);
+
+        // Actors that are not players (e.g. a mob killing another mob) cannot progress tasks
+        if (!(actor instanceof Player))
+        {
+            return;
+        }
+
+        Player player = (Player) actor;
+
+        PlayerHandler playerHandler = this.questPlugin.getPlayerHandler();
+        QPlayer qPlayer = playerHandler != null ? playerHandler.getPlayer(player) : null;
+
+        if (qPlayer == null)
+        {
+            return;
+        }
+
+        // Only the tasks this player is working on (a copy, since handlers can complete tasks)
+        for (UUID taskUUID : qPlayer.getActiveTasks())
+        {
+            Task task = this.taskHandler.getTask(taskUUID);
+
+            if (task != null)
+            {
+                this.call(taskHandlers.get(task.getClass()), task, event);
+            }
+        }
+    }
+
+    private void call(List<Handler> handlers, Task task, Event event)
+    {
+        if (handlers == null)
+        {
+            return;
+        }
+
+        ExtensionProfiler profiler = this.taskHandler.getExtensionProfiler();
+        ExtensionWatchdog watchdog = this.taskHandler.getExtensionWatchdog();
+
+        // Broken tasks are skipped until the watchdog enables them again
+        if (watchdog.isBroken(task))
+        {
+            return;
+        }
+
+        for (Handler handler : handlers)
+        {
+            // Respect ignoreCancelled like Bukkit would
+            if (handler.ignoreCancelled && event instanceof Cancellable && ((Cancellable) event).isCancelled())
+            {
+                continue;
+            }
+
+            long start = System.nanoTime();
+
+            try
+            {
+                handler.method.invoke(task, event);
+            } catch (IllegalAccessException | InvocationTargetException e)
+            {
+                QuestPlugin.getLog().severe("An error occurred while passing '" + event.getEventName() +
+                        "' to task '" + task.getUUID() + "' (" + task.getClass().getSimpleName() + "):");
+                e.printStackTrace();
+                watchdog.recordFailure(task);
+            }
+
+            profiler.stop(task, start);
+        }
+    }
+
+    private Optional<Function<Event, Entity>> findActorGetter(Class<? extends Event> eventClass)
+    {
+        if (PlayerEvent.class.isAssignableFrom(eventClass))
+        {
+            return Optional.of(event -> ((PlayerEvent) event).getPlayer());
+        }
+
+        // The victim is the entity of these events, the actor is the damager or killer
+        if (EntityDamageByEntityEvent.class.isAssignableFrom(eventClass))
+        {
+            return Optional.of(event -> this.getSource(((EntityDamageByEntityEvent) event).getDamager()));
+        }
+
+        if (EntityDeathEvent.class.isAssignableFrom(eventClass))
+        {
+            return Optional.of(event -> ((EntityDeathEvent) event).getEntity().getKiller());
+        }
+
+        // Other events (e.g. BlockBreakEvent) often have a getPlayer method
+        try
+        {
+            Method method = eventClass.getMethod("getPlayer");
+
+            if (Entity.class.isAssignableFrom(method.getReturnType()))
+            {
+                return Optional.of(event -> {
+                    try
+                    {
+                        return (Entity) method.invoke(event);
+                    } catch (IllegalAccessException | InvocationTargetException e)
+                    {
+                        return null;
+                    }
+                });
+            }
+        } catch (NoSuchMethodException e)
+        {
+            // Not a player event
+        }
+
+        // For other entity events the entity is the one acting (e.g. taking fall damage or picking up an item)
+        if (EntityEvent.class.isAssignableFrom(eventClass))
+        {
+            return Optional.of(event -> ((EntityEvent) event).getEntity());
+        }
+
+        return Optional.empty();
+    }
+
+    private Entity getSource(Entity damager)
+    {
+        // Credit the shooter of arrows and other projectiles
+        if (damager instanceof Projectile && ((Projectile) damager).getShooter() instanceof Entity)
+        {
+            return (Entity) ((Projectile) damager).getShooter();
+        }
+
+        return damager;
+    }
+}
@@ -21,34 +21,92 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import nl.tim.questplugin.QuestPlugin;
 import nl.tim.questplugin.api.*;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.quest.stage.Stage;
+import nl.tim.questplugin.utils.Constants;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Singleton
 public class TaskHandler
 {
+    /**
+     * Immutable snapshot of all registered tasks. Registering replaces the whole snapshot, so lookups never have to
+     * lock and always see a consistent state.
+     */
+    private static final class Registry
+    {
+        private final Map<UUID, Task> tasks;
+
+        // Reverse index from task to the stage it belongs to
+        private final Map<UUID, Stage> taskStages;
+
+        // Tasks per class, for events that are not caused by a player
+        private final Map<Class<? extends Task>, List<Task>> classTasks;
+
+        private Registry(Map<UUID, Task> tasks, Map<UUID, Stage> taskStages)
+        {
+            this.tasks = Collections.unmodifiableMap(tasks);
+            this.taskStages = Collections.unmodifiableMap(taskStages);
+            this.classTasks = Collections.unmodifiableMap(tasks.values().stream()
+                    .collect(Collectors.groupingBy(Task::getClass,
+                            Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList))));
+        }
+    }
+
     private Map<String, Class<? extends CustomExtension>> baseTasks;
     private Map<String, Class<? extends CustomExtension>> baseRewards;
     private Map<String, Class<? extends CustomExtension>> baseRequirements;
 
-    private Set<Task> tasks;
+    private volatile Registry registry;
     private Set<Requirement> requirements;
     private Set<Reward> rewards;
 
     private QuestPlugin questPlugin;
+    private TaskEventDispatcher taskEventDispatcher;
+    private ExtensionProfiler extensionProfiler;
+    private ExtensionWatchdog extensionWatchdog;
 
     @Inject
-    public TaskHandler(QuestPlugin questPlugin)
+    public TaskHandler(QuestPlugin questPlugin, MetricsRegistry metricsRegistry)
     {
         this.questPlugin = questPlugin;
         this.baseTasks = new HashMap<>();
         this.baseRewards = new HashMap<>();
         this.baseRequirements = new HashMap<>();
 
-        this.tasks = new HashSet<>();
+        this.registry = new Registry(new HashMap<>(), new HashMap<>());
         this.requirements = new HashSet<>();
         this.rewards = new HashSet<>();
+        this.taskEventDispatcher = new TaskEventDispatcher(this, questPlugin);
+        this.extensionProfiler = new ExtensionProfiler(metricsRegistry, this.getTickBudget());
+        this.extensionWatchdog = new ExtensionWatchdog(this.extensionProfiler, metricsRegistry,
+                this.getIntOption(Constants.EXTENSION_FAILURE_THRESHOLD, Constants.DEFAULT_EXTENSION_FAILURE_THRESHOLD),
+                TimeUnit.SECONDS.toNanos(this.getIntOption(Constants.EXTENSION_DISABLE_TIME,
+                        Constants.DEFAULT_EXTENSION_DISABLE_TIME)));
+
+        metricsRegistry.gauge("task.registered", () -> this.registry.tasks.size());
+    }
+
+    private long getTickBudget()
+    {
+        Double budget = this.questPlugin.getConfigHandler() == null ? null :
+                this.questPlugin.getConfigHandler().getOption(Double.class, Constants.EXTENSION_TICK_BUDGET);
+
+        // Convert milliseconds to nanoseconds
+        return (long) ((budget != null ? budget : Constants.DEFAULT_EXTENSION_TICK_BUDGET) *
+                TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private int getIntOption(String option, int defaultValue)
+    {
+        Integer value = this.questPlugin.getConfigHandler() == null ? null :
+                this.questPlugin.getConfigHandler().getOption(Integer.class, option);
+
+        return value != null ? value : defaultValue;
     }
 
     public boolean registerCustomExtension(Class<? extends CustomExtension> extension)
@@ -74,6 +132,7 @@ public class TaskHandler
         if (Task.class.isAssignableFrom(extension) && extension != Task.class)
         {
             this.baseTasks.put(identifier, extension);
+            this.taskEventDispatcher.registerTaskClass(extension.asSubclass(Task.class));
         } else if (Requirement.class.isAssignableFrom(extension) && extension != Requirement.class)
         {
             this.baseRequirements.put(identifier, extension);
@@ -164,9 +223,32 @@ public class TaskHandler
         return extension;
     }
 
-    public Set<Task> getTasks()
+    public void registerTask(Task task)
     {
-        return this.tasks;
+        this.registerTasks(Collections.singletonList(task));
+    }
+
+    public synchronized void registerTasks(Collection<Task> tasks)
+    {
+        Map<UUID, Task> taskMap = new HashMap<>(this.registry.tasks);
+        Map<UUID, Stage> taskStages = new HashMap<>(this.registry.taskStages);
+
+        for (Task task : tasks)
+        {
+            taskMap.put(task.getUUID(), task);
+
+            if (task.getStage() != null)
+            {
+                taskStages.put(task.getUUID(), task.getStage());
+            }
+        }
+
+        this.registry = new Registry(taskMap, taskStages);
+    }
+
+    public Collection<Task> getTasks()
+    {
+        return this.registry.tasks.values();
     }
 
     public Set<Requirement> getRequirements()
@@ -179,16 +261,43 @@ public class TaskHandler
         return this.rewards;
     }
 
+    public TaskEventDispatcher getTaskEventDispatcher()
+    {
+        return this.taskEventDispatcher;
+    }
+
+    public ExtensionProfiler getExtensionProfiler()
+    {
+        return this.extensionProfiler;
+    }
+
+    public ExtensionWatchdog getExtensionWatchdog()
+    {
+        return this.extensionWatchdog;
+    }
+
+    /**
+     * Returns all registered tasks of exactly the given class.
+     * @param taskClass Class of the tasks
+     * @return An immutable list with the tasks, empty if there are none.
+     */
+    public List<Task> getTasks(Class<? extends Task> taskClass)
+    {
+        return this.registry.classTasks.getOrDefault(taskClass, Collections.emptyList());
+    }
+
     public Task getTask(UUID uuid)
     {
-        for (Task task : this.tasks)
-        {
-            if (task.getUUID().equals(uuid))
-            {
-                return task;
-            }
-        }
+        return this.registry.tasks.get(uuid);
+    }
 
-        return null;
+    /**
+     * Returns the {@link Stage} the {@link Task} with the given {@link UUID} belongs to.
+     * @param taskUUID {@link UUID} of the {@link Task}
+     * @return The {@link Stage} of the task, or null if the task is unknown.
+     */
+    public Stage getStageOfTask(UUID taskUUID)
+    {
+        return this.registry.taskStages.get(taskUUID);
     }
 }
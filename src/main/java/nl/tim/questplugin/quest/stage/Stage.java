@@ -18,8 +18,6 @@
 package nl.tim.questplugin.quest.stage;
 
 import nl.tim.questplugin.api.Requirement;
-import nl.tim.questplugin.api.Reward;
-import nl.tim.questplugin.api.Task;
 import nl.tim.questplugin.quest.Owner;
 import nl.tim.questplugin.quest.Quest;
 import nl.tim.questplugin.quest.stage.rewards.StageLinkReward;
@@ -100,7 +98,7 @@ public class Stage implements Owner
 
     public boolean checkBranching()
     {
-        if (this.configuration.getStageRewards().stream().anyMatch(rw -> rw instanceof StageLinkReward))
+        if (!this.configuration.getDescriptor().getBranchTargets().isEmpty())
         {
             this.branching = true;
             return true;
@@ -111,20 +109,8 @@ public class Stage implements Owner
 
     public boolean checkBranchingTasks()
     {
-        for (Task task : this.getConfiguration().getTasks())
-        {
-            for (Reward reward : this.getConfiguration().getRewardForTask(task))
-            {
-                if (reward instanceof StageLinkReward)
-                {
-                    this.branchingTasks = true;
-                    return true;
-                }
-            }
-        }
-
-        this.branchingTasks = false;
-        return false;
+        this.branchingTasks = !this.configuration.getDescriptor().getBranchingTasks().isEmpty();
+        return this.branchingTasks;
     }
 
     public boolean isBroken()
@@ -181,6 +167,12 @@ public class Stage implements Owner
         return this.quest;
     }
 
+    // Only the UUID of the quest is compared, the quest itself compares its stages
+    private UUID getQuestUUID()
+    {
+        return this.quest == null ? null : this.quest.getUUID();
+    }
+
     @Override
     public boolean equals(Object object)
     {
@@ -201,7 +193,7 @@ public class Stage implements Owner
                 .append(branching, stage.branching)
                 .append(branchingTasks, stage.branchingTasks)
                 .append(identifier, stage.identifier)
-                .append(quest, stage.quest)
+                .append(this.getQuestUUID(), stage.getQuestUUID())
                 .append(uuid, stage.uuid)
                 .append(configuration, stage.configuration)
                 .isEquals();
@@ -212,7 +204,7 @@ public class Stage implements Owner
     {
         return new HashCodeBuilder(17, 37)
                 .append(identifier)
-                .append(quest)
+                .append(this.getQuestUUID())
                 .append(uuid)
                 .append(configuration)
                 .append(broken)
@@ -35,6 +35,8 @@ public class StageConfiguration
     private List<Reward> stageRewards;
     private UUID parentUUID;
 
+    private StageDescriptor descriptor;
+
     public StageConfiguration(Map<StageOption, Object> stageConfiguration,
                               Set<Task> tasks,
                               MultiValuedMap<Task, Reward> taskRewards,
@@ -50,6 +52,24 @@ public class StageConfiguration
         this.stageStart = stageStart;
         this.stageRewards = stageRewards;
         this.parentUUID = parentUUID;
+        this.descriptor = StageDescriptor.compile(this);
+    }
+
+    /**
+     * Returns the precompiled {@link StageDescriptor} of this configuration.
+     * @return The {@link StageDescriptor} of this configuration.
+     */
+    public StageDescriptor getDescriptor()
+    {
+        return this.descriptor;
+    }
+
+    /**
+     * Compiles the {@link StageDescriptor} again, should be called after the tasks or rewards were changed.
+     */
+    public void updateDescriptor()
+    {
+        this.descriptor = StageDescriptor.compile(this);
     }
 
     /**
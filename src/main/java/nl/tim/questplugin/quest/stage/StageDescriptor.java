@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.quest.stage;
+
+import nl.tim.questplugin.api.Reward;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.quest.stage.rewards.StageLinkReward;
+
+import java.util.*;
+
+/**
+ * Immutable summary of a {@link StageConfiguration} that is needed to check stage completion. It is compiled once
+ * when the configuration is created, so completion checks do not have to scan the rewards of every task.
+ * Every task gets a dense index, so the completed tasks of a stage can be kept in a {@link BitSet}.
+ */
+public final class StageDescriptor
+{
+    private final int requiredTaskCount;
+    private final Map<UUID, Integer> taskIndices;
+    private final Set<UUID> branchingTasks;
+    private final BitSet branchingMask;
+    private final List<UUID> branchTargets;
+
+    private StageDescriptor(Map<UUID, Integer> taskIndices, Set<UUID> branchingTasks, List<UUID> branchTargets)
+    {
+        this.requiredTaskCount = taskIndices.size();
+        this.taskIndices = Collections.unmodifiableMap(taskIndices);
+        this.branchingTasks = Collections.unmodifiableSet(branchingTasks);
+        this.branchingMask = new BitSet(taskIndices.size());
+        this.branchTargets = Collections.unmodifiableList(branchTargets);
+
+        branchingTasks.forEach(task -> this.branchingMask.set(taskIndices.get(task)));
+    }
+
+    /**
+     * Builds the descriptor of the given {@link StageConfiguration}.
+     * @param configuration {@link StageConfiguration} to describe
+     * @return A new {@link StageDescriptor}.
+     */
+    public static StageDescriptor compile(StageConfiguration configuration)
+    {
+        Set<Task> tasks = configuration.getTasks() != null ? configuration.getTasks() : Collections.emptySet();
+        Map<UUID, Integer> taskIndices = new HashMap<>();
+        Set<UUID> branchingTasks = new HashSet<>();
+
+        // Sorted, so the indices do not depend on the order of the set
+        tasks.stream()
+                .map(Task::getUUID)
+                .sorted()
+                .forEachOrdered(task -> taskIndices.putIfAbsent(task, taskIndices.size()));
+
+        List<UUID> branchTargets = new ArrayList<>();
+
+        // Tasks that link another stage decide which branch the player takes
+        if (configuration.getTaskRewardsMap() != null)
+        {
+            for (Task task : tasks)
+            {
+                for (Reward reward : configuration.getRewardForTask(task))
+                {
+                    if (reward instanceof StageLinkReward)
+                    {
+                        branchingTasks.add(task.getUUID());
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Stages linked by the rewards of this stage
+        if (configuration.getStageRewards() != null)
+        {
+            for (Reward reward : configuration.getStageRewards())
+            {
+                if (reward instanceof StageLinkReward)
+                {
+                    UUID target = toUUID(reward.getSetting(StageLinkReward.STAGE_TO_LINK));
+
+                    if (target != null)
+                    {
+                        branchTargets.add(target);
+                    }
+                }
+            }
+        }
+
+        return new StageDescriptor(taskIndices, branchingTasks, branchTargets);
+    }
+
+    private static UUID toUUID(Object setting)
+    {
+        if (setting instanceof UUID)
+        {
+            return (UUID) setting;
+        }
+
+        try
+        {
+            return setting != null ? UUID.fromString(setting.toString()) : null;
+        } catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the amount of tasks that have to be completed to complete a stage without branching tasks.
+     * @return The amount of required tasks.
+     */
+    public int getRequiredTaskCount()
+    {
+        return this.requiredTaskCount;
+    }
+
+    /**
+     * Returns the {@link UUID}s of all tasks that link another stage when completed.
+     * @return An unmodifiable {@link Set} of task {@link UUID}s.
+     */
+    public Set<UUID> getBranchingTasks()
+    {
+        return this.branchingTasks;
+    }
+
+    public boolean isBranchingTask(UUID taskUUID)
+    {
+        return this.branchingTasks.contains(taskUUID);
+    }
+
+    /**
+     * Returns the index of the given task in this stage.
+     * @param taskUUID {@link UUID} of the task
+     * @return The index of the task, or -1 if the task is not part of this stage.
+     */
+    public int getTaskIndex(UUID taskUUID)
+    {
+        Integer index = this.taskIndices.get(taskUUID);
+
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Counts the branching tasks in the given completed tasks.
+     * @param completedTasks {@link BitSet} of completed task indices, see {@link #getTaskIndex(UUID)}
+     * @return The amount of completed branching tasks.
+     */
+    public int countBranchingTasks(BitSet completedTasks)
+    {
+        int count = 0;
+
+        for (int i = this.branchingMask.nextSetBit(0); i >= 0; i = this.branchingMask.nextSetBit(i + 1))
+        {
+            if (completedTasks.get(i))
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the {@link UUID}s of the stages linked by the rewards of this stage.
+     * @return An unmodifiable {@link List} of stage {@link UUID}s.
+     */
+    public List<UUID> getBranchTargets()
+    {
+        return this.branchTargets;
+    }
+}
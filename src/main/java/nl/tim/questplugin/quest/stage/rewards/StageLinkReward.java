@@ -30,6 +30,8 @@ import org.bukkit.entity.Player;
 @ExtensionInformation(identifier = "stage_link", author = "Tim")
 public class StageLinkReward extends Reward
 {
+    public static final String STAGE_TO_LINK = "stage_to_link";
+
     public StageLinkReward()
     {
         super("Link another stage (branching)",
@@ -42,7 +44,7 @@ public class StageLinkReward extends Reward
     @Override
     public void init()
     {
-        this.addConfiguration("stage_to_link", "ID of the stage to link", InputType.STRING);
+        this.addConfiguration(STAGE_TO_LINK, "ID of the stage to link", InputType.STRING);
     }
 
     @Override
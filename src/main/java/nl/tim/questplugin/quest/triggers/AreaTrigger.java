@@ -19,11 +19,12 @@ package nl.tim.questplugin.quest.triggers;
 
 import nl.tim.questplugin.api.ExtensionInformation;
 import nl.tim.questplugin.api.Trigger;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.player.PlayerMoveEvent;
+import nl.tim.questplugin.area.Area;
+import nl.tim.questplugin.area.AreaListener;
+import nl.tim.questplugin.player.QPlayer;
 
 @ExtensionInformation(identifier = "trigger_area", author = "Tim")
-public class AreaTrigger extends Trigger
+public class AreaTrigger extends Trigger implements AreaListener
 {
     public AreaTrigger()
     {
@@ -31,9 +32,15 @@ public class AreaTrigger extends Trigger
                 "the defined area");
     }
 
-    @EventHandler
-    public void onMove(PlayerMoveEvent event)
+    @Override
+    public void onEnter(QPlayer player, Area area)
     {
+        this.triggerQuest(player);
+    }
 
+    @Override
+    public void onLeave(QPlayer player, Area area)
+    {
+        // Leaving the area does not matter once the quest is triggered
     }
 }
@@ -22,7 +22,9 @@ import nl.tim.questplugin.storage.Storage;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 
@@ -34,6 +36,10 @@ public class ProgressWrapper implements Saveable
     private UUID taskUUID;
     private Integer progress;
 
+    // Whether this progress was saved before, and if the progress changed since then
+    private boolean saved;
+    private boolean progressChanged;
+
     public ProgressWrapper(UUID uuid, UUID questUUID, UUID stageUUID, UUID taskUUID, Integer progress)
     {
         this.uuid = uuid;
@@ -70,7 +76,11 @@ public class ProgressWrapper implements Saveable
 
     public void updateProgress(Integer progress)
     {
-        this.progress = progress;
+        if (!Objects.equals(this.progress, progress))
+        {
+            this.progress = progress;
+            this.progressChanged = true;
+        }
     }
 
     @Override
@@ -84,11 +94,41 @@ public class ProgressWrapper implements Saveable
         data.add(new Storage.DataPair<>(this.uuid + ".task", this.taskUUID.toString()));
 
         // Save progress
-        data.add(new Storage.DataPair<>(this.uuid + ".progress", this.progress.toString()));
+        data.add(this.getProgressData());
 
         return data;
     }
 
+    private Storage.DataPair<String> getProgressData()
+    {
+        return new Storage.DataPair<>(this.uuid + ".progress", this.progress.toString());
+    }
+
+    @Override
+    public Set<Storage.DataPair<String>> getDirtyData()
+    {
+        // Only the progress can change after the first save
+        if (!this.saved)
+        {
+            return this.getData();
+        }
+
+        return this.progressChanged ? Collections.singleton(this.getProgressData()) : Collections.emptySet();
+    }
+
+    @Override
+    public boolean isDirty()
+    {
+        return !this.saved || this.progressChanged;
+    }
+
+    @Override
+    public void markClean()
+    {
+        this.saved = true;
+        this.progressChanged = false;
+    }
+
     @Override
     public boolean equals(Object object)
     {
@@ -0,0 +1,476 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.storage;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.metrics.Counter;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.metrics.Timer;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Wraps another {@link Storage} and moves all of its work to a dedicated I/O thread. Writes are queued and
+ * coalesced per (uuid, {@link nl.tim.questplugin.storage.Storage.DataType}, key), so only the latest value of a key
+ * is written. Loads are executed on the same thread after all queued writes, so they always see earlier writes.
+ * The time spent in the wrapped {@link Storage} is recorded per operation and
+ * {@link nl.tim.questplugin.storage.Storage.DataType}.
+ */
+public class AsyncStorage implements Storage
+{
+    private static final class WriteKey
+    {
+        private UUID uuid;
+        private DataType dataType;
+        private String key;
+
+        WriteKey(UUID uuid, DataType dataType, String key)
+        {
+            this.uuid = uuid;
+            this.dataType = dataType;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (this == object)
+            {
+                return true;
+            }
+
+            if (!(object instanceof WriteKey))
+            {
+                return false;
+            }
+
+            WriteKey writeKey = (WriteKey) object;
+
+            return this.uuid.equals(writeKey.uuid)
+                    && this.dataType == writeKey.dataType
+                    && this.key.equals(writeKey.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.uuid, this.dataType, this.key);
+        }
+    }
+
+    private Storage storage;
+    private int queueCapacity;
+    private ExecutorService executor;
+
+    // Pending writes in the order they should be executed, a null value means the key has to be removed
+    private LinkedHashMap<WriteKey, Object> pendingWrites;
+    private boolean drainScheduled;
+
+    // Set once close was called, writes after that can not be written anymore
+    private boolean closed;
+
+    private Map<DataType, Timer> saveTimers;
+    private Map<DataType, Timer> removeTimers;
+    private Map<DataType, Timer> loadTimers;
+    private Map<DataType, Timer> loadSectionTimers;
+    private Map<DataType, Timer> listTimers;
+    private Timer flushTimer;
+    private Counter errors;
+
+    public AsyncStorage(Storage storage, int queueCapacity)
+    {
+        this(storage, queueCapacity, new MetricsRegistry());
+    }
+
+    public AsyncStorage(Storage storage, int queueCapacity, MetricsRegistry metricsRegistry)
+    {
+        this.storage = storage;
+        this.queueCapacity = queueCapacity;
+        this.pendingWrites = new LinkedHashMap<>();
+        this.saveTimers = this.createTimers(metricsRegistry, "save");
+        this.removeTimers = this.createTimers(metricsRegistry, "remove");
+        this.loadTimers = this.createTimers(metricsRegistry, "load");
+        this.loadSectionTimers = this.createTimers(metricsRegistry, "load_section");
+        this.listTimers = this.createTimers(metricsRegistry, "list");
+        this.flushTimer = metricsRegistry.timer("storage.flush");
+        this.errors = metricsRegistry.counter("storage.errors");
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "QuestPlugin-Storage");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Map<DataType, Timer> createTimers(MetricsRegistry metricsRegistry, String operation)
+    {
+        Map<DataType, Timer> timers = new EnumMap<>(DataType.class);
+
+        for (DataType dataType : DataType.values())
+        {
+            timers.put(dataType, metricsRegistry.timer("storage." + operation + "{data_type=" +
+                    dataType.name().toLowerCase(Locale.ROOT) + "}"));
+        }
+
+        return timers;
+    }
+
+    private <T> T timed(Timer timer, Supplier<T> operation)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            return operation.get();
+        } finally
+        {
+            timer.stop(start);
+        }
+    }
+
+    /**
+     * Returns the {@link Storage} that does the actual work.
+     * @return The wrapped {@link Storage}.
+     */
+    public Storage getStorage()
+    {
+        return this.storage;
+    }
+
+    @Override
+    public boolean init()
+    {
+        // Initialization happens while the plugin is enabling, so there is no need to do this async
+        return this.storage.init();
+    }
+
+    @Override
+    public void save(UUID uuid, DataType dataType, DataPair dataPair)
+    {
+        this.queue(uuid, dataType, dataPair.getKey(), dataPair.getData());
+    }
+
+    @Override
+    public void save(UUID uuid, DataType dataType, List<DataPair> dataPairs)
+    {
+        for (DataPair dataPair : dataPairs)
+        {
+            // Check if it's null
+            if (dataPair == null)
+            {
+                continue;
+            }
+
+            this.queue(uuid, dataType, dataPair.getKey(), dataPair.getData());
+        }
+    }
+
+    @Override
+    public void remove(UUID uuid, DataType dataType, String key)
+    {
+        this.queue(uuid, dataType, key, null);
+    }
+
+    private synchronized void queue(UUID uuid, DataType dataType, String key, Object data)
+    {
+        WriteKey writeKey = new WriteKey(uuid, dataType, key);
+
+        // The I/O thread is stopped, so this write would never happen
+        if (this.closed)
+        {
+            this.rejectWrite(writeKey);
+            return;
+        }
+
+        // Coalesce with an earlier write of the same key, the write is moved to the end to keep the order of
+        // removals and saves intact
+        if (this.pendingWrites.remove(writeKey) == null)
+        {
+            // This is a new write, so wait until there is space in the queue
+            while (this.pendingWrites.size() >= this.queueCapacity)
+            {
+                this.scheduleDrain();
+
+                try
+                {
+                    this.wait();
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                // Closed while waiting, nothing will make space in the queue anymore
+                if (this.closed)
+                {
+                    this.rejectWrite(writeKey);
+                    return;
+                }
+            }
+        }
+
+        this.pendingWrites.put(writeKey, data);
+        this.scheduleDrain();
+    }
+
+    private void rejectWrite(WriteKey writeKey)
+    {
+        this.errors.increment();
+        QuestPlugin.getLog().severe("Could not write '" + writeKey.key + "' of object '" + writeKey.uuid + "' (" +
+                writeKey.dataType.name() + "), the storage is already closed");
+    }
+
+    private synchronized void scheduleDrain()
+    {
+        if (!this.drainScheduled && !this.executor.isShutdown())
+        {
+            this.drainScheduled = true;
+            this.executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Executes all pending writes. Should only be called on the I/O thread.
+     */
+    private void drain()
+    {
+        List<Map.Entry<WriteKey, Object>> writes;
+
+        synchronized (this)
+        {
+            writes = new ArrayList<>(this.pendingWrites.entrySet());
+
+            this.pendingWrites = new LinkedHashMap<>();
+            this.drainScheduled = false;
+            this.notifyAll();
+        }
+
+        List<DataPair> batch = new ArrayList<>();
+        WriteKey batchKey = null;
+
+        for (Map.Entry<WriteKey, Object> write : writes)
+        {
+            WriteKey writeKey = write.getKey();
+
+            // Consecutive saves of the same object are written in one go
+            if (batchKey != null && (write.getValue() == null
+                    || !batchKey.uuid.equals(writeKey.uuid) || batchKey.dataType != writeKey.dataType))
+            {
+                this.saveBatch(batchKey, batch);
+                batch = new ArrayList<>();
+                batchKey = null;
+            }
+
+            if (write.getValue() == null)
+            {
+                this.remove(writeKey);
+            } else
+            {
+                batch.add(new DataPair<>(writeKey.key, write.getValue()));
+                batchKey = writeKey;
+            }
+        }
+
+        if (batchKey != null)
+        {
+            this.saveBatch(batchKey, batch);
+        }
+    }
+
+    private void saveBatch(WriteKey writeKey, List<DataPair> batch)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            this.storage.save(writeKey.uuid, writeKey.dataType, batch);
+        } catch (RuntimeException e)
+        {
+            this.errors.increment();
+            QuestPlugin.getLog().severe("Could not save object '" + writeKey.uuid + "' (" + writeKey.dataType.name() + ")");
+            e.printStackTrace();
+        }
+
+        this.saveTimers.get(writeKey.dataType).stop(start);
+    }
+
+    private void remove(WriteKey writeKey)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            this.storage.remove(writeKey.uuid, writeKey.dataType, writeKey.key);
+        } catch (RuntimeException e)
+        {
+            this.errors.increment();
+            QuestPlugin.getLog().severe("Could not remove '" + writeKey.key + "' from object '" + writeKey.uuid +
+                    "' (" + writeKey.dataType.name() + ")");
+            e.printStackTrace();
+        }
+
+        this.removeTimers.get(writeKey.dataType).stop(start);
+    }
+
+    /**
+     * Loads one piece of saved data on the I/O thread, see {@link Storage#load(UUID, DataType, String)}.
+     * @param uuid {@link UUID} of the object to search for
+     * @param dataType {@link DataType} of required data
+     * @param key key to of the required data
+     * @return {@link CompletableFuture} that completes with the {@link DataPair}.
+     */
+    public CompletableFuture<DataPair> loadAsync(UUID uuid, DataType dataType, String key)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            this.drain();
+            return this.timed(this.loadTimers.get(dataType), () -> this.storage.load(uuid, dataType, key));
+        }, this.executor);
+    }
+
+    /**
+     * Loads all data of an object on the I/O thread, see {@link Storage#load(UUID, DataType)}.
+     * @param uuid {@link UUID} of the object to load
+     * @param dataType {@link DataType} of the objet
+     * @return {@link CompletableFuture} that completes with all data of the object.
+     */
+    public CompletableFuture<List<DataPair>> loadAsync(UUID uuid, DataType dataType)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            this.drain();
+            return this.timed(this.loadTimers.get(dataType), () -> this.storage.load(uuid, dataType));
+        }, this.executor);
+    }
+
+    /**
+     * Loads a section of an object on the I/O thread, see {@link Storage#loadSection(UUID, DataType, String)}.
+     * @param uuid {@link UUID} of the object to load
+     * @param dataType {@link DataType} of the object
+     * @param section key of the section to load
+     * @return {@link CompletableFuture} that completes with all data in the section.
+     */
+    public CompletableFuture<List<DataPair>> loadSectionAsync(UUID uuid, DataType dataType, String section)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            this.drain();
+            return this.timed(this.loadSectionTimers.get(dataType),
+                    () -> this.storage.loadSection(uuid, dataType, section));
+        }, this.executor);
+    }
+
+    /**
+     * Returns all saved UUIDs of the given {@link DataType} on the I/O thread, see
+     * {@link Storage#getSavedObjectsUID(DataType)}.
+     * @param dataType {@link DataType} to search for
+     * @return {@link CompletableFuture} that completes with all found UUIDs.
+     */
+    public CompletableFuture<List<UUID>> getSavedObjectsUIDAsync(DataType dataType)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            this.drain();
+            return this.timed(this.listTimers.get(dataType), () -> this.storage.getSavedObjectsUID(dataType));
+        }, this.executor);
+    }
+
+    /**
+     * Writes all pending changes on the I/O thread, without waiting for it.
+     * @return {@link CompletableFuture} that completes once everything is written.
+     */
+    public CompletableFuture<Void> flushAsync()
+    {
+        return CompletableFuture.runAsync(() -> {
+            this.drain();
+
+            long start = System.nanoTime();
+
+            this.storage.flush();
+            this.flushTimer.stop(start);
+        }, this.executor);
+    }
+
+    @Override
+    public DataPair load(UUID uuid, DataType dataType, String key)
+    {
+        return this.loadAsync(uuid, dataType, key).join();
+    }
+
+    @Override
+    public List<DataPair> load(UUID uuid, DataType dataType)
+    {
+        return this.loadAsync(uuid, dataType).join();
+    }
+
+    @Override
+    public List<DataPair> loadSection(UUID uuid, DataType dataType, String section)
+    {
+        return this.loadSectionAsync(uuid, dataType, section).join();
+    }
+
+    @Override
+    public List<UUID> getSavedObjectsUID(DataType dataType)
+    {
+        return this.getSavedObjectsUIDAsync(dataType).join();
+    }
+
+    @Override
+    public void flush()
+    {
+        this.flushAsync().join();
+    }
+
+    /**
+     * Writes all pending changes, stops the I/O thread and closes the wrapped {@link Storage}. Should only be called
+     * when the plugin is disabled.
+     */
+    @Override
+    public void close()
+    {
+        // Reject new writes and wake up writers that are waiting for space in the queue
+        synchronized (this)
+        {
+            // Already closed, the I/O thread is gone
+            if (this.closed)
+            {
+                return;
+            }
+
+            this.closed = true;
+            this.notifyAll();
+        }
+
+        this.flush();
+        this.executor.shutdown();
+
+        try
+        {
+            if (!this.executor.awaitTermination(30, TimeUnit.SECONDS))
+            {
+                QuestPlugin.getLog().severe("Storage thread did not stop in time, some data might not be saved!");
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        this.storage.close();
+    }
+}
@@ -17,9 +17,38 @@
 
 package nl.tim.questplugin.storage;
 
+import java.util.Collections;
 import java.util.Set;
 
 public interface Saveable
 {
     Set<Storage.DataPair<String>> getData();
+
+    /**
+     * Returns only the data that changed since the last call to {@link #markClean()}, so periodic saves do not have to
+     * write everything. Objects that do not track their changes return all data on every call, since their
+     * {@link #markClean()} does nothing.
+     * @return The changed data, empty if nothing changed.
+     */
+    default Set<Storage.DataPair<String>> getDirtyData()
+    {
+        return this.isDirty() ? this.getData() : Collections.emptySet();
+    }
+
+    /**
+     * Checks if anything changed since the last call to {@link #markClean()}.
+     * @return true if there is data to save, false otherwise.
+     */
+    default boolean isDirty()
+    {
+        return true;
+    }
+
+    /**
+     * Marks all data as saved, should be called after the data is written to storage.
+     */
+    default void markClean()
+    {
+        // Objects that do not track changes are always saved completely
+    }
 }
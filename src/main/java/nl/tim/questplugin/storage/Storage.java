@@ -176,6 +176,28 @@ public interface Storage
      */
     List<DataPair> load(UUID uuid, DataType dataType);
 
+    /**
+     * Loads the data with the given key and everything below it, e.g. 'completed' also loads 'completed.quests'.
+     * Can be used to load a part of an object without loading all of it.
+     * @param uuid {@link UUID} of the object to load
+     * @param dataType {@link DataType} of the object
+     * @param section key of the section to load
+     * @return {@link List<DataPair>} containing all data in the section, with full keys (will be empty when nothing
+     * was found).
+     */
+    List<DataPair> loadSection(UUID uuid, DataType dataType, String section);
+
+    /**
+     * Writes all pending changes to the underlying storage. Storage types that write directly can ignore this.
+     */
+    void flush();
+
+    /**
+     * Writes all pending changes and releases all resources (e.g. connections) of this storage. Called when the
+     * plugin is disabled.
+     */
+    void close();
+
     /**
      * Returns all UUID saved of the given {@link DataType}.
      * @param dataType {@link DataType} to search for
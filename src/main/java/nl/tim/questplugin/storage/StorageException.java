@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.storage;
+
+/**
+ * Thrown by a {@link Storage} when data could not be read or written, e.g. because a file is corrupt or the database
+ * is unreachable. Loads throw this instead of returning nothing, so a failure is never mistaken for missing data.
+ */
+public class StorageException extends RuntimeException
+{
+    public StorageException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -18,10 +18,18 @@
 package nl.tim.questplugin.storage;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.metrics.MetricsRegistry;
 import nl.tim.questplugin.storage.workers.FileStorage;
 import nl.tim.questplugin.storage.workers.MongoStorage;
 import nl.tim.questplugin.storage.workers.SQLStorage;
+import nl.tim.questplugin.utils.Constants;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+@Singleton
 public class StorageProvider
 {
     public enum StorageType
@@ -54,9 +62,17 @@ public class StorageProvider
     private SQLStorage sqlStorage;
     private MongoStorage mongoStorage;
 
+    private QuestPlugin questPlugin;
+    private MetricsRegistry metricsRegistry;
+    private Map<Storage, AsyncStorage> asyncStorages;
+
     @Inject
-    public StorageProvider(FileStorage fileStorage, SQLStorage sqlStorage, MongoStorage mongoStorage)
+    public StorageProvider(QuestPlugin questPlugin, MetricsRegistry metricsRegistry,
+                           FileStorage fileStorage, SQLStorage sqlStorage, MongoStorage mongoStorage)
     {
+        this.questPlugin = questPlugin;
+        this.metricsRegistry = metricsRegistry;
+        this.asyncStorages = new IdentityHashMap<>();
         this.fileStorage = fileStorage;
         this.sqlStorage = sqlStorage;
         this.mongoStorage = mongoStorage;
@@ -78,4 +94,24 @@ public class StorageProvider
                 return this.fileStorage;
         }
     }
+
+    /**
+     * Returns an {@link AsyncStorage} wrapping the {@link Storage} of the given type. Only one wrapper is created per
+     * {@link Storage}, so all writes to it go through the same queue.
+     * @param storageType {@link StorageType} of the wrapped {@link Storage}
+     * @return The {@link AsyncStorage} for the given type.
+     */
+    public synchronized AsyncStorage getAsyncStorage(StorageType storageType)
+    {
+        return this.asyncStorages.computeIfAbsent(this.getStorage(storageType),
+                storage -> new AsyncStorage(storage, this.getQueueCapacity(), this.metricsRegistry));
+    }
+
+    private int getQueueCapacity()
+    {
+        Integer capacity = this.questPlugin.getConfigHandler() == null ? null :
+                this.questPlugin.getConfigHandler().getOption(Integer.class, Constants.STORAGE_QUEUE_CAPACITY);
+
+        return capacity != null && capacity > 0 ? capacity : Constants.DEFAULT_STORAGE_QUEUE_CAPACITY;
+    }
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.storage.image;
+
+/**
+ * Thrown by an {@link ImageBuilder} when saved data exists, but could not be loaded. This is different from data that
+ * was never saved, which is loaded as null.
+ */
+public class ImageLoadException extends RuntimeException
+{
+    public ImageLoadException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.questplugin.storage.image;
+
+import nl.tim.questplugin.player.PlayerHistory;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import org.apache.commons.collections4.MultiValuedMap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Compact binary encoding of the saved state of a {@link QPlayer}. The format looks like this:
+ * <pre>
+ * header:  magic (int) | version (byte) | body length (int)
+ * body:    section*
+ * section: id (byte) | length (varint) | payload
+ * </pre>
+ * UUIDs are written as two longs, counts and lengths as unsigned varints and progress as a zigzag varint. Sections
+ * with an unknown id are skipped, so newer versions can add sections without breaking older readers. The progress
+ * and the history (completed quests, stages and tasks) can also be encoded separately, so the history can be loaded
+ * when it is first needed.
+ */
+public final class PlayerCodec
+{
+    public static final int MAGIC = 0x51504C59; // "QPLY"
+    public static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 9;
+
+    private static final byte SECTION_NAME = 1;
+    private static final byte SECTION_PROGRESS = 2;
+    private static final byte SECTION_QUESTS = 3;
+    private static final byte SECTION_STAGES = 4;
+    private static final byte SECTION_TASKS = 5;
+
+    private static final class Decoded
+    {
+        private String name;
+        private List<ProgressWrapper> wrappers = new ArrayList<>();
+
+        // Null if none of the history sections were present
+        private PlayerHistory history;
+
+        private PlayerHistory getHistory()
+        {
+            if (this.history == null)
+            {
+                this.history = new PlayerHistory();
+            }
+
+            return this.history;
+        }
+    }
+
+    private PlayerCodec()
+    {
+    }
+
+    /**
+     * Encodes the given {@link QPlayer}, including its history.
+     * @param qPlayer {@link QPlayer} to encode
+     * @return {@link ByteBuffer} ready to be read, containing the header and all sections.
+     */
+    public static ByteBuffer encode(QPlayer qPlayer)
+    {
+        return encode(qPlayer, true, true);
+    }
+
+    /**
+     * Encodes the name and progress of the given {@link QPlayer}, without its history.
+     * @param qPlayer {@link QPlayer} to encode
+     * @return {@link ByteBuffer} ready to be read.
+     */
+    public static ByteBuffer encodeProgress(QPlayer qPlayer)
+    {
+        return encode(qPlayer, true, false);
+    }
+
+    /**
+     * Encodes only the completed quests, stages and tasks of the given {@link QPlayer}.
+     * @param qPlayer {@link QPlayer} to encode
+     * @return {@link ByteBuffer} ready to be read.
+     */
+    public static ByteBuffer encodeHistory(QPlayer qPlayer)
+    {
+        return encode(qPlayer, false, true);
+    }
+
+    private static ByteBuffer encode(QPlayer qPlayer, boolean includeProgress, boolean includeHistory)
+    {
+        Output body = new Output(256);
+
+        if (includeProgress)
+        {
+            encodeProgress(qPlayer, body);
+        }
+
+        if (includeHistory)
+        {
+            Output quests = new Output(16 * qPlayer.getCompletedQuests().size() + 1);
+
+            writeUUIDs(quests, qPlayer.getCompletedQuests());
+            body.writeSection(SECTION_QUESTS, quests);
+            body.writeSection(SECTION_STAGES, encodeCompleted(qPlayer.getCompletedStages()));
+            body.writeSection(SECTION_TASKS, encodeCompleted(qPlayer.getCompletedTasks()));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + body.buffer.position());
+
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putInt(body.buffer.position());
+        buffer.put((ByteBuffer) body.buffer.flip());
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static void encodeProgress(QPlayer qPlayer, Output body)
+    {
+        if (qPlayer.getName() != null)
+        {
+            Output name = new Output(32);
+
+            name.writeBytes(qPlayer.getName().getBytes(StandardCharsets.UTF_8));
+            body.writeSection(SECTION_NAME, name);
+        }
+
+        Output progress = new Output(64 * qPlayer.getProgressWrappers().size() + 1);
+
+        progress.writeVarInt(qPlayer.getProgressWrappers().size());
+
+        for (ProgressWrapper wrapper : qPlayer.getProgressWrappers())
+        {
+            progress.writeUUID(wrapper.getUUID());
+            progress.writeUUID(wrapper.getQuestUUID());
+            progress.writeUUID(wrapper.getStageUUID());
+            progress.writeUUID(wrapper.getTaskUUID());
+            progress.writeVarInt(zigzag(wrapper.getProgress() == null ? 0 : wrapper.getProgress()));
+        }
+
+        body.writeSection(SECTION_PROGRESS, progress);
+    }
+
+    /**
+     * Decodes a {@link QPlayer} that was encoded with {@link #encode(QPlayer)}.
+     * @param uuid {@link UUID} of the player
+     * @param buffer {@link ByteBuffer} positioned at the start of the header
+     * @return The decoded {@link QPlayer}.
+     * @throws IllegalArgumentException when the data is not a valid encoded player.
+     */
+    public static QPlayer decode(UUID uuid, ByteBuffer buffer)
+    {
+        return toPlayer(uuid, decodeBody(readBody(buffer)), PlayerCodec::emptyHistory);
+    }
+
+    /**
+     * Decodes a {@link QPlayer} that was encoded with {@link #encodeProgress(QPlayer)}. If the data does contain a
+     * history it is used, otherwise the history is loaded with the given loader when it is first needed.
+     * @param uuid {@link UUID} of the player
+     * @param buffer {@link ByteBuffer} positioned at the start of the header
+     * @param historyLoader starts loading the {@link PlayerHistory} of the player
+     * @return The decoded {@link QPlayer}.
+     * @throws IllegalArgumentException when the data is not a valid encoded player.
+     */
+    public static QPlayer decode(UUID uuid,
+                                 ByteBuffer buffer,
+                                 Supplier<CompletableFuture<PlayerHistory>> historyLoader)
+    {
+        return toPlayer(uuid, decodeBody(readBody(buffer)), historyLoader);
+    }
+
+    /**
+     * Decodes a history that was encoded with {@link #encodeHistory(QPlayer)}.
+     * @param buffer {@link ByteBuffer} positioned at the start of the header
+     * @return The decoded {@link PlayerHistory}.
+     * @throws IllegalArgumentException when the data is not a valid encoded player.
+     */
+    public static PlayerHistory decodeHistory(ByteBuffer buffer)
+    {
+        return decodeBody(readBody(buffer)).getHistory();
+    }
+
+    // Players without saved history did not complete anything yet
+    private static CompletableFuture<PlayerHistory> emptyHistory()
+    {
+        return CompletableFuture.completedFuture(new PlayerHistory());
+    }
+
+    private static QPlayer toPlayer(UUID uuid,
+                                    Decoded decoded,
+                                    Supplier<CompletableFuture<PlayerHistory>> historyLoader)
+    {
+        if (decoded.history != null)
+        {
+            return new QPlayer(decoded.wrappers, decoded.history.getCompletedQuests(),
+                    decoded.history.getCompletedStages(), decoded.history.getCompletedTasks(), uuid, decoded.name, null);
+        }
+
+        return new QPlayer(decoded.wrappers, historyLoader, uuid, decoded.name, null);
+    }
+
+    private static ByteBuffer readBody(ByteBuffer buffer)
+    {
+        try
+        {
+            int length = readHeader(buffer);
+
+            if (buffer.remaining() < length)
+            {
+                throw new IllegalArgumentException("Expected " + length + " bytes of data, but got " + buffer.remaining());
+            }
+
+            ByteBuffer body = buffer.slice();
+
+            body.limit(length);
+            buffer.position(buffer.position() + length);
+
+            return body;
+        } catch (BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("Player data is truncated", e);
+        }
+    }
+
+    /**
+     * Writes the encoded {@link QPlayer} to the given channel.
+     * @param qPlayer {@link QPlayer} to write
+     * @param channel {@link WritableByteChannel} to write to
+     * @throws IOException when the channel could not be written to.
+     */
+    public static void write(QPlayer qPlayer, WritableByteChannel channel) throws IOException
+    {
+        ByteBuffer buffer = encode(qPlayer);
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads one encoded {@link QPlayer} from the given channel. Exactly one player is consumed, so multiple players
+     * can be written to and read from the same channel.
+     * @param uuid {@link UUID} of the player
+     * @param channel {@link ReadableByteChannel} to read from
+     * @return The decoded {@link QPlayer}.
+     * @throws IOException when the channel could not be read, or ended before the player was read.
+     */
+    public static QPlayer read(UUID uuid, ReadableByteChannel channel) throws IOException
+    {
+        ByteBuffer header = readFully(channel, ByteBuffer.allocate(HEADER_SIZE));
+        int length = readHeader(header);
+        ByteBuffer body = readFully(channel, ByteBuffer.allocate(length));
+
+        return toPlayer(uuid, decodeBody(body), PlayerCodec::emptyHistory);
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new EOFException("Channel ended while reading player data");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int readHeader(ByteBuffer buffer)
+    {
+        int magic = buffer.getInt();
+        byte version = buffer.get();
+        int length = buffer.getInt();
+
+        if (magic != MAGIC)
+        {
+            throw new IllegalArgumentException("Data is not an encoded player");
+        }
+
+        if (version > VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported player data version " + version);
+        }
+
+        if (length < 0)
+        {
+            throw new IllegalArgumentException("Invalid player data length " + length);
+        }
+
+        return length;
+    }
+
+    private static Decoded decodeBody(ByteBuffer body)
+    {
+        try
+        {
+            return decodeSections(body);
+        } catch (BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("Player data is truncated", e);
+        }
+    }
+
+    private static Decoded decodeSections(ByteBuffer body)
+    {
+        Decoded decoded = new Decoded();
+
+        while (body.hasRemaining())
+        {
+            byte id = body.get();
+            int length = (int) readVarInt(body);
+
+            if (length < 0 || length > body.remaining())
+            {
+                throw new IllegalArgumentException("Invalid length " + length + " of section " + id);
+            }
+
+            ByteBuffer section = body.slice();
+
+            section.limit(length);
+            body.position(body.position() + length);
+
+            switch (id)
+            {
+                case SECTION_NAME:
+                    byte[] bytes = new byte[length];
+
+                    section.get(bytes);
+                    decoded.name = new String(bytes, StandardCharsets.UTF_8);
+                    break;
+                case SECTION_PROGRESS:
+                    for (long i = readVarInt(section); i > 0; i--)
+                    {
+                        decoded.wrappers.add(new ProgressWrapper(readUUID(section), readUUID(section), readUUID(section),
+                                readUUID(section), unzigzag(readVarInt(section))));
+                    }
+                    break;
+                case SECTION_QUESTS:
+                    decoded.getHistory().getCompletedQuests().addAll(readUUIDs(section));
+                    break;
+                case SECTION_STAGES:
+                    decodeCompleted(section, decoded.getHistory().getCompletedStages());
+                    break;
+                case SECTION_TASKS:
+                    decodeCompleted(section, decoded.getHistory().getCompletedTasks());
+                    break;
+                default:
+                    // Section of a newer version, skip it
+                    break;
+            }
+        }
+
+        return decoded;
+    }
+
+    private static Output encodeCompleted(MultiValuedMap<UUID, UUID> completed)
+    {
+        Output output = new Output(32 * completed.size() + 1);
+
+        output.writeVarInt(completed.keySet().size());
+
+        for (UUID parent : completed.keySet())
+        {
+            output.writeUUID(parent);
+            writeUUIDs(output, completed.get(parent));
+        }
+
+        return output;
+    }
+
+    private static void decodeCompleted(ByteBuffer section, MultiValuedMap<UUID, UUID> completed)
+    {
+        for (long i = readVarInt(section); i > 0; i--)
+        {
+            completed.putAll(readUUID(section), readUUIDs(section));
+        }
+    }
+
+    private static void writeUUIDs(Output output, Collection<UUID> uuids)
+    {
+        output.writeVarInt(uuids.size());
+
+        for (UUID uuid : uuids)
+        {
+            output.writeUUID(uuid);
+        }
+    }
+
+    private static List<UUID> readUUIDs(ByteBuffer buffer)
+    {
+        long count = readVarInt(buffer);
+
+        // Every UUID takes 16 bytes, so this catches corrupt counts before allocating
+        if (count < 0 || count > buffer.remaining() / 16)
+        {
+            throw new IllegalArgumentException("Invalid amount of UUIDs " + count);
+        }
+
+        List<UUID> uuids = new ArrayList<>((int) count);
+
+        for (long i = 0; i < count; i++)
+        {
+            uuids.add(readUUID(buffer));
+        }
+
+        return uuids;
+    }
+
+    private static UUID readUUID(ByteBuffer buffer)
+    {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static long readVarInt(ByteBuffer buffer)
+    {
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = buffer.get();
+
+            result |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return result;
+            }
+        }
+
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    private static long zigzag(int value)
+    {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long value)
+    {
+        int v = (int) value;
+
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Growable buffer to write a section to, so its length is known before it is written.
+     */
+    private static final class Output
+    {
+        private ByteBuffer buffer;
+
+        private Output(int capacity)
+        {
+            this.buffer = ByteBuffer.allocate(capacity);
+        }
+
+        private void ensure(int bytes)
+        {
+            if (this.buffer.remaining() < bytes)
+            {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2,
+                        this.buffer.position() + bytes));
+
+                this.buffer.flip();
+                grown.put(this.buffer);
+                this.buffer = grown;
+            }
+        }
+
+        private void writeUUID(UUID uuid)
+        {
+            this.ensure(16);
+            this.buffer.putLong(uuid.getMostSignificantBits());
+            this.buffer.putLong(uuid.getLeastSignificantBits());
+        }
+
+        private void writeVarInt(long value)
+        {
+            this.ensure(10);
+
+            while ((value & ~0x7FL) != 0)
+            {
+                this.buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+
+            this.buffer.put((byte) value);
+        }
+
+        private void writeBytes(byte[] bytes)
+        {
+            this.ensure(bytes.length);
+            this.buffer.put(bytes);
+        }
+
+        private void writeSection(byte id, Output section)
+        {
+            int length = section.buffer.position();
+
+            this.ensure(1);
+            this.buffer.put(id);
+            this.writeVarInt(length);
+            this.ensure(length);
+            this.buffer.put((ByteBuffer) section.buffer.flip());
+        }
+    }
+}
@@ -38,7 +38,7 @@ public class AreaImageBuilder implements ImageBuilder<Area>
     public AreaImageBuilder(QuestPlugin questPlugin, StorageProvider storageProvider)
     {
         this.questPlugin = questPlugin;
-        this.storage = storageProvider.getStorage(QuestPlugin.storageType);
+        this.storage = storageProvider.getAsyncStorage(QuestPlugin.storageType);
     }
 
     @Override
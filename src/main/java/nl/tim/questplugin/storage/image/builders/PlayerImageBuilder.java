@@ -20,33 +20,553 @@ package nl.tim.questplugin.storage.image.builders;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.player.PlayerHistory;
 import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import nl.tim.questplugin.storage.AsyncStorage;
 import nl.tim.questplugin.storage.Storage;
 import nl.tim.questplugin.storage.StorageProvider;
 import nl.tim.questplugin.storage.image.ImageBuilder;
+import nl.tim.questplugin.storage.image.ImageLoadException;
+import nl.tim.questplugin.storage.image.PlayerCodec;
+import nl.tim.questplugin.utils.Constants;
+import org.apache.commons.collections4.MultiValuedMap;
 
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Singleton
 public class PlayerImageBuilder implements ImageBuilder<QPlayer>
 {
+    public enum Format
+    {
+        KEY_VALUE, BINARY;
+
+        public static Format getFormat(String string)
+        {
+            // Return the valid format if one matches
+            for (Format format : Format.values())
+            {
+                if (format.name().equals(string))
+                {
+                    return format;
+                }
+            }
+
+            // Default to the readable format
+            return KEY_VALUE;
+        }
+    }
+
+    private static final String BINARY_KEY = "binary";
+    private static final String BINARY_HISTORY_KEY = "completed.binary";
+
     private QuestPlugin questPlugin;
-    private Storage storage;
+    private AsyncStorage storage;
+    private Format format;
 
     @Inject
     public PlayerImageBuilder(QuestPlugin questPlugin, StorageProvider storageProvider)
     {
         this.questPlugin = questPlugin;
-        this.storage = storageProvider.getStorage(QuestPlugin.storageType);
+        this.storage = storageProvider.getAsyncStorage(QuestPlugin.storageType);
+        this.format = Format.KEY_VALUE;
+
+        if (questPlugin.getConfigHandler() != null)
+        {
+            this.format = Format.getFormat(questPlugin.getConfigHandler().getOption(String.class,
+                    Constants.PLAYER_STORAGE_FORMAT));
+        }
+    }
+
+    /**
+     * Returns the {@link Format} new saves are written in. Players are always loaded in the format they were saved in.
+     * @return The {@link Format} used to save players.
+     */
+    public Format getFormat()
+    {
+        return this.format;
     }
 
     @Override
-    public void save(QPlayer qPlayer) {
+    public void save(QPlayer qPlayer)
+    {
+        // The stored data could not be loaded, so saving would replace it with whatever is left in memory
+        if (qPlayer.isReadOnly())
+        {
+            QuestPlugin.getLog().warning("Player with ID '" + qPlayer.getUUID() + "' was not saved, since their " +
+                    "data failed to load");
+            return;
+        }
+
+        UUID uuid = qPlayer.getUUID();
+        List<Storage.DataPair> dataPairs = toDataPairs(qPlayer, this.format);
+
+        // Old progress might no longer exist or be saved in another format, so remove everything first
+        this.storage.remove(uuid, Storage.DataType.PLAYER, "progress");
+
+        if (this.format != Format.BINARY)
+        {
+            this.storage.remove(uuid, Storage.DataType.PLAYER, BINARY_KEY);
+        }
+
+        // The history can only have changed if it was loaded
+        if (qPlayer.isHistoryLoaded())
+        {
+            this.storage.remove(uuid, Storage.DataType.PLAYER, "completed");
+        }
+
+        this.storage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+        qPlayer.markClean();
+    }
+
+    /**
+     * Saves only the data of the {@link QPlayer} that changed since it was loaded or last saved. Players that were
+     * never saved, or were saved in another {@link Format}, are saved completely.
+     * @param qPlayer {@link QPlayer} to save
+     */
+    public void saveChanges(QPlayer qPlayer)
+    {
+        // Check if there is anything to save at all, read only players are never saved (see save)
+        if (qPlayer.isReadOnly())
+        {
+            return;
+        }
+
+        if (qPlayer.needsFullSave())
+        {
+            this.save(qPlayer);
+            return;
+        }
+
+        if (!qPlayer.isDirty())
+        {
+            return;
+        }
+
+        UUID uuid = qPlayer.getUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+        boolean historyChanged = qPlayer.hasCompletedQuestsChanged() || !qPlayer.getChangedCompletedStages().isEmpty()
+                || !qPlayer.getChangedCompletedTasks().isEmpty();
+
+        if (this.format == Format.BINARY)
+        {
+            // Progress and history are saved as one value each, so those are rewritten when anything in them changed
+            if (!qPlayer.getRemovedProgress().isEmpty()
+                    || qPlayer.getProgressWrappers().stream().anyMatch(ProgressWrapper::isDirty))
+            {
+                dataPairs.add(new Storage.DataPair<>(BINARY_KEY, encode(PlayerCodec.encodeProgress(qPlayer))));
+            }
+
+            if (historyChanged)
+            {
+                dataPairs.add(new Storage.DataPair<>(BINARY_HISTORY_KEY, encode(PlayerCodec.encodeHistory(qPlayer))));
+            }
+        } else
+        {
+            for (UUID removed : qPlayer.getRemovedProgress())
+            {
+                this.storage.remove(uuid, Storage.DataType.PLAYER, "progress." + removed);
+            }
+
+            for (ProgressWrapper wrapper : qPlayer.getProgressWrappers())
+            {
+                for (Storage.DataPair<String> dataPair : wrapper.getDirtyData())
+                {
+                    dataPair.prependKey("progress.");
+                    dataPairs.add(dataPair);
+                }
+            }
+
+            if (qPlayer.hasCompletedQuestsChanged())
+            {
+                dataPairs.add(new Storage.DataPair<>("completed.quests", join(qPlayer.getCompletedQuests())));
+            }
+
+            // Only read the history when it changed, since reading it would load it
+            if (!qPlayer.getChangedCompletedStages().isEmpty())
+            {
+                this.addChangedCompleted(uuid, dataPairs, "completed.stages.", qPlayer.getCompletedStages(),
+                        qPlayer.getChangedCompletedStages());
+            }
 
+            if (!qPlayer.getChangedCompletedTasks().isEmpty())
+            {
+                this.addChangedCompleted(uuid, dataPairs, "completed.tasks.", qPlayer.getCompletedTasks(),
+                        qPlayer.getChangedCompletedTasks());
+            }
+        }
+
+        if (!dataPairs.isEmpty())
+        {
+            this.storage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+        }
+
+        qPlayer.markClean();
+    }
+
+    private void addChangedCompleted(UUID uuid,
+                                     List<Storage.DataPair> dataPairs,
+                                     String prefix,
+                                     MultiValuedMap<UUID, UUID> completed,
+                                     Set<UUID> changed)
+    {
+        for (UUID parent : changed)
+        {
+            Collection<UUID> values = completed.get(parent);
+
+            // Cleared parents are removed, so they do not show up as empty values
+            if (values.isEmpty())
+            {
+                this.storage.remove(uuid, Storage.DataType.PLAYER, prefix + parent);
+            } else
+            {
+                dataPairs.add(new Storage.DataPair<>(prefix + parent, join(values)));
+            }
+        }
+    }
+
+    /**
+     * Converts a {@link QPlayer} to the data that is saved for it. The history of the player is only included if it
+     * is loaded.
+     * @param qPlayer {@link QPlayer} to convert
+     * @param format {@link Format} to use
+     * @return All data of the player.
+     */
+    public static List<Storage.DataPair> toDataPairs(QPlayer qPlayer, Format format)
+    {
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        dataPairs.add(new Storage.DataPair<>("name", qPlayer.getName()));
+
+        if (format == Format.BINARY)
+        {
+            /*
+            Players will be saved in the following format:
+            <uuid>:
+                name: NAME
+                binary: BASE64_ENCODED_PROGRESS (see PlayerCodec)
+                completed:
+                    binary: BASE64_ENCODED_HISTORY
+             */
+
+            // Stored as strings, so it works with every storage type
+            dataPairs.add(new Storage.DataPair<>(BINARY_KEY, encode(PlayerCodec.encodeProgress(qPlayer))));
+
+            if (qPlayer.isHistoryLoaded())
+            {
+                dataPairs.add(new Storage.DataPair<>(BINARY_HISTORY_KEY, encode(PlayerCodec.encodeHistory(qPlayer))));
+            }
+
+            return dataPairs;
+        }
+
+        /*
+        Players will be saved in the following format:
+        <uuid>:
+            name: NAME
+            progress:
+                <progress_uuid>:
+                    quest: QUEST_UUID
+                    stage: STAGE_UUID
+                    task: TASK_UUID
+                    progress: PROGRESS
+                .
+                .
+            completed:
+                quests: QUEST_UUID,QUEST_UUID,...
+                stages:
+                    <quest_uuid>: STAGE_UUID,STAGE_UUID,...
+                tasks:
+                    <stage_uuid>: TASK_UUID,TASK_UUID,...
+        .
+        .
+        .
+         */
+
+        // Save progress
+        for (ProgressWrapper wrapper : qPlayer.getProgressWrappers())
+        {
+            for (Storage.DataPair<String> dataPair : wrapper.getData())
+            {
+                dataPair.prependKey("progress.");
+                dataPairs.add(dataPair);
+            }
+        }
+
+        // Save completed quests, stages and tasks
+        if (qPlayer.isHistoryLoaded())
+        {
+            dataPairs.add(new Storage.DataPair<>("completed.quests", join(qPlayer.getCompletedQuests())));
+            addCompleted(dataPairs, "completed.stages.", qPlayer.getCompletedStages());
+            addCompleted(dataPairs, "completed.tasks.", qPlayer.getCompletedTasks());
+        }
+
+        return dataPairs;
+    }
+
+    private static String encode(ByteBuffer buffer)
+    {
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private static ByteBuffer decode(String data)
+    {
+        return ByteBuffer.wrap(Base64.getDecoder().decode(data));
+    }
+
+    private static void addCompleted(List<Storage.DataPair> dataPairs,
+                                     String prefix,
+                                     MultiValuedMap<UUID, UUID> completed)
+    {
+        for (UUID parent : completed.keySet())
+        {
+            dataPairs.add(new Storage.DataPair<>(prefix + parent, join(completed.get(parent))));
+        }
     }
 
+    private static String join(Collection<UUID> uuids)
+    {
+        return uuids.stream().map(UUID::toString).collect(Collectors.joining(","));
+    }
+
+    private static List<UUID> split(String string)
+    {
+        List<UUID> result = new ArrayList<>();
+
+        for (String uuid : string.split(","))
+        {
+            if (!uuid.isEmpty())
+            {
+                result.add(UUID.fromString(uuid));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads the player with the given {@link UUID}. Only the progress is loaded, the completed quests, stages and
+     * tasks are loaded when they are first needed, since they can be big for players that played for a long time.
+     * The history is loaded on the I/O thread, see {@link QPlayer#requestHistory()}.
+     * @param uuid {@link UUID} of the player
+     * @return The loaded {@link QPlayer}, or null if the player was not saved before.
+     * @throws ImageLoadException when the storage could not be read, or the saved data is invalid.
+     */
     @Override
-    public QPlayer load(UUID uuid) {
-        return null;
+    public QPlayer load(UUID uuid)
+    {
+        List<Storage.DataPair> dataPairs = this.loadData(uuid);
+
+        // Check if the player was saved before
+        if (dataPairs.isEmpty())
+        {
+            return null;
+        }
+
+        try
+        {
+            QPlayer player = fromDataPairs(uuid, dataPairs, () -> this.loadHistory(uuid));
+            boolean binary = dataPairs.stream().anyMatch(dataPair -> dataPair.getKey().equals(BINARY_KEY));
+
+            // The loaded data is what is in storage, so only changes have to be saved. Unless it is in another format
+            if (binary == (this.format == Format.BINARY))
+            {
+                player.markClean();
+            }
+
+            return player;
+        } catch (IllegalArgumentException e)
+        {
+            throw new ImageLoadException("Player with ID '" + uuid + "' failed to load: " + e.getMessage(), e);
+        }
+    }
+
+    private List<Storage.DataPair> loadData(UUID uuid)
+    {
+        try
+        {
+            List<Storage.DataPair> dataPairs = new ArrayList<>(this.storage.loadSection(uuid, Storage.DataType.PLAYER,
+                    BINARY_KEY));
+
+            // The binary format contains the name as well
+            if (dataPairs.isEmpty())
+            {
+                dataPairs.addAll(this.storage.loadSection(uuid, Storage.DataType.PLAYER, "name"));
+                dataPairs.addAll(this.storage.loadSection(uuid, Storage.DataType.PLAYER, "progress"));
+            }
+
+            return dataPairs;
+        } catch (RuntimeException e)
+        {
+            // Failures on the I/O thread are wrapped when they are joined
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+            // Not being able to read the storage is not the same as a player that was never saved
+            throw new ImageLoadException("Player with ID '" + uuid + "' could not be read from storage: " +
+                    cause.getMessage(), cause);
+        }
+    }
+
+    private CompletableFuture<PlayerHistory> loadHistory(UUID uuid)
+    {
+        return this.storage.loadSectionAsync(uuid, Storage.DataType.PLAYER, "completed")
+                .thenApply(dataPairs -> {
+                    PlayerHistory history = toHistory(uuid, dataPairs);
+                    boolean binary = dataPairs.stream()
+                            .anyMatch(dataPair -> dataPair.getKey().equals(BINARY_HISTORY_KEY));
+
+                    if (!dataPairs.isEmpty() && binary != (this.format == Format.BINARY))
+                    {
+                        history.markOutdated();
+                    }
+
+                    return history;
+                }).exceptionally(e -> {
+                    QuestPlugin.getLog().severe("History of player with ID '" + uuid + "' failed to load, their " +
+                            "data will not be saved: " + e.getMessage());
+
+                    // The player can still play, but the saved history must not be replaced by this empty one
+                    PlayerHistory history = new PlayerHistory();
+
+                    history.markFailed();
+                    return history;
+                });
+    }
+
+    /**
+     * Converts saved data back to a {@link QPlayer}, the {@link Format} is detected from the data.
+     * @param uuid {@link UUID} of the player
+     * @param dataPairs all saved data of the player
+     * @return The loaded {@link QPlayer}.
+     * @throws IllegalArgumentException when the data is invalid.
+     */
+    public static QPlayer fromDataPairs(UUID uuid, List<Storage.DataPair> dataPairs)
+    {
+        return fromDataPairs(uuid, dataPairs, () -> CompletableFuture.completedFuture(new PlayerHistory()));
+    }
+
+    /**
+     * Converts saved data back to a {@link QPlayer}, the {@link Format} is detected from the data. If the data does
+     * not contain the history of the player, it is loaded with the given loader when it is first needed.
+     * @param uuid {@link UUID} of the player
+     * @param dataPairs saved data of the player
+     * @param historyLoader starts loading the {@link PlayerHistory} of the player
+     * @return The loaded {@link QPlayer}.
+     * @throws IllegalArgumentException when the data is invalid.
+     */
+    public static QPlayer fromDataPairs(UUID uuid,
+                                        List<Storage.DataPair> dataPairs,
+                                        Supplier<CompletableFuture<PlayerHistory>> historyLoader)
+    {
+        String name = null;
+        String binary = null;
+        Map<UUID, Map<String, String>> progress = new HashMap<>();
+        List<Storage.DataPair> completed = new ArrayList<>();
+
+        for (Storage.DataPair dataPair : dataPairs)
+        {
+            String[] key = dataPair.getKey().split("\\.");
+            String data = dataPair.getData() == null ? "" : dataPair.getData().toString();
+
+            if (key.length == 1 && key[0].equals(BINARY_KEY))
+            {
+                binary = data;
+            } else if (key.length == 1 && key[0].equals("name"))
+            {
+                name = data;
+            } else if (key.length == 3 && key[0].equals("progress"))
+            {
+                progress.computeIfAbsent(UUID.fromString(key[1]), k -> new HashMap<>()).put(key[2], data);
+            } else if (key[0].equals("completed"))
+            {
+                completed.add(dataPair);
+            } else
+            {
+                QuestPlugin.getLog().warning("Unknown data for player '" + uuid + "': '" +
+                        dataPair.getKey() + ": " + dataPair.getData() + "'");
+            }
+        }
+
+        // Use the history if it was part of the data
+        if (!completed.isEmpty())
+        {
+            PlayerHistory history = toHistory(uuid, completed);
+
+            historyLoader = () -> CompletableFuture.completedFuture(history);
+        }
+
+        // Saved in the binary format
+        if (binary != null)
+        {
+            return PlayerCodec.decode(uuid, decode(binary), historyLoader);
+        }
+
+        // Build progress
+        List<ProgressWrapper> wrappers = new ArrayList<>();
+
+        for (Map.Entry<UUID, Map<String, String>> entry : progress.entrySet())
+        {
+            Map<String, String> values = entry.getValue();
+
+            wrappers.add(new ProgressWrapper(entry.getKey(),
+                    UUID.fromString(getValue(entry.getKey(), values, "quest")),
+                    UUID.fromString(getValue(entry.getKey(), values, "stage")),
+                    UUID.fromString(getValue(entry.getKey(), values, "task")),
+                    Integer.valueOf(getValue(entry.getKey(), values, "progress"))));
+        }
+
+        return new QPlayer(wrappers, historyLoader, uuid, name, null);
+    }
+
+    private static String getValue(UUID progress, Map<String, String> values, String key)
+    {
+        String value = values.get(key);
+
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Progress '" + progress + "' is missing '" + key + "'");
+        }
+
+        return value;
+    }
+
+    private static PlayerHistory toHistory(UUID uuid, List<Storage.DataPair> dataPairs)
+    {
+        PlayerHistory history = new PlayerHistory();
+
+        for (Storage.DataPair dataPair : dataPairs)
+        {
+            String[] key = dataPair.getKey().split("\\.");
+            String data = dataPair.getData() == null ? "" : dataPair.getData().toString();
+
+            if (dataPair.getKey().equals(BINARY_HISTORY_KEY))
+            {
+                PlayerHistory binaryHistory = PlayerCodec.decodeHistory(decode(data));
+
+                history.getCompletedQuests().addAll(binaryHistory.getCompletedQuests());
+                history.getCompletedStages().putAll(binaryHistory.getCompletedStages());
+                history.getCompletedTasks().putAll(binaryHistory.getCompletedTasks());
+            } else if (dataPair.getKey().equals("completed.quests"))
+            {
+                history.getCompletedQuests().addAll(split(data));
+            } else if (key.length == 3 && key[1].equals("stages"))
+            {
+                history.getCompletedStages().putAll(UUID.fromString(key[2]), split(data));
+            } else if (key.length == 3 && key[1].equals("tasks"))
+            {
+                history.getCompletedTasks().putAll(UUID.fromString(key[2]), split(data));
+            } else
+            {
+                QuestPlugin.getLog().warning("Unknown data for player '" + uuid + "': '" +
+                        dataPair.getKey() + ": " + dataPair.getData() + "'");
+            }
+        }
+
+        return history;
     }
 }
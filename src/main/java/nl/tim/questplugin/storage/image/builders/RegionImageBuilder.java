@@ -43,7 +43,7 @@ public class RegionImageBuilder implements ImageBuilder<Region>
     public RegionImageBuilder(QuestPlugin questPlugin, StorageProvider storageProvider)
     {
         this.questPlugin = questPlugin;
-        this.storage = storageProvider.getStorage(QuestPlugin.storageType);
+        this.storage = storageProvider.getAsyncStorage(QuestPlugin.storageType);
     }
 
     @Override
@@ -37,7 +37,7 @@ public class StageConfigurationImageBuilder implements ImageBuilder<StageConfigu
     public StageConfigurationImageBuilder(QuestPlugin questPlugin, StorageProvider storageProvider)
     {
         this.questPlugin = questPlugin;
-        this.storage = storageProvider.getStorage(QuestPlugin.storageType);
+        this.storage = storageProvider.getAsyncStorage(QuestPlugin.storageType);
     }
 
     @Override
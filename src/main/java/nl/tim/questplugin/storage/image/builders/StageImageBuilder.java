@@ -37,7 +37,7 @@ public class StageImageBuilder implements ImageBuilder<Stage>
     public StageImageBuilder(QuestPlugin questPlugin, StorageProvider storageProvider)
     {
         this.questPlugin = questPlugin;
-        this.storage = storageProvider.getStorage(QuestPlugin.storageType);
+        this.storage = storageProvider.getAsyncStorage(QuestPlugin.storageType);
     }
 
     @Override
@@ -23,6 +23,8 @@ import com.google.inject.name.Named;
 import nl.tim.questplugin.QuestPlugin;
 import nl.tim.questplugin.storage.ConfigHandler;
 import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.StorageException;
+import nl.tim.questplugin.utils.Constants;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -35,20 +37,75 @@ import java.util.*;
 @Singleton
 public class FileStorage implements Storage
 {
+    public enum Layout
+    {
+        SINGLE_FILE, SHARDED;
+
+        public static Layout getLayout(String string)
+        {
+            // Return the valid layout if one matches
+            for (Layout layout : Layout.values())
+            {
+                if (layout.name().equals(string))
+                {
+                    return layout;
+                }
+            }
+
+            // Default to a single file per data type
+            return SINGLE_FILE;
+        }
+    }
+
+    private static final String FILE_EXTENSION = ".yml";
+
     private QuestPlugin questPlugin;
     private File storageLocation;
+    private Layout layout;
+
+    // Parsed files are kept in memory (by their relative path) and only written to disk when flushed
+    private Map<String, FileConfiguration> documents;
+    private Set<String> dirtyDocuments;
 
     @Inject
     public FileStorage(QuestPlugin questPlugin, @Named("config") File storageLocation)
     {
         this.questPlugin = questPlugin;
         this.storageLocation = storageLocation;
+        this.layout = Layout.SINGLE_FILE;
+        this.documents = new HashMap<>();
+        this.dirtyDocuments = new HashSet<>();
     }
 
     @Override
     public boolean init()
     {
-        QuestPlugin.getLog().info("Checking files");
+        ConfigHandler configHandler = this.questPlugin.getConfigHandler();
+
+        // Determine file layout
+        if (configHandler != null)
+        {
+            this.layout = Layout.getLayout(configHandler.getOption(String.class, Constants.FILE_LAYOUT));
+        }
+
+        QuestPlugin.getLog().info("Checking files (layout: " + this.layout.name() + ")");
+
+        // In sharded mode each data type gets a directory with a file per object
+        if (this.layout == Layout.SHARDED)
+        {
+            for (DataType dataType : DataType.values())
+            {
+                File directory = this.getDataFile(this.getShardDirectory(dataType));
+
+                if (!directory.isDirectory() && !directory.mkdirs())
+                {
+                    QuestPlugin.getLog().severe("Could not create directory " + directory);
+                    return false;
+                }
+            }
+
+            return true;
+        }
 
         // Create all files
         File areaFile = new File(storageLocation + File.separator +
@@ -70,27 +127,74 @@ public class FileStorage implements Storage
         return true;
     }
 
-    private FileConfiguration getFileConfig(DataType dataType)
+    private File getDataFile(String relativePath)
+    {
+        return new File(this.storageLocation + File.separator + relativePath.replace("/", File.separator));
+    }
+
+    /**
+     * Returns the directory used for the given {@link DataType} in sharded mode. This is the file path without the
+     * file extension (e.g. data/players).
+     */
+    private String getShardDirectory(DataType dataType)
     {
-        String path = dataType.getFilePath().replace("/", File.separator);
-        File dataFile = new File(this.storageLocation + File.separator + path);
-        FileConfiguration fileConfiguration = new YamlConfiguration();
+        String path = dataType.getFilePath();
+
+        return path.substring(0, path.lastIndexOf('.'));
+    }
 
-        // Check if file exists before we load it
-        if (!dataFile.exists())
+    /**
+     * Returns the relative path of the file that contains the object with the given {@link UUID}.
+     */
+    private String getDocumentPath(UUID uuid, DataType dataType)
+    {
+        if (this.layout == Layout.SHARDED)
         {
-            return null;
+            return this.getShardDirectory(dataType) + "/" + uuid + FILE_EXTENSION;
+        }
+
+        return dataType.getFilePath();
+    }
+
+    /**
+     * Returns the cached {@link FileConfiguration} of the file with the given path. The file is only parsed the first
+     * time it is requested, after that all reads and writes are done on the in-memory copy.
+     * @throws StorageException when the file could not be parsed, it is not cached so it is never overwritten.
+     */
+    private FileConfiguration getFileConfig(String path)
+    {
+        FileConfiguration fileConfiguration = this.documents.get(path);
+
+        // Check if the file was already loaded
+        if (fileConfiguration != null)
+        {
+            return fileConfiguration;
+        }
+
+        File dataFile = this.getDataFile(path);
+        fileConfiguration = new YamlConfiguration();
+
+        // Sharded files are only created once there is something to write, otherwise make sure the file exists
+        if (this.layout == Layout.SINGLE_FILE)
+        {
+            ConfigHandler.createFileIfNotExists(dataFile);
         }
 
         try
         {
             // Try to load it
-            fileConfiguration.load(dataFile);
+            if (this.layout == Layout.SINGLE_FILE || dataFile.exists())
+            {
+                fileConfiguration.load(dataFile);
+            }
         } catch (IOException | InvalidConfigurationException e)
         {
-            e.printStackTrace();
+            // Keep the file on disk as it is, so it can be recovered
+            throw new StorageException("Could not read " + path, e);
         }
 
+        this.documents.put(path, fileConfiguration);
+
         return fileConfiguration;
     }
 
@@ -125,7 +229,7 @@ public class FileStorage implements Storage
     }
 
     @Override
-    public void save(UUID uuid, DataType dataType, DataPair dataPair)
+    public synchronized void save(UUID uuid, DataType dataType, DataPair dataPair)
     {
         ArrayList<DataPair> dataPairs = new ArrayList<>();
 
@@ -134,7 +238,7 @@ public class FileStorage implements Storage
     }
 
     @Override
-    public void save(UUID uuid, DataType dataType, List<DataPair> dataPairs)
+    public synchronized void save(UUID uuid, DataType dataType, List<DataPair> dataPairs)
     {
         /*
         All data will be saved in the appropriate file (indicated by DataType.getFilePath()) in the following format:
@@ -143,84 +247,112 @@ public class FileStorage implements Storage
          */
 
         String uid = uuid.toString();
-        String path = dataType.getFilePath().replace("/", File.separator);
-        File dataFile = new File(this.storageLocation + File.separator + path);
-        FileConfiguration fileConfiguration = new YamlConfiguration();
+        String path = this.getDocumentPath(uuid, dataType);
+        FileConfiguration fileConfiguration = this.getFileConfig(path);
 
-        // Check if file exists, if not make one
-        ConfigHandler.createFileIfNotExists(dataFile);
+        // Loop through all data
+        for (DataPair dataPair : dataPairs)
+        {
+            // Check if it's null
+            if (dataPair == null)
+            {
+                continue;
+            }
 
-        try
+            // Save in memory, the file will be written on the next flush
+            fileConfiguration.set(uid + "." + dataPair.getKey(), dataPair.getData());
+        }
+
+        this.dirtyDocuments.add(path);
+    }
+
+    @Override
+    public void close()
+    {
+        // Files are only kept open while writing them
+        this.flush();
+    }
+
+    @Override
+    public synchronized void flush()
+    {
+        // Only write files that actually changed since the last flush
+        for (String path : this.dirtyDocuments)
         {
-            // Loading file
-            // Yes I know I have a function that does exactly this, but I need the dataFile later on anyways, sooo...
-            fileConfiguration.load(dataFile);
+            FileConfiguration fileConfiguration = this.documents.get(path);
+            File dataFile = this.getDataFile(path);
 
-            // Loop through all data
-            for (DataPair dataPair : dataPairs)
+            // Sharded files without any data left are deleted instead of written
+            if (this.layout == Layout.SHARDED && this.isEmpty(fileConfiguration))
             {
-                // Check if it's null
-                if (dataPair == null)
+                if (dataFile.exists() && !dataFile.delete())
                 {
-                    continue;
+                    QuestPlugin.getLog().warning("Could not delete empty file " + path);
                 }
 
-                // Save in file
-                fileConfiguration.set(uid + "." + dataPair.getKey(), dataPair.getData());
+                continue;
             }
 
-            // Save file
-            fileConfiguration.save(dataFile);
-        } catch (InvalidConfigurationException | IOException e)
+            // Check if file exists, if not make one
+            ConfigHandler.createFileIfNotExists(dataFile);
+
+            try
+            {
+                fileConfiguration.save(dataFile);
+            } catch (IOException e)
+            {
+                QuestPlugin.getLog().severe("Could not write " + path + " to disk!");
+                e.printStackTrace();
+            }
+        }
+
+        this.dirtyDocuments.clear();
+
+        // A single sharded file is cheap to read again, so there is no need to keep every object we ever saw in memory
+        if (this.layout == Layout.SHARDED)
         {
-            e.printStackTrace();
+            this.documents.clear();
         }
     }
 
     @Override
-    public void remove(UUID uuid, DataType dataType, String key)
+    public synchronized void remove(UUID uuid, DataType dataType, String key)
     {
         // We can delete k/v pairs by just updating the value to null
         this.save(uuid, dataType, new DataPair<String>(key, null));
     }
 
     @Override
-    public DataPair load(UUID uuid, DataType dataType, String key)
+    public synchronized DataPair load(UUID uuid, DataType dataType, String key)
     {
-        FileConfiguration fileConfiguration = this.getFileConfig(dataType);
-
-        // Check if file config could be loaded
-        if (fileConfiguration == null)
-        {
-            return null;
-        }
-
+        FileConfiguration fileConfiguration = this.getFileConfig(this.getDocumentPath(uuid, dataType));
         String result = fileConfiguration.getString(uuid.toString() + "." + key);
 
         return new DataPair<>(key, result);
     }
 
     @Override
-    public List<DataPair> load(UUID uuid, DataType dataType)
+    public synchronized List<DataPair> load(UUID uuid, DataType dataType)
     {
-        FileConfiguration fileConfiguration = this.getFileConfig(dataType);
+        FileConfiguration fileConfiguration = this.getFileConfig(this.getDocumentPath(uuid, dataType));
         List<DataPair> dataPairs = new ArrayList<>();
 
-        // Check if the file config could be loaded
-        if (fileConfiguration == null)
+        String section = uuid.toString();
+
+        // Check if this object was saved at all
+        if (!fileConfiguration.isConfigurationSection(section))
         {
-            return null;
+            return dataPairs;
         }
 
-        String section = uuid.toString();
         Set<String> allKeys = this.getDeepKeys(fileConfiguration, section);
 
         // Loop through all keys
         for (String key : allKeys)
         {
-            // Create data pairs and add to result
-            String data = fileConfiguration.getString(uuid.toString() + "." + key);
-            DataPair dataPair = new DataPair<>(key, data);
+            // Create data pairs (without the uuid prefix) and add to result
+            String data = fileConfiguration.getString(key);
+            DataPair dataPair = new DataPair<>(key.substring(section.length() + 1), data);
 
             dataPairs.add(dataPair);
         }
@@ -229,18 +361,41 @@ public class FileStorage implements Storage
     }
 
     @Override
-    public List<UUID> getSavedObjectsUID(DataType dataType)
+    public synchronized List<DataPair> loadSection(UUID uuid, DataType dataType, String section)
     {
-        // Load file
-        FileConfiguration fileConfiguration = this.getFileConfig(dataType);
-        List<UUID> uuidList = new ArrayList<>();
+        FileConfiguration fileConfiguration = this.getFileConfig(this.getDocumentPath(uuid, dataType));
+        List<DataPair> dataPairs = new ArrayList<>();
+
+        String prefix = uuid.toString();
+        String path = prefix + "." + section;
 
-        // Check if the file configuration could be loaded
-        if (fileConfiguration == null)
+        // Check if this section was saved at all
+        if (!fileConfiguration.isSet(path))
         {
-            return null;
+            return dataPairs;
         }
 
+        for (String key : this.getDeepKeys(fileConfiguration, path))
+        {
+            dataPairs.add(new DataPair<>(key.substring(prefix.length() + 1), fileConfiguration.getString(key)));
+        }
+
+        return dataPairs;
+    }
+
+    @Override
+    public synchronized List<UUID> getSavedObjectsUID(DataType dataType)
+    {
+        // Sharded files can be listed without parsing any of them
+        if (this.layout == Layout.SHARDED)
+        {
+            return this.getShardedObjectsUID(dataType);
+        }
+
+        // Load file
+        FileConfiguration fileConfiguration = this.getFileConfig(dataType.getFilePath());
+        List<UUID> uuidList = new ArrayList<>();
+
         // Loop through all keys
         for (String key : fileConfiguration.getKeys(false))
         {
@@ -254,4 +409,79 @@ public class FileStorage implements Storage
         // Return the list
         return uuidList;
     }
+
+    private List<UUID> getShardedObjectsUID(DataType dataType)
+    {
+        String directory = this.getShardDirectory(dataType);
+        String[] fileNames = this.getDataFile(directory).list();
+        Set<UUID> uuids = new LinkedHashSet<>();
+
+        // Every file in the directory is named after the object it contains
+        if (fileNames != null)
+        {
+            for (String fileName : fileNames)
+            {
+                UUID uuid = this.getShardUUID(fileName);
+
+                if (uuid != null)
+                {
+                    uuids.add(uuid);
+                }
+            }
+        }
+
+        // Take changes into account that were not yet flushed
+        for (String path : this.dirtyDocuments)
+        {
+            if (!path.startsWith(directory + "/"))
+            {
+                continue;
+            }
+
+            UUID uuid = this.getShardUUID(path.substring(directory.length() + 1));
+
+            if (this.isEmpty(this.documents.get(path)))
+            {
+                uuids.remove(uuid);
+            } else if (uuid != null)
+            {
+                uuids.add(uuid);
+            }
+        }
+
+        return new ArrayList<>(uuids);
+    }
+
+    /**
+     * Checks if the given {@link FileConfiguration} contains any values (removed data can leave empty sections behind).
+     */
+    private boolean isEmpty(FileConfiguration fileConfiguration)
+    {
+        for (String key : fileConfiguration.getKeys(true))
+        {
+            if (!fileConfiguration.isConfigurationSection(key))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private UUID getShardUUID(String fileName)
+    {
+        // Check if this is a data file at all
+        if (!fileName.endsWith(FILE_EXTENSION))
+        {
+            return null;
+        }
+
+        try
+        {
+            return UUID.fromString(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
+        } catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
 }
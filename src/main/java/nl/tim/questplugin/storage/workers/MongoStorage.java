@@ -18,15 +18,36 @@
 package nl.tim.questplugin.storage.workers;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCredential;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.*;
 import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.storage.ConfigHandler;
 import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.StorageException;
+import nl.tim.questplugin.utils.Constants;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
+@Singleton
 public class MongoStorage implements Storage
 {
+    private static final String ID = "_id";
+
     private QuestPlugin questPlugin;
+    private MongoClient mongoClient;
+    private MongoDatabase database;
 
     @Inject
     public MongoStorage(QuestPlugin questPlugin)
@@ -35,39 +56,301 @@ public class MongoStorage implements Storage
     }
 
     @Override
-    public boolean init() {
-        QuestPlugin.getLog().warning("Mongo is not yet implemented!");
+    public boolean init()
+    {
+        ConfigHandler configHandler = this.questPlugin.getConfigHandler();
+        String hostname = configHandler.getOption(String.class, Constants.MONGO_HOSTNAME);
+        String port = configHandler.getOption(String.class, Constants.MONGO_PORT);
+        String databaseName = configHandler.getOption(String.class, Constants.MONGO_DATABASE);
+        String username = configHandler.getOption(String.class, Constants.MONGO_USERNAME);
+        String password = configHandler.getOption(String.class, Constants.MONGO_PASSWORD);
+
+        QuestPlugin.getLog().info("Connecting to Mongo database");
+
+        try
+        {
+            ServerAddress serverAddress = new ServerAddress(hostname, Integer.parseInt(port));
+            MongoClientSettings.Builder settings = MongoClientSettings.builder()
+                    .applyToClusterSettings(builder -> builder
+                            .hosts(Collections.singletonList(serverAddress))
+                            .serverSelectionTimeout(10, TimeUnit.SECONDS));
+
+            // Only authenticate when a user was configured
+            if (username != null && !username.isEmpty())
+            {
+                settings.credential(MongoCredential.createCredential(username, databaseName,
+                        password == null ? new char[0] : password.toCharArray()));
+            }
+
+            this.mongoClient = MongoClients.create(settings.build());
+            this.database = this.mongoClient.getDatabase(databaseName);
+
+            // Check if the database can actually be reached
+            this.database.runCommand(new Document("ping", 1));
+        } catch (MongoException | IllegalArgumentException e)
+        {
+            QuestPlugin.getLog().severe("Could not connect to the Mongo database: " + e.getMessage());
+            e.printStackTrace();
+
+            this.close();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the collection used for the given {@link DataType}. Every object is saved as one document
+     * in this collection, with its UUID as id.
+     */
+    private MongoCollection<Document> getCollection(DataType dataType)
+    {
+        return this.database.getCollection(dataType.name().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Checks if one of the keys is a parent of another key (e.g. 'a' and 'a.b'). Updates on these keys depend on
+     * each other, so they have to be executed in order.
+     */
+    private boolean hasOverlappingKeys(List<DataPair> dataPairs)
+    {
+        List<String> keys = new ArrayList<>();
+
+        for (DataPair dataPair : dataPairs)
+        {
+            if (dataPair != null)
+            {
+                keys.add(dataPair.getKey());
+            }
+        }
+
+        // After sorting a parent is always directly followed by one of its children
+        Collections.sort(keys);
+
+        for (int i = 1; i < keys.size(); i++)
+        {
+            if (keys.get(i).startsWith(keys.get(i - 1) + "."))
+            {
+                return true;
+            }
+        }
+
         return false;
     }
 
+    /**
+     * Converts the given data into something that can be stored in a document.
+     */
+    private Object toValue(Object data)
+    {
+        if (data instanceof String || data instanceof Number || data instanceof Boolean)
+        {
+            return data;
+        }
+
+        return data.toString();
+    }
+
     @Override
-    public void save(UUID uuid, DataType dataType, DataPair dataPair) {
+    public void save(UUID uuid, DataType dataType, DataPair dataPair)
+    {
+        ArrayList<DataPair> dataPairs = new ArrayList<>();
 
+        dataPairs.add(dataPair);
+        this.save(uuid, dataType, dataPairs);
     }
 
     @Override
-    public void save(UUID uuid, DataType dataType, List<DataPair> dataPairs) {
+    public void save(UUID uuid, DataType dataType, List<DataPair> dataPairs)
+    {
+        Bson filter = Filters.eq(ID, uuid.toString());
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        List<WriteModel<Document>> writes = new ArrayList<>();
+
+        for (DataPair dataPair : dataPairs)
+        {
+            // Check if it's null
+            if (dataPair == null)
+            {
+                continue;
+            }
+
+            // Dotted keys end up as nested documents, null data means the key has to be removed
+            Bson update = dataPair.getData() == null ?
+                    Updates.unset(dataPair.getKey()) :
+                    Updates.set(dataPair.getKey(), this.toValue(dataPair.getData()));
 
+            writes.add(new UpdateOneModel<>(filter, update, upsert));
+        }
+
+        if (writes.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            this.getCollection(dataType).bulkWrite(writes,
+                    new BulkWriteOptions().ordered(this.hasOverlappingKeys(dataPairs)));
+        } catch (MongoException e)
+        {
+            QuestPlugin.getLog().severe("Could not save object '" + uuid + "' (" + dataType.name() + "): " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 
     @Override
     public void remove(UUID uuid, DataType dataType, String key)
     {
+        try
+        {
+            this.getCollection(dataType).updateOne(Filters.eq(ID, uuid.toString()), Updates.unset(key));
+        } catch (MongoException e)
+        {
+            QuestPlugin.getLog().severe("Could not remove '" + key + "' from object '" + uuid + "' (" +
+                    dataType.name() + "): " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
+    @Override
+    public DataPair load(UUID uuid, DataType dataType, String key)
+    {
+        Object result = null;
+
+        try
+        {
+            // Only fetch the requested key
+            Document document = this.getCollection(dataType)
+                    .find(Filters.eq(ID, uuid.toString()))
+                    .projection(Projections.include(key))
+                    .first();
+
+            // Walk through the nested documents
+            for (String part : key.split("\\."))
+            {
+                if (document == null)
+                {
+                    result = null;
+                    break;
+                }
+
+                result = document.get(part);
+                document = result instanceof Document ? (Document) result : null;
+            }
+        } catch (MongoException e)
+        {
+            // Returning nothing would look like the object was never saved
+            throw new StorageException("Could not load '" + key + "' of object '" + uuid + "' (" +
+                    dataType.name() + "): " + e.getMessage(), e);
+        }
+
+        return new DataPair<>(key, result == null || result instanceof Document ? null : result.toString());
     }
 
     @Override
-    public DataPair load(UUID uuid, DataType dataType, String key) {
-        return null;
+    public List<DataPair> load(UUID uuid, DataType dataType)
+    {
+        List<DataPair> dataPairs = new ArrayList<>();
+
+        try
+        {
+            Document document = this.getCollection(dataType).find(Filters.eq(ID, uuid.toString())).first();
+
+            // Check if this object was saved at all
+            if (document != null)
+            {
+                document.remove(ID);
+                this.flatten("", document, dataPairs);
+            }
+        } catch (MongoException e)
+        {
+            throw new StorageException("Could not load object '" + uuid + "' (" + dataType.name() + "): " +
+                    e.getMessage(), e);
+        }
+
+        return dataPairs;
     }
 
     @Override
-    public List<DataPair> load(UUID uuid, DataType dataType) {
-        return null;
+    public List<DataPair> loadSection(UUID uuid, DataType dataType, String section)
+    {
+        List<DataPair> dataPairs = new ArrayList<>();
+
+        try
+        {
+            // Only fetch the requested section
+            Document document = this.getCollection(dataType)
+                    .find(Filters.eq(ID, uuid.toString()))
+                    .projection(Projections.include(section))
+                    .first();
+
+            if (document != null)
+            {
+                document.remove(ID);
+                this.flatten("", document, dataPairs);
+            }
+        } catch (MongoException e)
+        {
+            throw new StorageException("Could not load '" + section + "' of object '" + uuid + "' (" +
+                    dataType.name() + "): " + e.getMessage(), e);
+        }
+
+        return dataPairs;
+    }
+
+    /**
+     * Converts a (nested) document back into data pairs with dotted keys.
+     */
+    private void flatten(String prefix, Document document, List<DataPair> dataPairs)
+    {
+        for (Map.Entry<String, Object> entry : document.entrySet())
+        {
+            String key = prefix + entry.getKey();
+
+            if (entry.getValue() instanceof Document)
+            {
+                this.flatten(key + ".", (Document) entry.getValue(), dataPairs);
+            } else if (entry.getValue() != null)
+            {
+                dataPairs.add(new DataPair<>(key, entry.getValue().toString()));
+            }
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        // Every change is written directly
     }
 
     @Override
-    public List<UUID> getSavedObjectsUID(DataType dataType) {
-        return null;
+    public void close()
+    {
+        if (this.mongoClient != null)
+        {
+            this.mongoClient.close();
+            this.mongoClient = null;
+        }
+    }
+
+    @Override
+    public List<UUID> getSavedObjectsUID(DataType dataType)
+    {
+        List<UUID> result = new ArrayList<>();
+
+        try (MongoCursor<String> cursor = this.getCollection(dataType).distinct(ID, String.class).iterator())
+        {
+            while (cursor.hasNext())
+            {
+                result.add(UUID.fromString(cursor.next()));
+            }
+        } catch (MongoException e)
+        {
+            QuestPlugin.getLog().severe("Could not load saved objects (" + dataType.name() + "): " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return result;
     }
 }
@@ -18,10 +18,18 @@
 package nl.tim.questplugin.storage.workers;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.storage.ConfigHandler;
 import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.StorageException;
+import nl.tim.questplugin.utils.Constants;
 
 import javax.inject.Singleton;
+import java.io.File;
+import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -29,19 +37,110 @@ import java.util.UUID;
 @Singleton
 public class SQLStorage implements Storage
 {
+    public enum SQLType
+    {
+        MYSQL, H2;
+
+        public static SQLType getType(String string)
+        {
+            // Return the valid type if one matches
+            for (SQLType sqlType : SQLType.values())
+            {
+                if (sqlType.name().equals(string))
+                {
+                    return sqlType;
+                }
+            }
+
+            // Default to an external database
+            return MYSQL;
+        }
+    }
+
+    private static final int POOL_SIZE = 10;
+    private static final String H2_FILE = "data/questplugin";
+
     private QuestPlugin questPlugin;
+    private File storageLocation;
+    private HikariDataSource dataSource;
 
     @Inject
-    public SQLStorage(QuestPlugin questPlugin)
+    public SQLStorage(QuestPlugin questPlugin, @Named("config") File storageLocation)
     {
         this.questPlugin = questPlugin;
+        this.storageLocation = storageLocation;
     }
 
     @Override
     public boolean init()
     {
-        QuestPlugin.getLog().warning("SQL is not yet implemented!");
-        return false;
+        ConfigHandler configHandler = this.questPlugin.getConfigHandler();
+        SQLType sqlType = SQLType.getType(configHandler.getOption(String.class, Constants.SQL_TYPE));
+        HikariConfig hikariConfig = new HikariConfig();
+
+        QuestPlugin.getLog().info("Connecting to database (type: " + sqlType.name() + ")");
+
+        if (sqlType == SQLType.H2)
+        {
+            // Embedded database, the MySQL mode makes sure both types understand the same queries
+            File databaseFile = new File(this.storageLocation + File.separator + H2_FILE.replace("/", File.separator));
+
+            hikariConfig.setJdbcUrl("jdbc:h2:" + databaseFile.getAbsolutePath() + ";MODE=MySQL");
+        } else
+        {
+            hikariConfig.setJdbcUrl("jdbc:mysql://" + configHandler.getOption(String.class, Constants.SQL_HOSTNAME) +
+                    ":" + configHandler.getOption(String.class, Constants.SQL_PORT) +
+                    "/" + configHandler.getOption(String.class, Constants.SQL_DATABASE));
+            hikariConfig.setUsername(configHandler.getOption(String.class, Constants.SQL_USERNAME));
+            hikariConfig.setPassword(configHandler.getOption(String.class, Constants.SQL_PASSWORD));
+        }
+
+        hikariConfig.setPoolName("QuestPlugin");
+        hikariConfig.setMaximumPoolSize(POOL_SIZE);
+
+        try
+        {
+            this.dataSource = new HikariDataSource(hikariConfig);
+
+            // Create all tables
+            try (Connection connection = this.dataSource.getConnection();
+                 Statement statement = connection.createStatement())
+            {
+                for (DataType dataType : DataType.values())
+                {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + this.getTable(dataType) + " (" +
+                            "uuid CHAR(36) NOT NULL, " +
+                            "data_key VARCHAR(255) NOT NULL, " +
+                            "data_value TEXT, " +
+                            "PRIMARY KEY (uuid, data_key))");
+                }
+            }
+        } catch (SQLException | RuntimeException e)
+        {
+            QuestPlugin.getLog().severe("Could not connect to the database: " + e.getMessage());
+            e.printStackTrace();
+
+            this.close();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the table name used for the given {@link DataType} (e.g. data_player).
+     */
+    private String getTable(DataType dataType)
+    {
+        return dataType.getSqlTable().replace("/", "_");
+    }
+
+    /**
+     * Escapes the given key, so it can be used in a LIKE query with '!' as escape character.
+     */
+    private String escapeKey(String key)
+    {
+        return key.replace("!", "!!").replace("%", "!%").replace("_", "!_");
     }
 
     @Override
@@ -56,32 +155,212 @@ public class SQLStorage implements Storage
     @Override
     public void save(UUID uuid, DataType dataType, List<DataPair> dataPairs)
     {
-        System.out.println("SQL:" + uuid);
-        System.out.println("SQL:" + dataType);
-        System.out.println("SQL:" + dataPairs);
+        String table = this.getTable(dataType);
+
+        try (Connection connection = this.dataSource.getConnection())
+        {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement upsert = connection.prepareStatement("INSERT INTO " + table +
+                    " (uuid, data_key, data_value) VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE data_value = VALUES(data_value)");
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table +
+                         " WHERE uuid = ? AND (data_key = ? OR data_key LIKE ? ESCAPE '!')"))
+            {
+                PreparedStatement pending = null;
+
+                for (DataPair dataPair : dataPairs)
+                {
+                    // Check if it's null
+                    if (dataPair == null)
+                    {
+                        continue;
+                    }
+
+                    // Null data means the key has to be removed, like the other storage types
+                    PreparedStatement statement = dataPair.getData() == null ? delete : upsert;
+
+                    // Run the batch of the other statement first, so pairs are applied in list order
+                    if (pending != null && pending != statement)
+                    {
+                        pending.executeBatch();
+                    }
+
+                    pending = statement;
+
+                    if (statement == delete)
+                    {
+                        delete.setString(1, uuid.toString());
+                        delete.setString(2, dataPair.getKey());
+                        delete.setString(3, this.escapeKey(dataPair.getKey()) + ".%");
+                    } else
+                    {
+                        upsert.setString(1, uuid.toString());
+                        upsert.setString(2, dataPair.getKey());
+                        upsert.setString(3, dataPair.getData().toString());
+                    }
+
+                    statement.addBatch();
+                }
+
+                if (pending != null)
+                {
+                    pending.executeBatch();
+                }
+
+                connection.commit();
+            } catch (SQLException e)
+            {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e)
+        {
+            QuestPlugin.getLog().severe("Could not save object '" + uuid + "' (" + dataType.name() + "): " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 
     @Override
     public void remove(UUID uuid, DataType dataType, String key)
     {
-
+        // Remove the key itself and everything below it
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM " + this.getTable(dataType) +
+                     " WHERE uuid = ? AND (data_key = ? OR data_key LIKE ? ESCAPE '!')"))
+        {
+            statement.setString(1, uuid.toString());
+            statement.setString(2, key);
+            statement.setString(3, this.escapeKey(key) + ".%");
+            statement.executeUpdate();
+        } catch (SQLException e)
+        {
+            QuestPlugin.getLog().severe("Could not remove '" + key + "' from object '" + uuid + "' (" +
+                    dataType.name() + "): " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 
     @Override
     public DataPair load(UUID uuid, DataType dataType, String key)
     {
-        return null;
+        String result = null;
+
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT data_value FROM " +
+                     this.getTable(dataType) + " WHERE uuid = ? AND data_key = ?"))
+        {
+            statement.setString(1, uuid.toString());
+            statement.setString(2, key);
+
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                if (resultSet.next())
+                {
+                    result = resultSet.getString(1);
+                }
+            }
+        } catch (SQLException e)
+        {
+            // Returning nothing would look like the object was never saved
+            throw new StorageException("Could not load '" + key + "' of object '" + uuid + "' (" +
+                    dataType.name() + "): " + e.getMessage(), e);
+        }
+
+        return new DataPair<>(key, result);
     }
 
     @Override
     public List<DataPair> load(UUID uuid, DataType dataType)
     {
-        return null;
+        List<DataPair> dataPairs = new ArrayList<>();
+
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT data_key, data_value FROM " +
+                     this.getTable(dataType) + " WHERE uuid = ?"))
+        {
+            statement.setString(1, uuid.toString());
+
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    dataPairs.add(new DataPair<>(resultSet.getString(1), resultSet.getString(2)));
+                }
+            }
+        } catch (SQLException e)
+        {
+            throw new StorageException("Could not load object '" + uuid + "' (" + dataType.name() + "): " +
+                    e.getMessage(), e);
+        }
+
+        return dataPairs;
+    }
+
+    @Override
+    public List<DataPair> loadSection(UUID uuid, DataType dataType, String section)
+    {
+        List<DataPair> dataPairs = new ArrayList<>();
+
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT data_key, data_value FROM " +
+                     this.getTable(dataType) + " WHERE uuid = ? AND (data_key = ? OR data_key LIKE ? ESCAPE '!')"))
+        {
+            statement.setString(1, uuid.toString());
+            statement.setString(2, section);
+            statement.setString(3, this.escapeKey(section) + ".%");
+
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    dataPairs.add(new DataPair<>(resultSet.getString(1), resultSet.getString(2)));
+                }
+            }
+        } catch (SQLException e)
+        {
+            throw new StorageException("Could not load '" + section + "' of object '" + uuid + "' (" +
+                    dataType.name() + "): " + e.getMessage(), e);
+        }
+
+        return dataPairs;
+    }
+
+    @Override
+    public void flush()
+    {
+        // Every change is committed directly
+    }
+
+    @Override
+    public void close()
+    {
+        if (this.dataSource != null)
+        {
+            this.dataSource.close();
+            this.dataSource = null;
+        }
     }
 
     @Override
     public List<UUID> getSavedObjectsUID(DataType dataType)
     {
-        return null;
+        List<UUID> result = new ArrayList<>();
+
+        try (Connection connection = this.dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT DISTINCT uuid FROM " + this.getTable(dataType)))
+        {
+            while (resultSet.next())
+            {
+                result.add(UUID.fromString(resultSet.getString(1)));
+            }
+        } catch (SQLException e)
+        {
+            QuestPlugin.getLog().severe("Could not load saved objects (" + dataType.name() + "): " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return result;
     }
 }
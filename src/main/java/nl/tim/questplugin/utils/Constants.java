@@ -20,10 +20,16 @@ package nl.tim.questplugin.utils;
 public final class Constants
 {
     // Config constants
-    public static final String NEWEST_CONFIG_VERSION = "c7cda557-44b6-40d5-a27e-c37790a2080d";
+    public static final String NEWEST_CONFIG_VERSION = "04f8fe92-143f-41cf-a182-5e7bbb7bcd38";
     public static final String CONFIG_VERSION_OPTION = "config_version";
     public static final String STORAGE_OPTION = "storage_type";
+    public static final String STORAGE_FLUSH_INTERVAL = "storage_flush_interval";
+    public static final String STORAGE_QUEUE_CAPACITY = "storage_queue_capacity";
+    public static final String AUTOSAVE_INTERVAL = "autosave_interval";
+    public static final String FILE_LAYOUT = "file_layout";
+    public static final String PLAYER_STORAGE_FORMAT = "player_storage_format";
 
+    public static final String SQL_TYPE = "sql_type";
     public static final String SQL_HOSTNAME = "sql_hostname";
     public static final String SQL_PORT = "sql_port";
     public static final String SQL_DATABASE = "sql_database";
@@ -36,4 +42,31 @@ public final class Constants
     public static final String MONGO_USERNAME = "mongo_username";
     public static final String MONGO_PASSWORD = "mongo_password";
 
+    public static final String PROGRESS_INTERVAL = "progress_interval";
+    public static final String EXTENSION_TICK_BUDGET = "extension_tick_budget";
+    public static final String EXTENSION_FAILURE_THRESHOLD = "extension_failure_threshold";
+    public static final String EXTENSION_DISABLE_TIME = "extension_disable_time";
+
+    public static final String METRICS_DUMP_INTERVAL = "metrics_dump_interval";
+    public static final String METRICS_HTTP_ENABLED = "metrics_http_enabled";
+    public static final String METRICS_HTTP_HOST = "metrics_http_host";
+    public static final String METRICS_HTTP_PORT = "metrics_http_port";
+    public static final String METRICS_HTTP_REFRESH_INTERVAL = "metrics_http_refresh_interval";
+
+    // Metrics
+    public static final String METRICS_DUMP_FILE = "metrics.txt";
+    public static final String METRICS_PERMISSION = "questplugin.metrics";
+
+    // Defaults
+    public static final int DEFAULT_STORAGE_FLUSH_INTERVAL = 60;
+    public static final int DEFAULT_STORAGE_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_AUTOSAVE_INTERVAL = 300;
+    public static final int DEFAULT_PROGRESS_INTERVAL = 1;
+    public static final double DEFAULT_EXTENSION_TICK_BUDGET = 5;
+    public static final int DEFAULT_EXTENSION_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_EXTENSION_DISABLE_TIME = 60;
+    public static final String DEFAULT_METRICS_HTTP_HOST = "127.0.0.1";
+    public static final int DEFAULT_METRICS_HTTP_PORT = 9464;
+    public static final int DEFAULT_METRICS_HTTP_REFRESH_INTERVAL = 10;
+
 }
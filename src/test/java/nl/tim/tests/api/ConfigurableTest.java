@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.api;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.Configurable;
+import nl.tim.questplugin.api.InputType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+public class ConfigurableTest
+{
+    private Configurable configurable;
+
+    @Before
+    public void setup()
+    {
+        // Setup logger
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(PowerMockito.mock(Logger.class));
+
+        configurable = new Configurable()
+        {
+            {
+                this.addConfiguration("amount", "Amount needed", InputType.NUMBER);
+                this.addConfiguration("name", "Name of the thing", InputType.STRING);
+            }
+        };
+    }
+
+    @Test
+    public void insert_setting()
+    {
+        assertTrue(configurable.insertSetting("amount", "5"));
+        assertEquals(5.0, configurable.getSetting("amount"));
+
+        assertFalse(configurable.insertSetting("amount", "five"));
+        assertFalse(configurable.insertSetting("unknown", "5"));
+        assertEquals(5.0, configurable.getSetting("amount"));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.metrics;
+
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MetricsRegistry metricsRegistry;
+
+    @Before
+    public void setup()
+    {
+        metricsRegistry = new MetricsRegistry();
+    }
+
+    @Test
+    public void metrics_are_shared_by_name()
+    {
+        assertSame(metricsRegistry.counter("a"), metricsRegistry.counter("a"));
+        assertSame(metricsRegistry.timer("a"), metricsRegistry.timer("a"));
+        assertNotSame(metricsRegistry.counter("a"), metricsRegistry.counter("b"));
+    }
+
+    @Test
+    public void gauges_are_read_when_reported()
+    {
+        long[] value = {1};
+
+        metricsRegistry.gauge("gauge", () -> value[0]);
+        value[0] = 5;
+
+        assertEquals(Long.valueOf(5), metricsRegistry.getGauges().get("gauge"));
+    }
+
+    @Test
+    public void report_contains_all_metrics()
+    {
+        metricsRegistry.counter("quest.completed").add(3);
+        metricsRegistry.timer("quest.accept").record(1500);
+        metricsRegistry.gauge("progress.pending", () -> 7);
+
+        List<String> report = metricsRegistry.report();
+
+        assertEquals(3, report.size());
+        assertEquals("quest.accept: 1 calls, mean 1.5us, p50 1.5us, p99 1.5us, max 1.5us", report.get(0));
+        assertEquals("quest.completed: 3", report.get(1));
+        assertEquals("progress.pending: 7", report.get(2));
+    }
+
+    @Test
+    public void dump_replaces_file() throws IOException
+    {
+        File file = new File(temporaryFolder.getRoot(), "metrics.txt");
+
+        metricsRegistry.counter("first").increment();
+        metricsRegistry.dump(file);
+        metricsRegistry.counter("second").increment();
+        metricsRegistry.dump(file);
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("#"));
+        assertEquals("first: 1", lines.get(1));
+        assertEquals("second: 1", lines.get(2));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.metrics;
+
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.metrics.PrometheusExporter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class PrometheusExporterTest
+{
+    private MetricsRegistry metricsRegistry;
+    private PrometheusExporter exporter;
+
+    @Before
+    public void setup()
+    {
+        metricsRegistry = new MetricsRegistry();
+        exporter = new PrometheusExporter(metricsRegistry);
+    }
+
+    @After
+    public void tearDown()
+    {
+        exporter.stop();
+    }
+
+    @Test
+    public void render_counters_and_gauges()
+    {
+        metricsRegistry.counter("quest.completed").add(4);
+        metricsRegistry.gauge("player.online", () -> 12);
+
+        String rendered = exporter.render();
+
+        assertTrue(rendered.contains("# TYPE questplugin_quest_completed_total counter\n" +
+                "questplugin_quest_completed_total 4\n"));
+        assertTrue(rendered.contains("# TYPE questplugin_player_online gauge\nquestplugin_player_online 12\n"));
+    }
+
+    @Test
+    public void render_histograms_with_labels()
+    {
+        metricsRegistry.timer("storage.save{data_type=player}").record(TimeUnit.MICROSECONDS.toNanos(20));
+        metricsRegistry.timer("storage.save{data_type=player}").record(TimeUnit.SECONDS.toNanos(2));
+        metricsRegistry.timer("storage.save{data_type=quest}").record(TimeUnit.MICROSECONDS.toNanos(20));
+
+        String rendered = exporter.render();
+
+        // Both data types are part of the same histogram
+        assertEquals(rendered.indexOf("# TYPE"), rendered.lastIndexOf("# TYPE"));
+        assertTrue(rendered.startsWith("# TYPE questplugin_storage_save_seconds histogram\n"));
+        assertTrue(rendered.contains("questplugin_storage_save_seconds_bucket{data_type=\"player\",le=\"1.0E-5\"} 0\n"));
+        assertTrue(rendered.contains("questplugin_storage_save_seconds_bucket{data_type=\"player\",le=\"5.0E-5\"} 1\n"));
+        assertTrue(rendered.contains("questplugin_storage_save_seconds_bucket{data_type=\"player\",le=\"1.0\"} 1\n"));
+        assertTrue(rendered.contains("questplugin_storage_save_seconds_bucket{data_type=\"player\",le=\"+Inf\"} 2\n"));
+        assertTrue(rendered.contains("questplugin_storage_save_seconds_sum{data_type=\"player\"} 2.00002\n"));
+        assertTrue(rendered.contains("questplugin_storage_save_seconds_count{data_type=\"player\"} 2\n"));
+        assertTrue(rendered.contains("questplugin_storage_save_seconds_count{data_type=\"quest\"} 1\n"));
+    }
+
+    @Test
+    public void serve_snapshot() throws IOException
+    {
+        metricsRegistry.counter("task.completed").increment();
+        exporter.start("127.0.0.1", 0, 60);
+
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://127.0.0.1:" + exporter.getPort() + "/metrics").openConnection();
+
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            List<String> lines = reader.lines().collect(Collectors.toList());
+
+            assertTrue(lines.contains("questplugin_task_completed_total 1"));
+        }
+    }
+
+    @Test
+    public void stop_without_start()
+    {
+        exporter.stop();
+
+        assertEquals(-1, exporter.getPort());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.metrics;
+
+import nl.tim.questplugin.metrics.Timer;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerTest
+{
+    @Test
+    public void empty_snapshot()
+    {
+        Timer.Snapshot snapshot = new Timer().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMaxNanos());
+        assertEquals(0, snapshot.getPercentileNanos(0.99));
+        assertEquals(0, snapshot.getMeanNanos(), 0);
+    }
+
+    @Test
+    public void record_buckets()
+    {
+        Timer timer = new Timer();
+        long[] bounds = Timer.getBounds();
+
+        timer.record(500);
+        timer.record(TimeUnit.MICROSECONDS.toNanos(1));
+        timer.record(TimeUnit.MICROSECONDS.toNanos(3));
+        timer.record(TimeUnit.SECONDS.toNanos(2));
+
+        long[] buckets = timer.snapshot().getBuckets();
+
+        assertEquals(bounds.length + 1, buckets.length);
+        assertEquals(2, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(1, buckets[bounds.length]);
+        assertEquals(4, timer.getCount());
+    }
+
+    @Test
+    public void snapshot_statistics()
+    {
+        Timer timer = new Timer();
+
+        for (int i = 0; i < 99; i++)
+        {
+            timer.record(TimeUnit.MICROSECONDS.toNanos(5));
+        }
+
+        timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+        Timer.Snapshot snapshot = timer.snapshot();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3), snapshot.getMaxNanos());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(10), snapshot.getPercentileNanos(0.5));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(10), snapshot.getPercentileNanos(0.99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3), snapshot.getPercentileNanos(1));
+        assertEquals((99 * 5000 + 3000000) / 100.0, snapshot.getMeanNanos(), 0.001);
+    }
+}
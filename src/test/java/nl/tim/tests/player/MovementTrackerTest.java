@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.player;
+
+import nl.tim.questplugin.area.Area;
+import nl.tim.questplugin.area.AreaListener;
+import nl.tim.questplugin.area.Cube;
+import nl.tim.questplugin.area.Region;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.player.MovementTracker;
+import nl.tim.questplugin.player.PlayerHandler;
+import nl.tim.questplugin.player.QPlayer;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class MovementTrackerTest
+{
+    private MovementTracker movementTracker;
+    private Player mockPlayer;
+    private QPlayer player;
+    private World world;
+    private Area area;
+    private List<String> events;
+
+    @Before
+    public void setup()
+    {
+        PlayerHandler mockPlayerHandler = PowerMockito.mock(PlayerHandler.class);
+        UUID uuid = UUID.randomUUID();
+
+        mockPlayer = PowerMockito.mock(Player.class);
+        world = PowerMockito.mock(World.class);
+        player = new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), uuid, "test", null);
+        events = new ArrayList<>();
+
+        when(world.getName()).thenReturn("world");
+        when(mockPlayer.getUniqueId()).thenReturn(uuid);
+        when(mockPlayerHandler.getPlayer(mockPlayer)).thenReturn(player);
+
+        Region region = new Cube(UUID.randomUUID(), new Location(world, 0, 0, 0), new Location(world, 10, 10, 10));
+
+        area = new Area(UUID.randomUUID(), Collections.singleton(region));
+        movementTracker = new MovementTracker(mockPlayerHandler, new MetricsRegistry());
+        movementTracker.register(area, Collections.singletonList(new AreaListener()
+        {
+            @Override
+            public void onEnter(QPlayer player, Area area)
+            {
+                events.add("enter");
+            }
+
+            @Override
+            public void onLeave(QPlayer player, Area area)
+            {
+                events.add("leave");
+            }
+        }));
+    }
+
+    private void move(double fromX, double toX)
+    {
+        movementTracker.onMove(new PlayerMoveEvent(mockPlayer, new Location(world, fromX, 5, 5),
+                new Location(world, toX, 5, 5)));
+    }
+
+    @Test
+    public void move_within_block_is_ignored()
+    {
+        move(20.1, 20.9);
+
+        assertNull("Location should only be updated on block changes", player.getLastLocation());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void move_enter_and_leave()
+    {
+        move(20, 19);
+        move(19, 9);
+        move(9, 8);
+        move(8, 5);
+        move(5, -3);
+
+        assertEquals(Arrays.asList("enter", "leave"), events);
+        assertEquals(-3, player.getLastLocation().getX(), 0);
+    }
+
+    @Test
+    public void get_areas()
+    {
+        move(20, 5);
+        assertEquals(Collections.singleton(area), movementTracker.getAreas(player));
+
+        move(5, 20);
+        assertTrue(movementTracker.getAreas(player).isEmpty());
+    }
+
+    @Test
+    public void get_areas_untracked_player()
+    {
+        player.updateLocation(new Location(world, 5, 5, 5));
+
+        assertEquals(Collections.singleton(area), movementTracker.getAreas(player));
+    }
+
+    @Test
+    public void teleport_into_area()
+    {
+        movementTracker.onTeleport(new PlayerTeleportEvent(mockPlayer, new Location(world, 500, 5, 5),
+                new Location(world, 5, 5, 5)));
+
+        assertEquals(Collections.singletonList("enter"), events);
+    }
+
+    @Test
+    public void unregister_stops_notifying()
+    {
+        move(20, 5);
+        movementTracker.unregister(area);
+        move(5, 20);
+
+        assertEquals(Collections.singletonList("enter"), events);
+        assertTrue(movementTracker.getAreas(player).isEmpty());
+    }
+
+    @Test
+    public void quit_forgets_player()
+    {
+        move(20, 5);
+        movementTracker.onQuit(new PlayerQuitEvent(mockPlayer, null));
+        player.updateLocation(new Location(world, 20, 5, 5));
+
+        assertTrue(movementTracker.getAreas(player).isEmpty());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.player;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.player.PlayerHandler;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.ProgressAccumulator;
+import nl.tim.questplugin.quest.QuestHandler;
+import nl.tim.questplugin.storage.image.ImageLoadException;
+import nl.tim.questplugin.storage.image.builders.PlayerImageBuilder;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+public class PlayerHandlerTest
+{
+    private QuestPlugin mockPlugin;
+    private PlayerImageBuilder mockImageBuilder;
+    private PlayerHandler playerHandler;
+    private Player mockPlayer;
+    private UUID uuid;
+
+    @Before
+    public void setup()
+    {
+        mockPlugin = PowerMockito.mock(QuestPlugin.class);
+
+        mockImageBuilder = PowerMockito.mock(PlayerImageBuilder.class);
+        mockPlayer = PowerMockito.mock(Player.class);
+        uuid = UUID.randomUUID();
+
+        when(mockPlayer.getUniqueId()).thenReturn(uuid);
+        when(mockPlayer.getName()).thenReturn("test");
+
+        playerHandler = new PlayerHandler(mockPlugin, mockImageBuilder, new MetricsRegistry());
+    }
+
+    @Test
+    public void load_on_login()
+    {
+        playerHandler.onPreLogin(new AsyncPlayerPreLoginEvent("test", null, uuid));
+        playerHandler.onJoin(new PlayerJoinEvent(mockPlayer));
+
+        QPlayer player = playerHandler.getPlayer(mockPlayer);
+
+        assertNotNull("New players should get empty progress!", player);
+        assertEquals(uuid, player.getUUID());
+        assertSame(mockPlayer, playerHandler.getPlayer(player));
+        verify(mockImageBuilder, times(1)).load(uuid);
+    }
+
+    @Test
+    public void denied_login_not_loaded()
+    {
+        AsyncPlayerPreLoginEvent event = new AsyncPlayerPreLoginEvent("test", null, uuid);
+
+        event.setLoginResult(AsyncPlayerPreLoginEvent.Result.KICK_BANNED);
+        playerHandler.onPreLogin(event);
+
+        assertNull(playerHandler.getPlayer(uuid));
+        verify(mockImageBuilder, never()).load(uuid);
+    }
+
+    @Test
+    public void not_kept_before_join()
+    {
+        playerHandler.onPreLogin(new AsyncPlayerPreLoginEvent("test", null, uuid));
+
+        assertNull(playerHandler.getPlayer(uuid));
+        assertTrue(playerHandler.getPlayers().isEmpty());
+    }
+
+    @Test
+    public void disallowed_login_forgotten()
+    {
+        PlayerLoginEvent event = new PlayerLoginEvent(mockPlayer, "localhost", null);
+
+        playerHandler.onPreLogin(new AsyncPlayerPreLoginEvent("test", null, uuid));
+        event.disallow(PlayerLoginEvent.Result.KICK_WHITELIST, "Not whitelisted");
+        playerHandler.onLogin(event);
+        playerHandler.onJoin(new PlayerJoinEvent(mockPlayer));
+
+        // The player had to be loaded again, so the pending player was removed
+        assertNotNull(playerHandler.getPlayer(uuid));
+        verify(mockImageBuilder, times(2)).load(uuid);
+    }
+
+    @Test
+    public void corrupt_player_denied_login()
+    {
+        AsyncPlayerPreLoginEvent event = new AsyncPlayerPreLoginEvent("test", null, uuid);
+
+        mockLog();
+        when(mockImageBuilder.load(uuid)).thenThrow(new ImageLoadException("corrupt", null));
+
+        playerHandler.onPreLogin(event);
+        playerHandler.onQuit(new PlayerQuitEvent(mockPlayer, "quit"));
+
+        assertEquals(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, event.getLoginResult());
+        verify(mockImageBuilder, never()).save(any(QPlayer.class));
+    }
+
+    @Test
+    public void corrupt_player_read_only_on_join()
+    {
+        mockLog();
+        when(mockImageBuilder.load(uuid)).thenThrow(new ImageLoadException("corrupt", null));
+
+        playerHandler.onJoin(new PlayerJoinEvent(mockPlayer));
+
+        // Already online, so they can play but their saved data is left alone
+        QPlayer player = playerHandler.getPlayer(uuid);
+
+        assertNotNull(player);
+        assertTrue(player.isReadOnly());
+    }
+
+    private void mockLog()
+    {
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(PowerMockito.mock(Logger.class));
+    }
+
+    @Test
+    public void save_and_evict_on_quit()
+    {
+        playerHandler.onJoin(new PlayerJoinEvent(mockPlayer));
+        QPlayer player = playerHandler.getPlayer(uuid);
+
+        playerHandler.onQuit(new PlayerQuitEvent(mockPlayer, "quit"));
+
+        assertNull(playerHandler.getPlayer(uuid));
+        assertNull(playerHandler.getPlayer(player));
+        assertTrue(playerHandler.getPlayers().isEmpty());
+        verify(mockImageBuilder, times(1)).save(player);
+    }
+
+    @Test
+    public void progress_handled_before_quit_save()
+    {
+        QuestHandler mockQuestHandler = PowerMockito.mock(QuestHandler.class);
+        ProgressAccumulator mockAccumulator = PowerMockito.mock(ProgressAccumulator.class);
+
+        when(mockPlugin.getQuestHandler()).thenReturn(mockQuestHandler);
+        when(mockQuestHandler.getProgressAccumulator()).thenReturn(mockAccumulator);
+
+        playerHandler.onJoin(new PlayerJoinEvent(mockPlayer));
+        QPlayer player = playerHandler.getPlayer(uuid);
+
+        playerHandler.onQuit(new PlayerQuitEvent(mockPlayer, "quit"));
+
+        InOrder inOrder = inOrder(mockAccumulator, mockImageBuilder);
+        inOrder.verify(mockAccumulator).flush(uuid);
+        inOrder.verify(mockImageBuilder).save(player);
+    }
+
+    @Test
+    public void quit_unknown_player()
+    {
+        playerHandler.onQuit(new PlayerQuitEvent(mockPlayer, "quit"));
+
+        verify(mockImageBuilder, never()).save(any(QPlayer.class));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.player;
+
+import nl.tim.questplugin.api.Reward;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.player.PlayerHistory;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.Quest;
+import nl.tim.questplugin.quest.stage.Stage;
+import nl.tim.questplugin.quest.stage.StageConfiguration;
+import nl.tim.questplugin.quest.stage.rewards.StageLinkReward;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class QPlayerTest
+{
+    private QPlayer player;
+    private Quest quest;
+    private Stage first;
+    private Stage second;
+
+    @Before
+    public void setup()
+    {
+        quest = new Quest(UUID.randomUUID(), null, new LinkedList<>(), new HashSet<>(), new HashSet<>(),
+                new ArrayList<>(), false, false, false, false, true);
+        first = new Stage("first", quest, UUID.randomUUID(), null, false, false, false);
+        second = new Stage("second", quest, UUID.randomUUID(), null, false, false, false);
+
+        player = new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), UUID.randomUUID(), "test", null);
+    }
+
+    private UUID track(Quest quest, Stage stage, int progress)
+    {
+        UUID task = UUID.randomUUID();
+
+        player.addProgress(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(), stage.getUUID(), task, progress));
+        return task;
+    }
+
+    @Test
+    public void get_progress()
+    {
+        UUID task = track(quest, first, 5);
+
+        assertEquals(5, (int) player.getProgress(task).getProgress());
+        assertNull(player.getProgress(UUID.randomUUID()));
+
+        player.updateProgress(task, 7);
+        assertEquals(7, (int) player.getProgress(task).getProgress());
+    }
+
+    @Test
+    public void active_tasks_and_stages()
+    {
+        UUID firstTask = track(quest, first, 0);
+        UUID secondTask = track(quest, second, 0);
+
+        assertTrue(player.isProgressingQuest(quest));
+        assertEquals(Arrays.asList(firstTask, secondTask), player.getActiveTasks(quest));
+        assertEquals(new HashSet<>(Arrays.asList(first.getUUID(), second.getUUID())), player.getActiveStages(quest));
+    }
+
+    @Test
+    public void cancel_quest()
+    {
+        Quest other = new Quest(UUID.randomUUID(), null, new LinkedList<>(), new HashSet<>(), new HashSet<>(),
+                new ArrayList<>(), false, false, false, false, true);
+        UUID otherTask = track(other, first, 0);
+
+        track(quest, first, 0);
+        track(quest, second, 0);
+        player.cancelQuest(quest);
+
+        assertFalse(player.isProgressingQuest(quest));
+        assertTrue(player.getActiveTasks(quest).isEmpty());
+        assertEquals(Collections.singleton(otherTask), player.getActiveTasks());
+    }
+
+    @Test
+    public void clean_stage_progress()
+    {
+        track(quest, first, 0);
+        UUID secondTask = track(quest, second, 0);
+
+        player.cleanStageProgress(quest, first);
+
+        assertEquals(Collections.singletonList(secondTask), player.getActiveTasks(quest));
+        assertEquals(Collections.singleton(second.getUUID()), player.getActiveStages(quest));
+    }
+
+    @Test
+    public void clean_after_branch()
+    {
+        track(quest, first, 0);
+        UUID secondTask = track(quest, second, 0);
+
+        player.cleanQuestProgressAfterBranch(quest, Collections.singletonList(second.getUUID()));
+
+        assertEquals(Collections.singletonList(secondTask), player.getActiveTasks(quest));
+    }
+
+    @Test
+    public void add_progress_replaces_old()
+    {
+        UUID task = track(quest, first, 3);
+
+        player.addProgress(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(), second.getUUID(), task, 0));
+
+        assertEquals(1, player.getActiveTasks().size());
+        assertEquals(Collections.singleton(second.getUUID()), player.getActiveStages(quest));
+    }
+
+    @Test
+    public void completed_stages_and_tasks()
+    {
+        Task task = PowerMockito.mock(Task.class);
+
+        when(task.getUUID()).thenReturn(UUID.randomUUID());
+        quest.getStages().add(first);
+
+        player.completeTaskWrapper(first, task);
+        player.completeStage(quest, first);
+
+        assertTrue(player.hasCompletedTask(task));
+        assertTrue(player.hasCompletedStage(first));
+        assertFalse(player.hasCompletedStage(second));
+
+        player.clearCompletedQuest(quest);
+
+        assertFalse(player.hasCompletedTask(task));
+        assertFalse(player.hasCompletedStage(first));
+    }
+
+    private Task mockTask()
+    {
+        Task task = PowerMockito.mock(Task.class);
+        UUID uuid = UUID.randomUUID();
+
+        when(task.getUUID()).thenReturn(uuid);
+        return task;
+    }
+
+    @Test
+    public void completed_task_count()
+    {
+        Task branch = mockTask();
+        Task normal = mockTask();
+        MultiValuedMap<Task, Reward> taskRewards = new HashSetValuedHashMap<>();
+
+        taskRewards.put(branch, new StageLinkReward());
+
+        StageConfiguration configuration = new StageConfiguration(new HashMap<>(),
+                new HashSet<>(Arrays.asList(branch, normal)), taskRewards, new ArrayList<>(), new ArrayList<>(),
+                new ArrayList<>(), null);
+        Stage stage = new Stage("stage", quest, UUID.randomUUID(), configuration, false, false, true);
+
+        quest.getStages().add(stage);
+
+        // Tasks that are not part of the stage are not counted
+        player.completeTaskWrapper(stage, mockTask());
+        assertEquals(0, player.getCompletedTaskCount(stage));
+
+        player.completeTaskWrapper(stage, normal);
+        assertEquals(1, player.getCompletedTaskCount(stage));
+        assertEquals(0, player.getCompletedBranchCount(stage));
+
+        player.completeTaskWrapper(stage, branch);
+        assertEquals(2, player.getCompletedTaskCount(stage));
+        assertEquals(1, player.getCompletedBranchCount(stage));
+
+        player.clearCompletedQuest(quest);
+        assertEquals(0, player.getCompletedTaskCount(stage));
+    }
+
+    @Test
+    public void completed_task_count_after_descriptor_update()
+    {
+        Task branch = mockTask();
+        Task normal = mockTask();
+        Task added = mockTask();
+        MultiValuedMap<Task, Reward> taskRewards = new HashSetValuedHashMap<>();
+
+        // Fixed UUIDs, so adding a task moves the indices of the existing ones
+        when(added.getUUID()).thenReturn(new UUID(0, 1));
+        when(branch.getUUID()).thenReturn(new UUID(0, 2));
+        when(normal.getUUID()).thenReturn(new UUID(0, 3));
+        taskRewards.put(branch, new StageLinkReward());
+
+        Set<Task> tasks = new HashSet<>(Arrays.asList(branch, normal));
+        StageConfiguration configuration = new StageConfiguration(new HashMap<>(), tasks, taskRewards,
+                new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null);
+        Stage stage = new Stage("stage", quest, UUID.randomUUID(), configuration, false, false, true);
+
+        quest.getStages().add(stage);
+
+        // Still working on the stage, so the bits are kept
+        player.addProgress(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(), stage.getUUID(),
+                normal.getUUID(), 0));
+        player.completeTaskWrapper(stage, branch);
+        assertEquals(1, player.getCompletedBranchCount(stage));
+
+        tasks.add(added);
+        configuration.updateDescriptor();
+
+        assertEquals(1, player.getCompletedTaskCount(stage));
+        assertEquals(1, player.getCompletedBranchCount(stage));
+    }
+
+    @Test
+    public void history_loaded_once_when_needed()
+    {
+        UUID completedQuest = quest.getUUID();
+        int[] loads = new int[1];
+        QPlayer lazyPlayer = new QPlayer(new ArrayList<>(), () -> {
+            loads[0]++;
+            return CompletableFuture.completedFuture(new PlayerHistory(
+                    new HashSet<>(Collections.singletonList(completedQuest)), new HashSetValuedHashMap<>(),
+                    new HashSetValuedHashMap<>()));
+        }, UUID.randomUUID(), "test", null);
+
+        lazyPlayer.addProgress(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(), first.getUUID(),
+                UUID.randomUUID(), 0));
+
+        assertEquals(0, loads[0]);
+        assertFalse(lazyPlayer.isHistoryLoaded());
+
+        assertTrue(lazyPlayer.hasCompletedQuest(quest));
+        assertFalse(lazyPlayer.hasCompletedStage(first));
+        assertEquals(1, loads[0]);
+        assertTrue(lazyPlayer.isHistoryLoaded());
+    }
+
+    @Test
+    public void history_requested_without_waiting()
+    {
+        CompletableFuture<PlayerHistory> history = new CompletableFuture<>();
+        QPlayer lazyPlayer = new QPlayer(new ArrayList<>(), () -> history, UUID.randomUUID(), "test", null);
+
+        // Still loading, so nothing that needs the history should be done yet
+        assertFalse(lazyPlayer.requestHistory());
+        assertFalse(lazyPlayer.isHistoryLoaded());
+
+        history.complete(new PlayerHistory(new HashSet<>(Collections.singletonList(quest.getUUID())),
+                new HashSetValuedHashMap<>(), new HashSetValuedHashMap<>()));
+
+        assertTrue(lazyPlayer.requestHistory());
+        assertTrue(lazyPlayer.hasCompletedQuest(quest));
+    }
+}
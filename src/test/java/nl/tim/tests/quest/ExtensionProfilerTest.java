@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.ExtensionInformation;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.quest.ExtensionProfiler;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+public class ExtensionProfilerTest
+{
+    @ExtensionInformation(identifier = "slow_task", author = "test")
+    public static class SlowTask extends Task
+    {
+        public SlowTask()
+        {
+            super("Slow task", "Takes its time");
+        }
+
+        @Override
+        public Integer getRequiredProgressToFinish()
+        {
+            return 1;
+        }
+    }
+
+    @ExtensionInformation(identifier = "slow_task", author = "test")
+    public static class OtherSlowTask extends SlowTask
+    {
+    }
+
+    @ExtensionInformation(identifier = "fast_task", author = "test")
+    public static class FastTask extends SlowTask
+    {
+    }
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private MetricsRegistry metricsRegistry;
+    private ExtensionProfiler profiler;
+    private Logger logger;
+
+    @Before
+    public void setup()
+    {
+        // Setup logger
+        logger = PowerMockito.mock(Logger.class);
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(logger);
+
+        metricsRegistry = new MetricsRegistry();
+        profiler = new ExtensionProfiler(metricsRegistry, 5 * MILLI);
+    }
+
+    @Test
+    public void record_per_identifier_test()
+    {
+        profiler.record(new SlowTask(), MILLI);
+        profiler.record(new OtherSlowTask(), MILLI);
+        profiler.record(new FastTask(), 0);
+
+        ExtensionProfiler.ExtensionStats stats = profiler.getStats(SlowTask.class);
+
+        assertSame(stats, profiler.getStats(OtherSlowTask.class));
+        assertEquals("slow_task", stats.getIdentifier());
+        assertEquals("test", stats.getAuthor());
+        assertEquals(2, stats.getCalls());
+        assertEquals(2, profiler.getStats().size());
+        assertEquals("fast_task", profiler.getStats().get(0).getIdentifier());
+        assertEquals(2, metricsRegistry.getTimers().get("extension.time{extension=slow_task,author=test}").getCount());
+    }
+
+    @Test
+    public void clear_keeps_stats_test()
+    {
+        profiler.record(new SlowTask(), MILLI);
+
+        ExtensionProfiler.ExtensionStats stats = profiler.getStats(SlowTask.class);
+
+        // Classes are forgotten, but a reloaded extension continues with the same identifier
+        profiler.clear();
+        profiler.record(new SlowTask(), MILLI);
+
+        assertSame(stats, profiler.getStats(SlowTask.class));
+        assertEquals(2, stats.getCalls());
+    }
+
+    @Test
+    public void percentile_test()
+    {
+        assertEquals(0, profiler.getStats(SlowTask.class).getPercentileNanos(0.5));
+
+        for (int i = 1; i <= 100; i++)
+        {
+            profiler.record(new SlowTask(), i * MILLI);
+        }
+
+        ExtensionProfiler.ExtensionStats stats = profiler.getStats(SlowTask.class);
+        long p50 = stats.getPercentileNanos(0.5);
+        long p99 = stats.getPercentileNanos(0.99);
+
+        assertEquals(50 * MILLI, p50);
+        assertEquals(99 * MILLI, p99);
+        assertEquals(100 * MILLI, stats.getPercentileNanos(1));
+    }
+
+    @Test
+    public void end_tick_over_budget_test()
+    {
+        // Two calls that are fine on their own, but exceed the budget together
+        profiler.record(new SlowTask(), 3 * MILLI);
+        profiler.record(new OtherSlowTask(), 3 * MILLI);
+        profiler.record(new FastTask(), 0);
+        profiler.endTick();
+
+        // Slow again, but the warning is not repeated within the cooldown
+        profiler.record(new SlowTask(), 6 * MILLI);
+        profiler.endTick();
+
+        // Nothing happened in this tick
+        profiler.endTick();
+
+        ExtensionProfiler.ExtensionStats stats = profiler.getStats(SlowTask.class);
+
+        assertEquals(2, stats.getOverBudgetTicks());
+        assertTrue(stats.getWorstTickNanos() >= 6 * MILLI);
+        assertEquals(0, profiler.getStats(FastTask.class).getOverBudgetTicks());
+        Mockito.verify(logger, Mockito.times(1)).warning(Mockito.contains("slow_task"));
+        assertEquals(2, profiler.report().size());
+    }
+
+    @Test
+    public void end_tick_disabled_budget_test()
+    {
+        profiler = new ExtensionProfiler(metricsRegistry, 0);
+
+        profiler.record(new SlowTask(), 10 * MILLI);
+        profiler.endTick();
+
+        assertEquals(0, profiler.getStats(SlowTask.class).getOverBudgetTicks());
+        Mockito.verifyZeroInteractions(logger);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.ExtensionInformation;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.quest.ExtensionProfiler;
+import nl.tim.questplugin.quest.ExtensionWatchdog;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+public class ExtensionWatchdogTest
+{
+    @ExtensionInformation(identifier = "bad_task", author = "test")
+    public static class BadTask extends Task
+    {
+        public BadTask()
+        {
+            super("Bad task", "Fails a lot");
+        }
+
+        @Override
+        public Integer getRequiredProgressToFinish()
+        {
+            return 1;
+        }
+    }
+
+    @ExtensionInformation(identifier = "bad_task", author = "test")
+    public static class OtherBadTask extends BadTask
+    {
+    }
+
+    @ExtensionInformation(identifier = "good_task", author = "test")
+    public static class GoodTask extends BadTask
+    {
+    }
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private MetricsRegistry metricsRegistry;
+    private ExtensionProfiler profiler;
+    private Logger logger;
+
+    @Before
+    public void setup()
+    {
+        // Setup logger
+        logger = PowerMockito.mock(Logger.class);
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(logger);
+
+        metricsRegistry = new MetricsRegistry();
+        profiler = new ExtensionProfiler(metricsRegistry, 5 * MILLI);
+    }
+
+    private void failures(ExtensionWatchdog watchdog, int times)
+    {
+        for (int i = 0; i < times; i++)
+        {
+            watchdog.recordFailure(new BadTask());
+        }
+    }
+
+    @Test
+    public void failures_disable_extension_test()
+    {
+        ExtensionWatchdog watchdog = new ExtensionWatchdog(profiler, metricsRegistry, 3, TimeUnit.MINUTES.toNanos(1));
+
+        failures(watchdog, 2);
+        watchdog.endTick();
+
+        assertFalse(watchdog.isBroken(new BadTask()));
+
+        failures(watchdog, 1);
+        watchdog.endTick();
+        watchdog.endTick();
+
+        assertTrue(watchdog.isBroken(new BadTask()));
+        assertTrue(watchdog.isBroken(new OtherBadTask()));
+        assertFalse(watchdog.isBroken(new GoodTask()));
+        assertEquals(ExtensionWatchdog.State.DISABLED, watchdog.getState(BadTask.class));
+        assertEquals(Collections.singleton("bad_task"), watchdog.getBrokenExtensions());
+        assertEquals(Long.valueOf(1), metricsRegistry.getGauges().get("extension.broken"));
+        Mockito.verify(logger).warning(Mockito.contains("bad_task"));
+    }
+
+    @Test
+    public void successful_call_resets_failures_test()
+    {
+        ExtensionWatchdog watchdog = new ExtensionWatchdog(profiler, metricsRegistry, 3, TimeUnit.MINUTES.toNanos(1));
+
+        failures(watchdog, 2);
+        watchdog.endTick();
+
+        // A tick without calls does not reset, a tick with a good call does
+        watchdog.endTick();
+        profiler.record(new BadTask(), 0);
+        watchdog.endTick();
+
+        failures(watchdog, 2);
+        watchdog.endTick();
+
+        assertFalse(watchdog.isBroken(new BadTask()));
+        assertEquals(ExtensionWatchdog.State.ENABLED, watchdog.getState(BadTask.class));
+    }
+
+    @Test
+    public void over_budget_disables_extension_test()
+    {
+        ExtensionWatchdog watchdog = new ExtensionWatchdog(profiler, metricsRegistry, 3, TimeUnit.MINUTES.toNanos(1));
+
+        for (int i = 0; i < 3; i++)
+        {
+            profiler.record(new BadTask(), 6 * MILLI);
+            profiler.record(new GoodTask(), 0);
+            watchdog.endTick();
+        }
+
+        assertTrue(watchdog.isBroken(new BadTask()));
+        assertFalse(watchdog.isBroken(new GoodTask()));
+    }
+
+    @Test
+    public void probe_enables_extension_test()
+    {
+        ExtensionWatchdog watchdog = new ExtensionWatchdog(profiler, metricsRegistry, 3, 0);
+
+        failures(watchdog, 3);
+        watchdog.endTick();
+
+        assertTrue(watchdog.isBroken(new BadTask()));
+
+        // Disable time is over, probe until the extension is used
+        watchdog.endTick();
+        watchdog.endTick();
+
+        assertEquals(ExtensionWatchdog.State.PROBING, watchdog.getState(BadTask.class));
+        assertFalse(watchdog.isBroken(new BadTask()));
+        assertEquals(Collections.singleton("bad_task"), watchdog.getBrokenExtensions());
+
+        profiler.record(new BadTask(), 0);
+        watchdog.endTick();
+
+        assertEquals(ExtensionWatchdog.State.ENABLED, watchdog.getState(BadTask.class));
+        assertTrue(watchdog.getBrokenExtensions().isEmpty());
+        Mockito.verify(logger).info(Mockito.contains("bad_task"));
+    }
+
+    @Test
+    public void failed_probe_disables_extension_test()
+    {
+        ExtensionWatchdog watchdog = new ExtensionWatchdog(profiler, metricsRegistry, 3, 0);
+
+        failures(watchdog, 3);
+        watchdog.endTick();
+        watchdog.endTick();
+
+        // A single failure while probing is enough
+        failures(watchdog, 1);
+        watchdog.endTick();
+
+        assertTrue(watchdog.isBroken(new BadTask()));
+        Mockito.verify(logger, Mockito.times(2)).warning(Mockito.contains("bad_task"));
+    }
+
+    @Test
+    public void disabled_watchdog_test()
+    {
+        ExtensionWatchdog watchdog = new ExtensionWatchdog(profiler, metricsRegistry, 0, 0);
+
+        failures(watchdog, 100);
+        watchdog.endTick();
+
+        assertFalse(watchdog.isBroken(new BadTask()));
+        Mockito.verifyZeroInteractions(logger);
+    }
+}
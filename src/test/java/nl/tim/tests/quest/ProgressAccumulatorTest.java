@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.quest;
+
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.ProgressAccumulator;
+import nl.tim.questplugin.quest.Quest;
+import nl.tim.questplugin.quest.QuestHandler;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(PowerMockRunner.class)
+public class ProgressAccumulatorTest
+{
+    private QuestHandler mockQuestHandler;
+    private ProgressAccumulator progressAccumulator;
+    private QPlayer player1;
+    private QPlayer player2;
+    private Quest quest;
+
+    private static QPlayer mockPlayer()
+    {
+        QPlayer player = PowerMockito.mock(QPlayer.class);
+        UUID uuid = UUID.randomUUID();
+
+        when(player.getUUID()).thenReturn(uuid);
+        when(player.requestHistory()).thenReturn(true);
+        return player;
+    }
+
+    @Before
+    public void setup()
+    {
+        mockQuestHandler = PowerMockito.mock(QuestHandler.class);
+        progressAccumulator = new ProgressAccumulator(mockQuestHandler);
+        player1 = mockPlayer();
+        player2 = mockPlayer();
+        quest = PowerMockito.mock(Quest.class);
+
+        UUID questUUID = UUID.randomUUID();
+        when(quest.getUUID()).thenReturn(questUUID);
+    }
+
+    @Test
+    public void flush_processes_once_per_pair()
+    {
+        for (int i = 0; i < 50; i++)
+        {
+            progressAccumulator.markDirty(player1, quest);
+        }
+
+        progressAccumulator.flush();
+
+        verify(mockQuestHandler, times(1)).processProgress(player1, quest);
+        assertEquals(50, progressAccumulator.getQueuedUpdates());
+        assertEquals(49, progressAccumulator.getCoalescedUpdates());
+        assertEquals(0, progressAccumulator.getPendingCount());
+    }
+
+    @Test
+    public void flush_keeps_order()
+    {
+        progressAccumulator.markDirty(player2, quest);
+        progressAccumulator.markDirty(player1, quest);
+        progressAccumulator.markDirty(player2, quest);
+        progressAccumulator.flush();
+
+        InOrder inOrder = inOrder(mockQuestHandler);
+
+        inOrder.verify(mockQuestHandler).processProgress(player2, quest);
+        inOrder.verify(mockQuestHandler).processProgress(player1, quest);
+    }
+
+    @Test
+    public void flush_single_player()
+    {
+        progressAccumulator.markDirty(player1, quest);
+        progressAccumulator.markDirty(player2, quest);
+        progressAccumulator.flush(player1.getUUID());
+
+        verify(mockQuestHandler, times(1)).processProgress(player1, quest);
+        verify(mockQuestHandler, never()).processProgress(player2, quest);
+        assertEquals(1, progressAccumulator.getPendingCount());
+
+        progressAccumulator.flush();
+
+        verify(mockQuestHandler, times(1)).processProgress(player1, quest);
+        verify(mockQuestHandler, times(1)).processProgress(player2, quest);
+    }
+
+    @Test
+    public void flush_waits_for_history()
+    {
+        when(player1.requestHistory()).thenReturn(false);
+
+        progressAccumulator.markDirty(player1, quest);
+        progressAccumulator.flush();
+
+        verify(mockQuestHandler, never()).processProgress(player1, quest);
+        assertEquals(1, progressAccumulator.getPendingCount());
+
+        when(player1.requestHistory()).thenReturn(true);
+        progressAccumulator.flush();
+
+        verify(mockQuestHandler, times(1)).processProgress(player1, quest);
+        assertEquals(0, progressAccumulator.getPendingCount());
+    }
+
+    @Test
+    public void flush_without_progress()
+    {
+        progressAccumulator.flush();
+
+        verify(mockQuestHandler, never()).processProgress(any(QPlayer.class), any(Quest.class));
+    }
+
+    @Test
+    public void progress_after_flush_is_processed_again()
+    {
+        progressAccumulator.markDirty(player1, quest);
+        progressAccumulator.flush();
+        progressAccumulator.markDirty(player1, quest);
+        progressAccumulator.flush();
+
+        verify(mockQuestHandler, times(2)).processProgress(player1, quest);
+        assertEquals(0, progressAccumulator.getCoalescedUpdates());
+    }
+}
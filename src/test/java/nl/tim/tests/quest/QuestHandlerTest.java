@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.area.Area;
+import nl.tim.questplugin.area.Cube;
+import nl.tim.questplugin.area.Region;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.player.MovementTracker;
+import nl.tim.questplugin.player.PlayerHandler;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.Quest;
+import nl.tim.questplugin.quest.QuestHandler;
+import nl.tim.questplugin.quest.TaskHandler;
+import nl.tim.questplugin.quest.stage.Stage;
+import nl.tim.questplugin.quest.stage.StageConfiguration;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class QuestHandlerTest
+{
+    private QuestHandler questHandler;
+    private TaskHandler taskHandler;
+    private MetricsRegistry metricsRegistry;
+
+    @Before
+    public void setup()
+    {
+        QuestPlugin mockPlugin = PowerMockito.mock(QuestPlugin.class);
+
+        metricsRegistry = new MetricsRegistry();
+        questHandler = new QuestHandler(mockPlugin,
+                new MovementTracker(PowerMockito.mock(PlayerHandler.class), metricsRegistry), metricsRegistry);
+        taskHandler = new TaskHandler(mockPlugin, metricsRegistry);
+
+        when(mockPlugin.getTaskHandler()).thenReturn(taskHandler);
+    }
+
+    private Stage createStage(Quest quest, Task... tasks)
+    {
+        StageConfiguration configuration = new StageConfiguration(new HashMap<>(),
+                new HashSet<>(Arrays.asList(tasks)), null, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null);
+
+        return new Stage("stage", quest, UUID.randomUUID(), configuration, false, false, false);
+    }
+
+    private Task createTask(Stage stage)
+    {
+        Task task = PowerMockito.mock(Task.class);
+        UUID uuid = UUID.randomUUID();
+
+        when(task.getUUID()).thenReturn(uuid);
+        when(task.getStage()).thenReturn(stage);
+
+        return task;
+    }
+
+    private Quest createQuest(LinkedList<Stage> stages)
+    {
+        return new Quest(UUID.randomUUID(), null, stages, new HashSet<>(), new HashSet<>(),
+                new ArrayList<>(), false, false, false, false, true);
+    }
+
+    @Test
+    public void register_quest_indexes_stages()
+    {
+        LinkedList<Stage> stages = new LinkedList<>();
+        Quest quest = createQuest(stages);
+        Stage first = createStage(quest);
+        Stage second = createStage(quest);
+
+        stages.add(first);
+        stages.add(second);
+        questHandler.registerQuest(quest);
+
+        assertSame(quest, questHandler.getQuestByUUID(quest.getUUID()));
+        assertSame(first, questHandler.getStage(first.getUUID()));
+        assertSame(second, questHandler.getStage(second.getUUID()));
+        assertSame(quest, questHandler.getQuestOfStage(second.getUUID()));
+        assertNull(questHandler.getQuestByUUID(UUID.randomUUID()));
+    }
+
+    @Test
+    public void register_quest_indexes_tasks()
+    {
+        LinkedList<Stage> stages = new LinkedList<>();
+        Quest quest = createQuest(stages);
+        Task task = createTask(null);
+        Stage stage = createStage(quest, task);
+
+        when(task.getStage()).thenReturn(stage);
+        stages.add(stage);
+        questHandler.registerQuest(quest);
+
+        assertSame(task, taskHandler.getTask(task.getUUID()));
+        assertSame(stage, taskHandler.getStageOfTask(task.getUUID()));
+        assertSame(quest, questHandler.getQuestOfStage(taskHandler.getStageOfTask(task.getUUID()).getUUID()));
+    }
+
+    @Test
+    public void get_quests_by_uuids()
+    {
+        Quest first = createQuest(new LinkedList<>());
+        Quest second = createQuest(new LinkedList<>());
+
+        questHandler.registerQuest(first);
+        questHandler.registerQuest(second);
+
+        Set<UUID> uuids = new HashSet<>(Arrays.asList(first.getUUID(), UUID.randomUUID()));
+        Set<Quest> result = questHandler.getQuest(uuids);
+
+        assertEquals(1, result.size());
+        assertTrue(result.contains(first));
+        assertEquals(2, questHandler.getQuests().size());
+    }
+
+    @Test
+    public void register_quests_in_bulk()
+    {
+        Quest existing = createQuest(new LinkedList<>());
+        LinkedList<Stage> stages = new LinkedList<>();
+        Quest first = createQuest(stages);
+        Quest second = createQuest(new LinkedList<>());
+        Stage stage = createStage(first);
+
+        stages.add(stage);
+        questHandler.registerQuest(existing);
+        questHandler.registerQuests(Arrays.asList(first, second));
+
+        assertEquals(3, questHandler.getQuests().size());
+        assertSame(existing, questHandler.getQuestByUUID(existing.getUUID()));
+        assertSame(second, questHandler.getQuestByUUID(second.getUUID()));
+        assertSame(first, questHandler.getQuestOfStage(stage.getUUID()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshot_is_immutable()
+    {
+        questHandler.registerQuest(createQuest(new LinkedList<>()));
+        questHandler.getQuests().clear();
+    }
+
+    @Test
+    public void get_quest_at_location()
+    {
+        World world = PowerMockito.mock(World.class);
+        QPlayer player = PowerMockito.mock(QPlayer.class);
+
+        when(world.getName()).thenReturn("world");
+        when(player.getUUID()).thenReturn(UUID.randomUUID());
+
+        Region region = new Cube(UUID.randomUUID(), new Location(world, 0, 0, 0), new Location(world, 10, 10, 10));
+        Area area = new Area(UUID.randomUUID(), Collections.singleton(region));
+        Quest unlocked = createQuest(new LinkedList<>());
+        Quest locked = new Quest(UUID.randomUUID(), area, new LinkedList<>(), new HashSet<>(), new HashSet<>(),
+                new ArrayList<>(), true, false, false, false, true);
+
+        questHandler.registerQuest(unlocked);
+        questHandler.registerQuest(locked);
+
+        when(player.getLastLocation()).thenReturn(new Location(world, 5, 5, 5));
+        assertEquals(new HashSet<>(Arrays.asList(unlocked, locked)), questHandler.getQuestAtLocation(player));
+
+        when(player.getLastLocation()).thenReturn(new Location(world, 50, 5, 5));
+        assertEquals(Collections.singleton(unlocked), questHandler.getQuestAtLocation(player));
+    }
+
+    @Test
+    public void process_progress_is_measured()
+    {
+        Quest quest = createQuest(new LinkedList<>());
+        QPlayer player = new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), UUID.randomUUID(), "player", null);
+
+        questHandler.registerQuest(quest);
+        questHandler.processProgress(player, quest);
+
+        // A quest without tasks is completed right away
+        assertTrue(player.hasCompletedQuest(quest));
+        assertEquals(1, metricsRegistry.timer("quest.process_progress").getCount());
+        assertEquals(1, metricsRegistry.counter("quest.completed").getCount());
+        assertEquals(0, metricsRegistry.counter("task.completed").getCount());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.quest;
+
+import nl.tim.questplugin.api.Reward;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.quest.stage.StageConfiguration;
+import nl.tim.questplugin.quest.stage.StageDescriptor;
+import nl.tim.questplugin.quest.stage.rewards.StageLinkReward;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class StageDescriptorTest
+{
+    private Task branchingTask;
+    private Task normalTask;
+    private UUID linkedStage;
+    private StageConfiguration configuration;
+
+    private static Task createTask()
+    {
+        Task task = PowerMockito.mock(Task.class);
+        UUID uuid = UUID.randomUUID();
+
+        when(task.getUUID()).thenReturn(uuid);
+        return task;
+    }
+
+    private static StageLinkReward createLink(UUID stage)
+    {
+        StageLinkReward reward = new StageLinkReward();
+
+        reward.init();
+        reward.getConfigurationValues().put(StageLinkReward.STAGE_TO_LINK, stage.toString());
+
+        return reward;
+    }
+
+    @Before
+    public void setup()
+    {
+        branchingTask = createTask();
+        normalTask = createTask();
+        linkedStage = UUID.randomUUID();
+
+        MultiValuedMap<Task, Reward> taskRewards = new HashSetValuedHashMap<>();
+
+        taskRewards.put(branchingTask, createLink(UUID.randomUUID()));
+        taskRewards.put(normalTask, PowerMockito.mock(Reward.class));
+
+        configuration = new StageConfiguration(new HashMap<>(),
+                new HashSet<>(Arrays.asList(branchingTask, normalTask)), taskRewards, new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>(Collections.singletonList(createLink(linkedStage))), null);
+    }
+
+    @Test
+    public void descriptor_required_task_count()
+    {
+        assertEquals(2, configuration.getDescriptor().getRequiredTaskCount());
+    }
+
+    @Test
+    public void descriptor_branching_tasks()
+    {
+        StageDescriptor descriptor = configuration.getDescriptor();
+
+        assertEquals(Collections.singleton(branchingTask.getUUID()), descriptor.getBranchingTasks());
+        assertTrue(descriptor.isBranchingTask(branchingTask.getUUID()));
+        assertFalse(descriptor.isBranchingTask(normalTask.getUUID()));
+    }
+
+    @Test
+    public void descriptor_branch_targets()
+    {
+        assertEquals(Collections.singletonList(linkedStage), configuration.getDescriptor().getBranchTargets());
+    }
+
+    @Test
+    public void descriptor_without_rewards()
+    {
+        StageConfiguration empty = new StageConfiguration(new HashMap<>(), new HashSet<>(), null,
+                new ArrayList<>(), new ArrayList<>(), null, null);
+
+        assertEquals(0, empty.getDescriptor().getRequiredTaskCount());
+        assertTrue(empty.getDescriptor().getBranchingTasks().isEmpty());
+        assertTrue(empty.getDescriptor().getBranchTargets().isEmpty());
+    }
+
+    @Test
+    public void descriptor_update()
+    {
+        configuration.getTasks().add(createTask());
+        configuration.updateDescriptor();
+
+        assertEquals(3, configuration.getDescriptor().getRequiredTaskCount());
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.quest;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.api.ExtensionInformation;
+import nl.tim.questplugin.api.Task;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.player.PlayerHandler;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.TaskHandler;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import nl.tim.questplugin.utils.Constants;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Projectile;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+public class TaskEventDispatcherTest
+{
+    @ExtensionInformation(identifier = "break_task", author = "test")
+    public static class BreakTask extends Task
+    {
+        private List<BlockBreakEvent> events = new ArrayList<>();
+
+        public BreakTask()
+        {
+            super("Break task", "Counts broken blocks");
+        }
+
+        @EventHandler(ignoreCancelled = true)
+        public void onBreak(BlockBreakEvent event)
+        {
+            this.events.add(event);
+        }
+
+        @Override
+        public Integer getRequiredProgressToFinish()
+        {
+            return 10;
+        }
+    }
+
+    @ExtensionInformation(identifier = "combat_task", author = "test")
+    public static class CombatTask extends Task
+    {
+        private List<Event> events = new ArrayList<>();
+
+        public CombatTask()
+        {
+            super("Combat task", "Counts hits, kills and weather changes");
+        }
+
+        @EventHandler
+        public void onDamage(EntityDamageByEntityEvent event)
+        {
+            this.events.add(event);
+        }
+
+        @EventHandler
+        public void onDeath(EntityDeathEvent event)
+        {
+            this.events.add(event);
+        }
+
+        @EventHandler
+        public void onWorldEvent(WorldEvent event)
+        {
+            this.events.add(event);
+        }
+
+        @Override
+        public Integer getRequiredProgressToFinish()
+        {
+            return 10;
+        }
+    }
+
+    // Event without an acting player
+    public static class WorldEvent extends Event
+    {
+        private static final HandlerList handlers = new HandlerList();
+
+        @Override
+        public HandlerList getHandlers()
+        {
+            return handlers;
+        }
+
+        public static HandlerList getHandlerList()
+        {
+            return handlers;
+        }
+    }
+
+    private TaskHandler taskHandler;
+    private Player mockPlayer;
+    private QPlayer player;
+    private BreakTask activeTask;
+    private BreakTask otherTask;
+    private CombatTask activeCombatTask;
+    private CombatTask otherCombatTask;
+
+    @Before
+    public void setup()
+    {
+        QuestPlugin mockPlugin = PowerMockito.mock(QuestPlugin.class);
+        PlayerHandler mockPlayerHandler = PowerMockito.mock(PlayerHandler.class);
+        UUID uuid = UUID.randomUUID();
+
+        // Setup logger
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(PowerMockito.mock(Logger.class));
+
+        mockPlayer = PowerMockito.mock(Player.class);
+        player = new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), uuid, "test", null);
+
+        when(mockPlugin.getPlayerHandler()).thenReturn(mockPlayerHandler);
+        when(mockPlayerHandler.getPlayer(mockPlayer)).thenReturn(player);
+
+        // Create two tasks, only one is active for the player
+        taskHandler = new TaskHandler(mockPlugin, new MetricsRegistry());
+        taskHandler.registerCustomExtension(BreakTask.class);
+
+        activeTask = (BreakTask) taskHandler.buildExtension(Task.class, "break_task", UUID.randomUUID(), null,
+                new HashMap<>());
+        otherTask = (BreakTask) taskHandler.buildExtension(Task.class, "break_task", UUID.randomUUID(), null,
+                new HashMap<>());
+
+        taskHandler.registerCustomExtension(CombatTask.class);
+        activeCombatTask = (CombatTask) taskHandler.buildExtension(Task.class, "combat_task", UUID.randomUUID(), null,
+                new HashMap<>());
+        otherCombatTask = (CombatTask) taskHandler.buildExtension(Task.class, "combat_task", UUID.randomUUID(), null,
+                new HashMap<>());
+
+        taskHandler.registerTasks(Arrays.asList(activeTask, otherTask, activeCombatTask, otherCombatTask));
+        player.addProgress(new ProgressWrapper(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(),
+                activeTask.getUUID(), 0));
+        player.addProgress(new ProgressWrapper(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(),
+                activeCombatTask.getUUID(), 0));
+    }
+
+    private void dispatch(BlockBreakEvent event)
+    {
+        taskHandler.getTaskEventDispatcher().dispatch(BlockBreakEvent.class, EventPriority.NORMAL, event);
+    }
+
+    @Test
+    public void dispatch_only_to_active_tasks()
+    {
+        BlockBreakEvent event = new BlockBreakEvent(null, mockPlayer);
+
+        dispatch(event);
+
+        assertEquals(Collections.singletonList(event), activeTask.events);
+        assertTrue(otherTask.events.isEmpty());
+    }
+
+    @Test
+    public void dispatch_ignores_cancelled_events()
+    {
+        BlockBreakEvent event = new BlockBreakEvent(null, mockPlayer);
+
+        event.setCancelled(true);
+        dispatch(event);
+
+        assertTrue(activeTask.events.isEmpty());
+    }
+
+    @Test
+    public void dispatch_other_priority()
+    {
+        taskHandler.getTaskEventDispatcher().dispatch(BlockBreakEvent.class, EventPriority.HIGH,
+                new BlockBreakEvent(null, mockPlayer));
+
+        assertTrue(activeTask.events.isEmpty());
+    }
+
+    @Test
+    public void dispatch_unknown_player()
+    {
+        dispatch(new BlockBreakEvent(null, PowerMockito.mock(Player.class)));
+
+        assertTrue(activeTask.events.isEmpty());
+        assertTrue(otherTask.events.isEmpty());
+    }
+
+    @Test
+    public void dispatch_damage_to_damager()
+    {
+        Player other = PowerMockito.mock(Player.class);
+        EntityDamageByEntityEvent hit = new EntityDamageByEntityEvent(mockPlayer, other,
+                EntityDamageEvent.DamageCause.ENTITY_ATTACK, 1);
+        EntityDamageByEntityEvent hurt = new EntityDamageByEntityEvent(other, mockPlayer,
+                EntityDamageEvent.DamageCause.ENTITY_ATTACK, 1);
+
+        taskHandler.getTaskEventDispatcher().dispatch(EntityDamageByEntityEvent.class, EventPriority.NORMAL, hit);
+        taskHandler.getTaskEventDispatcher().dispatch(EntityDamageByEntityEvent.class, EventPriority.NORMAL, hurt);
+
+        // Being hit does not count for the victim
+        assertEquals(Collections.singletonList(hit), activeCombatTask.events);
+        assertTrue(otherCombatTask.events.isEmpty());
+    }
+
+    @Test
+    public void dispatch_projectile_damage_to_shooter()
+    {
+        Projectile arrow = PowerMockito.mock(Projectile.class);
+        EntityDamageByEntityEvent event = new EntityDamageByEntityEvent(arrow, PowerMockito.mock(Player.class),
+                EntityDamageEvent.DamageCause.PROJECTILE, 1);
+
+        when(arrow.getShooter()).thenReturn(mockPlayer);
+        taskHandler.getTaskEventDispatcher().dispatch(EntityDamageByEntityEvent.class, EventPriority.NORMAL, event);
+
+        assertEquals(Collections.singletonList(event), activeCombatTask.events);
+    }
+
+    @Test
+    public void dispatch_death_to_killer()
+    {
+        LivingEntity killed = PowerMockito.mock(LivingEntity.class);
+        LivingEntity died = PowerMockito.mock(LivingEntity.class);
+        EntityDeathEvent kill = new EntityDeathEvent(killed, new ArrayList<>());
+
+        when(killed.getKiller()).thenReturn(mockPlayer);
+        taskHandler.getTaskEventDispatcher().dispatch(EntityDeathEvent.class, EventPriority.NORMAL, kill);
+
+        // Mobs dying without a player killer do not go to any task
+        taskHandler.getTaskEventDispatcher().dispatch(EntityDeathEvent.class, EventPriority.NORMAL,
+                new EntityDeathEvent(died, new ArrayList<>()));
+
+        assertEquals(Collections.singletonList(kill), activeCombatTask.events);
+        assertTrue(otherCombatTask.events.isEmpty());
+    }
+
+    @Test
+    public void dispatch_without_actor_to_handling_tasks()
+    {
+        WorldEvent event = new WorldEvent();
+
+        taskHandler.getTaskEventDispatcher().dispatch(WorldEvent.class, EventPriority.NORMAL, event);
+
+        assertEquals(Collections.singletonList(event), activeCombatTask.events);
+        assertEquals(Collections.singletonList(event), otherCombatTask.events);
+        assertTrue(activeTask.events.isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList(activeCombatTask, otherCombatTask)),
+                new HashSet<>(taskHandler.getTasks(CombatTask.class)));
+    }
+
+    @Test
+    public void dispatch_skips_broken_tasks()
+    {
+        for (int i = 0; i < Constants.DEFAULT_EXTENSION_FAILURE_THRESHOLD; i++)
+        {
+            taskHandler.getExtensionWatchdog().recordFailure(activeTask);
+        }
+
+        taskHandler.getExtensionWatchdog().endTick();
+        dispatch(new BlockBreakEvent(null, mockPlayer));
+
+        assertTrue(activeTask.events.isEmpty());
+    }
+}
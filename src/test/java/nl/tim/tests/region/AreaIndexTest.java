@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.region;
+
+import nl.tim.questplugin.area.AreaIndex;
+import nl.tim.questplugin.area.Cube;
+import nl.tim.questplugin.area.Sphere;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class AreaIndexTest
+{
+    private World world1;
+    private World world2;
+    private AreaIndex<String> areaIndex;
+
+    @Before
+    public void setup()
+    {
+        // Mock worlds
+        world1 = PowerMockito.mock(World.class);
+        world2 = PowerMockito.mock(World.class);
+
+        when(world1.getName()).thenReturn("world1");
+        when(world2.getName()).thenReturn("world2");
+
+        // Create index with a few regions
+        areaIndex = new AreaIndex<>();
+        areaIndex.add(new Cube(UUID.randomUUID(), new Location(world1, 0, 0, 0),
+                new Location(world1, 10, 10, 10)), "small");
+        areaIndex.add(new Cube(UUID.randomUUID(), new Location(world1, -40, -40, 0),
+                new Location(world1, 40, 40, 10)), "medium");
+        areaIndex.add(new Cube(UUID.randomUUID(), new Location(world1, -5000, -5000, 0),
+                new Location(world1, 5000, 5000, 10)), "large");
+        areaIndex.add(new Sphere(UUID.randomUUID(), new Location(world2, 100, 100, 0), 5), "sphere");
+    }
+
+    @Test
+    public void area_index_query_multiple_regions()
+    {
+        assertEquals(new HashSet<>(Arrays.asList("small", "medium", "large")),
+                areaIndex.query(new Location(world1, 5, 5, 5)));
+    }
+
+    @Test
+    public void area_index_query_outside_small_region()
+    {
+        assertEquals(new HashSet<>(Arrays.asList("medium", "large")),
+                areaIndex.query(new Location(world1, 12, 5, 5)));
+    }
+
+    @Test
+    public void area_index_query_large_region()
+    {
+        assertEquals(Collections.singleton("large"), areaIndex.query(new Location(world1, -3000, 2500, 5)));
+    }
+
+    @Test
+    public void area_index_query_checks_height()
+    {
+        assertTrue(areaIndex.query(new Location(world1, 5, 5, 20)).isEmpty());
+    }
+
+    @Test
+    public void area_index_query_other_world()
+    {
+        assertEquals(Collections.singleton("sphere"), areaIndex.query(new Location(world2, 102, 98, 1)));
+        assertTrue(areaIndex.query(new Location(world2, 5, 5, 5)).isEmpty());
+    }
+
+    @Test
+    public void area_index_query_no_location()
+    {
+        assertTrue(areaIndex.query(null).isEmpty());
+    }
+
+    @Test
+    public void area_index_remove()
+    {
+        areaIndex.remove("small");
+        areaIndex.remove("large");
+
+        assertEquals(Collections.singleton("medium"), areaIndex.query(new Location(world1, 5, 5, 5)));
+    }
+}
@@ -139,4 +139,25 @@ public class CubeTest
     {
         assertFalse("Should not be in Cube (other world)", regularCube.inRegion(locationInOtherWorld, false));
     }
+
+    @Test
+    public void cube_in_region_world_compared_by_uuid()
+    {
+        World world = PowerMockito.mock(World.class);
+        World sameWorld = PowerMockito.mock(World.class);
+        World otherWorld = PowerMockito.mock(World.class);
+        UUID worldUUID = UUID.randomUUID();
+
+        // Same name, but another world
+        when(world.getUID()).thenReturn(worldUUID);
+        when(sameWorld.getUID()).thenReturn(worldUUID);
+        when(otherWorld.getUID()).thenReturn(UUID.randomUUID());
+        when(otherWorld.getName()).thenReturn("world");
+        when(world.getName()).thenReturn("world");
+
+        Cube cube = new Cube(UUID.randomUUID(), new Location(world, 0, 0, 0), new Location(world, 10, 10, 10));
+
+        assertTrue("Should be in Cube (same world)", cube.inRegion(new Location(sameWorld, 5, 5, 5)));
+        assertFalse("Should not be in Cube (other world)", cube.inRegion(new Location(otherWorld, 5, 5, 5)));
+    }
 }
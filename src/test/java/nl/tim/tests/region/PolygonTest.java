@@ -167,4 +167,16 @@ public class PolygonTest
     {
         assertFalse("Should not be in polygon (other world)", regularPolygon.inRegion(locationNotInWorld, true));
     }
+
+    @Test
+    public void polygon_in_region_after_update_location()
+    {
+        Location newLocation = new Location(locationInPolygon.getWorld(), 12, 21, 0);
+
+        // Moving the most western corner away from the tight fit location puts it outside the polygon
+        assertTrue(regularPolygon.updateLocation(new Location(locationInPolygon.getWorld(), 8.2, 17, 0),
+                newLocation));
+        assertFalse("Should not be in polygon", regularPolygon.inRegion(locationInPolygonTightFit, true));
+        assertTrue("Should be in polygon", regularPolygon.inRegion(locationInPolygon, true));
+    }
 }
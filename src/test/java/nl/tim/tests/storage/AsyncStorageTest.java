@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.storage;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.storage.AsyncStorage;
+import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.Storage.DataPair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+public class AsyncStorageTest
+{
+    private Storage mockStorage;
+    private AsyncStorage asyncStorage;
+
+    @Before
+    public void setup()
+    {
+        mockStorage = PowerMockito.mock(Storage.class);
+        asyncStorage = new AsyncStorage(mockStorage, 100);
+    }
+
+    @After
+    public void teardown()
+    {
+        asyncStorage.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void save_coalesces_writes() throws InterruptedException
+    {
+        UUID uuid = UUID.randomUUID();
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        // Keep the storage thread busy, so all writes end up in the queue
+        when(mockStorage.getSavedObjectsUID(Storage.DataType.PLAYER)).thenAnswer(invocation -> {
+            started.countDown();
+            latch.await();
+            return new ArrayList<>();
+        });
+        CompletableFuture<List<UUID>> blocker = asyncStorage.getSavedObjectsUIDAsync(Storage.DataType.PLAYER);
+        started.await();
+
+        // Write the same key a couple of times, only the last value should be written
+        for (int i = 0; i < 5; i++)
+        {
+            asyncStorage.save(uuid, Storage.DataType.PLAYER, new DataPair<>("key", i));
+        }
+
+        latch.countDown();
+        blocker.join();
+        asyncStorage.flush();
+
+        verify(mockStorage, times(1)).flush();
+        verify(mockStorage, atLeastOnce()).save(eq(uuid), eq(Storage.DataType.PLAYER), captor.capture());
+
+        List<DataPair> written = new ArrayList<>();
+
+        for (List list : captor.getAllValues())
+        {
+            written.addAll(list);
+        }
+
+        assertEquals("Only the last value should be written!", 1, written.size());
+        assertEquals(4, written.get(0).getData());
+    }
+
+    @Test(timeout = 5000)
+    public void write_after_close_rejected()
+    {
+        UUID uuid = UUID.randomUUID();
+        AsyncStorage smallStorage = new AsyncStorage(mockStorage, 1);
+
+        // Setup logger
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(PowerMockito.mock(Logger.class));
+
+        smallStorage.close();
+
+        // More writes than fit in the queue, these should not wait for a drain that never happens
+        smallStorage.save(uuid, Storage.DataType.PLAYER, new DataPair<>("key1", 1));
+        smallStorage.save(uuid, Storage.DataType.PLAYER, new DataPair<>("key2", 2));
+        smallStorage.remove(uuid, Storage.DataType.PLAYER, "key3");
+
+        verify(mockStorage, never()).save(any(UUID.class), any(Storage.DataType.class), any(List.class));
+        verify(mockStorage, never()).remove(any(UUID.class), any(Storage.DataType.class), any(String.class));
+    }
+
+    @Test
+    public void load_after_pending_writes()
+    {
+        UUID uuid = UUID.randomUUID();
+
+        when(mockStorage.load(uuid, Storage.DataType.QUEST, "key")).thenReturn(new DataPair<>("key", "value"));
+
+        asyncStorage.save(uuid, Storage.DataType.QUEST, new DataPair<>("key", "value"));
+        DataPair result = asyncStorage.loadAsync(uuid, Storage.DataType.QUEST, "key").join();
+
+        // Load should only happen after the write
+        InOrder order = inOrder(mockStorage);
+
+        order.verify(mockStorage).save(eq(uuid), eq(Storage.DataType.QUEST), any(List.class));
+        order.verify(mockStorage).load(uuid, Storage.DataType.QUEST, "key");
+        assertEquals("value", result.getData());
+    }
+
+    @Test
+    public void remove_keeps_order()
+    {
+        UUID uuid = UUID.randomUUID();
+
+        asyncStorage.save(uuid, Storage.DataType.AREA, new DataPair<>("region.a", 1));
+        asyncStorage.remove(uuid, Storage.DataType.AREA, "region");
+        asyncStorage.save(uuid, Storage.DataType.AREA, new DataPair<>("region.a", 2));
+        asyncStorage.flush();
+
+        // The second write comes after the removal, so it should be written after it
+        InOrder order = inOrder(mockStorage);
+
+        order.verify(mockStorage).remove(uuid, Storage.DataType.AREA, "region");
+        order.verify(mockStorage).save(eq(uuid), eq(Storage.DataType.AREA), any(List.class));
+    }
+}
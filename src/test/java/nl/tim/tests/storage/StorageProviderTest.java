@@ -17,6 +17,9 @@
 
 package nl.tim.tests.storage;
 
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.metrics.MetricsRegistry;
+import nl.tim.questplugin.storage.AsyncStorage;
 import nl.tim.questplugin.storage.StorageProvider;
 import nl.tim.questplugin.storage.workers.FileStorage;
 import nl.tim.questplugin.storage.workers.MongoStorage;
@@ -27,6 +30,7 @@ import org.junit.runner.RunWith;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(PowerMockRunner.class)
@@ -40,8 +44,10 @@ public class StorageProviderTest
         FileStorage mockFileStorage = PowerMockito.mock(FileStorage.class);
         SQLStorage mockSQLStorage = PowerMockito.mock(SQLStorage.class);
         MongoStorage mockMongoStorage = PowerMockito.mock(MongoStorage.class);
+        QuestPlugin mockPlugin = PowerMockito.mock(QuestPlugin.class);
 
-        storageProvider = new StorageProvider(mockFileStorage, mockSQLStorage, mockMongoStorage);
+        storageProvider = new StorageProvider(mockPlugin, new MetricsRegistry(),
+                mockFileStorage, mockSQLStorage, mockMongoStorage);
     }
 
     @Test
@@ -71,4 +77,23 @@ public class StorageProviderTest
         assertTrue("Storage provider should return a file provider by default!",
                 storageProvider.getStorage(StorageProvider.StorageType.getType("ThisIsNotValid")) instanceof FileStorage);
     }
+
+    @Test
+    public void async_provider()
+    {
+        AsyncStorage asyncStorage = storageProvider.getAsyncStorage(StorageProvider.StorageType.MONGO_BASED);
+
+        assertTrue("Async storage should wrap the requested provider!",
+                asyncStorage.getStorage() instanceof MongoStorage);
+        assertSame("Storage provider should reuse the async storage of a provider!",
+                asyncStorage, storageProvider.getAsyncStorage(StorageProvider.StorageType.MONGO_BASED));
+    }
+
+    @Test
+    public void async_provider_default()
+    {
+        assertSame("Default and file provider should share the same async storage!",
+                storageProvider.getAsyncStorage(StorageProvider.StorageType.FILE_BASED),
+                storageProvider.getAsyncStorage(StorageProvider.StorageType.DEFAULT));
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.storage.image;
+
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import nl.tim.questplugin.storage.image.PlayerCodec;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PlayerCodecTest
+{
+    private UUID quest;
+    private UUID stage;
+    private UUID task;
+    private QPlayer player;
+
+    @Before
+    public void setup()
+    {
+        quest = UUID.randomUUID();
+        stage = UUID.randomUUID();
+        task = UUID.randomUUID();
+
+        MultiValuedMap<UUID, UUID> completedStages = new HashSetValuedHashMap<>();
+        MultiValuedMap<UUID, UUID> completedTasks = new HashSetValuedHashMap<>();
+
+        completedStages.put(quest, UUID.randomUUID());
+        completedTasks.put(stage, UUID.randomUUID());
+        completedTasks.put(stage, UUID.randomUUID());
+
+        player = new QPlayer(
+                Arrays.asList(new ProgressWrapper(UUID.randomUUID(), quest, stage, task, 300),
+                        new ProgressWrapper(UUID.randomUUID(), quest, stage, UUID.randomUUID(), -2)),
+                new HashSet<>(Collections.singletonList(UUID.randomUUID())), completedStages, completedTasks,
+                UUID.randomUUID(), "t\u00ebst", null);
+    }
+
+    private void assertSamePlayer(QPlayer expected, QPlayer result)
+    {
+        assertEquals(expected.getUUID(), result.getUUID());
+        assertEquals(expected.getName(), result.getName());
+        assertEquals(new HashSet<>(expected.getProgressWrappers()), new HashSet<>(result.getProgressWrappers()));
+        assertEquals(expected.getCompletedQuests(), result.getCompletedQuests());
+        assertEquals(new HashSet<>(expected.getCompletedStages().get(quest)),
+                new HashSet<>(result.getCompletedStages().get(quest)));
+        assertEquals(new HashSet<>(expected.getCompletedTasks().get(stage)),
+                new HashSet<>(result.getCompletedTasks().get(stage)));
+    }
+
+    @Test
+    public void encode_and_decode()
+    {
+        ByteBuffer buffer = PlayerCodec.encode(player);
+
+        assertEquals(PlayerCodec.MAGIC, buffer.getInt(0));
+        assertSamePlayer(player, PlayerCodec.decode(player.getUUID(), buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void encode_empty_player()
+    {
+        QPlayer empty = new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), UUID.randomUUID(), null, null);
+        QPlayer result = PlayerCodec.decode(empty.getUUID(), PlayerCodec.encode(empty));
+
+        assertNull(result.getName());
+        assertTrue(result.getProgressWrappers().isEmpty());
+        assertTrue(result.getCompletedQuests().isEmpty());
+        assertTrue(result.getCompletedTasks().isEmpty());
+    }
+
+    @Test
+    public void encode_is_smaller_than_strings()
+    {
+        // Every progress entry alone takes four UUID strings in the key value format
+        assertTrue(PlayerCodec.encode(player).remaining() < 2 * 4 * 36);
+    }
+
+    @Test
+    public void write_and_read_channel() throws IOException
+    {
+        QPlayer other = new QPlayer(new ArrayList<>(), new HashSet<>(), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), UUID.randomUUID(), "other", null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (WritableByteChannel channel = Channels.newChannel(outputStream))
+        {
+            PlayerCodec.write(player, channel);
+            PlayerCodec.write(other, channel);
+        }
+
+        ReadableByteChannel channel =
+                Channels.newChannel(new ByteArrayInputStream(outputStream.toByteArray()));
+
+        assertSamePlayer(player, PlayerCodec.read(player.getUUID(), channel));
+        assertEquals("other", PlayerCodec.read(other.getUUID(), channel).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_invalid_magic()
+    {
+        ByteBuffer buffer = PlayerCodec.encode(player);
+
+        buffer.putInt(0, 42);
+        PlayerCodec.decode(player.getUUID(), buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_truncated()
+    {
+        ByteBuffer buffer = PlayerCodec.encode(player);
+
+        buffer.limit(buffer.limit() - 5);
+        PlayerCodec.decode(player.getUUID(), buffer);
+    }
+
+    @Test
+    public void decode_skips_unknown_section()
+    {
+        ByteBuffer encoded = PlayerCodec.encode(player);
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.remaining() + 4);
+
+        // Append a section with id 100 and 2 bytes of payload
+        buffer.put(encoded);
+        buffer.put((byte) 100).put((byte) 2).put((byte) 7).put((byte) 7);
+        buffer.putInt(5, buffer.getInt(5) + 4);
+        buffer.flip();
+
+        assertSamePlayer(player, PlayerCodec.decode(player.getUUID(), buffer));
+    }
+}
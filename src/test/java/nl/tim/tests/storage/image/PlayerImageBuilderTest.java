@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.storage.image;
+
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.player.QPlayer;
+import nl.tim.questplugin.quest.Quest;
+import nl.tim.questplugin.quest.wrappers.ProgressWrapper;
+import nl.tim.questplugin.storage.AsyncStorage;
+import nl.tim.questplugin.storage.ConfigHandler;
+import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.StorageException;
+import nl.tim.questplugin.storage.StorageProvider;
+import nl.tim.questplugin.storage.image.ImageLoadException;
+import nl.tim.questplugin.storage.image.builders.PlayerImageBuilder;
+import nl.tim.questplugin.utils.Constants;
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+public class PlayerImageBuilderTest
+{
+    private Map<String, Object> data;
+    private List<String> sectionLoads;
+    private List<String> writtenKeys;
+    private boolean failLoads;
+    private AsyncStorage asyncStorage;
+    private QuestPlugin mockPlugin;
+    private StorageProvider mockProvider;
+    private PlayerImageBuilder playerImageBuilder;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup()
+    {
+        mockPlugin = PowerMockito.mock(QuestPlugin.class);
+        mockProvider = PowerMockito.mock(StorageProvider.class);
+        Storage mockStorage = PowerMockito.mock(Storage.class);
+        Logger mockLogger = PowerMockito.mock(Logger.class);
+
+        // Setup logger
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(mockLogger);
+
+        // Keep all saved data of one player in a map
+        data = new HashMap<>();
+        sectionLoads = new ArrayList<>();
+        writtenKeys = new ArrayList<>();
+
+        PowerMockito.doAnswer(invocation -> {
+            for (Storage.DataPair dataPair : (List<Storage.DataPair>) invocation.getArguments()[2])
+            {
+                data.put(dataPair.getKey(), dataPair.getData().toString());
+                writtenKeys.add(dataPair.getKey());
+            }
+
+            return null;
+        }).when(mockStorage).save(any(UUID.class), any(Storage.DataType.class), any(List.class));
+        PowerMockito.doAnswer(invocation -> {
+            String key = (String) invocation.getArguments()[2];
+
+            data.keySet().removeIf(k -> k.equals(key) || k.startsWith(key + "."));
+            return null;
+        }).when(mockStorage).remove(any(UUID.class), any(Storage.DataType.class), any(String.class));
+        when(mockStorage.load(any(UUID.class), any(Storage.DataType.class))).thenAnswer(invocation -> {
+            List<Storage.DataPair> result = new ArrayList<>();
+
+            data.forEach((key, value) -> result.add(new Storage.DataPair<>(key, value)));
+            return result;
+        });
+        when(mockStorage.loadSection(any(UUID.class), any(Storage.DataType.class), any(String.class)))
+                .thenAnswer(invocation -> {
+                    String section = (String) invocation.getArguments()[2];
+                    List<Storage.DataPair> result = new ArrayList<>();
+
+                    if (failLoads)
+                    {
+                        throw new StorageException("Storage is unavailable", null);
+                    }
+
+                    sectionLoads.add(section);
+                    data.forEach((key, value) -> {
+                        if (key.equals(section) || key.startsWith(section + "."))
+                        {
+                            result.add(new Storage.DataPair<>(key, value));
+                        }
+                    });
+                    return result;
+                });
+
+        asyncStorage = new AsyncStorage(mockStorage, 100);
+        when(mockProvider.getAsyncStorage(any(StorageProvider.StorageType.class))).thenReturn(asyncStorage);
+
+        QuestPlugin.storageType = StorageProvider.StorageType.FILE_BASED;
+        playerImageBuilder = new PlayerImageBuilder(mockPlugin, mockProvider);
+    }
+
+    @After
+    public void teardown()
+    {
+        asyncStorage.close();
+    }
+
+    @Test
+    public void load_unknown_player()
+    {
+        assertNull(playerImageBuilder.load(UUID.randomUUID()));
+    }
+
+    @Test
+    public void save_and_load()
+    {
+        UUID quest = UUID.randomUUID();
+        UUID stage = UUID.randomUUID();
+        UUID task = UUID.randomUUID();
+        UUID completedTask = UUID.randomUUID();
+        MultiValuedMap<UUID, UUID> completedStages = new HashSetValuedHashMap<>();
+        MultiValuedMap<UUID, UUID> completedTasks = new HashSetValuedHashMap<>();
+
+        completedStages.put(quest, UUID.randomUUID());
+        completedTasks.put(stage, completedTask);
+
+        QPlayer player = new QPlayer(
+                Collections.singletonList(new ProgressWrapper(UUID.randomUUID(), quest, stage, task, 3)),
+                new HashSet<>(Collections.singletonList(UUID.randomUUID())), completedStages, completedTasks,
+                UUID.randomUUID(), "test", null);
+
+        playerImageBuilder.save(player);
+        QPlayer result = playerImageBuilder.load(player.getUUID());
+
+        assertNotNull(result);
+        assertEquals("test", result.getName());
+        assertEquals(3, (int) result.getProgress(task).getProgress());
+        assertEquals(stage, result.getProgress(task).getStageUUID());
+        assertEquals(player.getCompletedQuests(), result.getCompletedQuests());
+        assertEquals(new HashSet<>(player.getCompletedStages().get(quest)),
+                new HashSet<>(result.getCompletedStages().get(quest)));
+        assertEquals(Collections.singleton(completedTask), new HashSet<>(result.getCompletedTasks().get(stage)));
+    }
+
+    @Test
+    public void save_removes_old_progress()
+    {
+        UUID task = UUID.randomUUID();
+        Quest quest = new Quest(UUID.randomUUID(), null, new LinkedList<>(), new HashSet<>(), new HashSet<>(),
+                new ArrayList<>(), false, false, false, false, true);
+        QPlayer player = new QPlayer(
+                Collections.singletonList(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(),
+                        UUID.randomUUID(), task, 3)),
+                new HashSet<>(), new HashSetValuedHashMap<>(), new HashSetValuedHashMap<>(),
+                UUID.randomUUID(), "test", null);
+
+        playerImageBuilder.save(player);
+        player.cancelQuest(quest);
+        playerImageBuilder.save(player);
+
+        assertNull(playerImageBuilder.load(player.getUUID()).getProgress(task));
+    }
+
+    private PlayerImageBuilder binaryBuilder()
+    {
+        ConfigHandler mockConfig = PowerMockito.mock(ConfigHandler.class);
+
+        when(mockConfig.getOption(String.class, Constants.PLAYER_STORAGE_FORMAT)).thenReturn("BINARY");
+        when(mockPlugin.getConfigHandler()).thenReturn(mockConfig);
+
+        return new PlayerImageBuilder(mockPlugin, mockProvider);
+    }
+
+    @Test
+    public void save_and_load_binary()
+    {
+        PlayerImageBuilder binaryBuilder = this.binaryBuilder();
+        UUID quest = UUID.randomUUID();
+        UUID stage = UUID.randomUUID();
+        UUID task = UUID.randomUUID();
+        MultiValuedMap<UUID, UUID> completedTasks = new HashSetValuedHashMap<>();
+
+        completedTasks.put(stage, UUID.randomUUID());
+
+        QPlayer player = new QPlayer(
+                Collections.singletonList(new ProgressWrapper(UUID.randomUUID(), quest, stage, task, 3)),
+                new HashSet<>(Collections.singletonList(UUID.randomUUID())), new HashSetValuedHashMap<>(),
+                completedTasks, UUID.randomUUID(), "test", null);
+
+        binaryBuilder.save(player);
+        asyncStorage.flush();
+
+        assertEquals(PlayerImageBuilder.Format.BINARY, binaryBuilder.getFormat());
+        assertEquals(new HashSet<>(Arrays.asList("name", "binary", "completed.binary")), data.keySet());
+
+        // Players are loaded in the format they were saved in, regardless of the configured format
+        QPlayer result = playerImageBuilder.load(player.getUUID());
+
+        assertNotNull(result);
+        assertEquals("test", result.getName());
+        assertEquals(3, (int) result.getProgress(task).getProgress());
+        assertEquals(player.getCompletedQuests(), result.getCompletedQuests());
+        assertEquals(new HashSet<>(completedTasks.get(stage)), new HashSet<>(result.getCompletedTasks().get(stage)));
+    }
+
+    @Test
+    public void save_binary_converts_key_value()
+    {
+        QPlayer player = new QPlayer(
+                Collections.singletonList(new ProgressWrapper(UUID.randomUUID(), UUID.randomUUID(),
+                        UUID.randomUUID(), UUID.randomUUID(), 3)),
+                new HashSet<>(), new HashSetValuedHashMap<>(), new HashSetValuedHashMap<>(),
+                UUID.randomUUID(), "test", null);
+
+        playerImageBuilder.save(player);
+        this.binaryBuilder().save(player);
+        asyncStorage.flush();
+
+        assertEquals(new HashSet<>(Arrays.asList("name", "binary", "completed.binary")), data.keySet());
+
+        // And back again
+        playerImageBuilder.save(player);
+        asyncStorage.flush();
+
+        assertFalse(data.containsKey("binary"));
+        assertEquals(1, playerImageBuilder.load(player.getUUID()).getProgressWrappers().size());
+    }
+
+    private QPlayer playerWithHistory(UUID completedQuest)
+    {
+        return new QPlayer(
+                Collections.singletonList(new ProgressWrapper(UUID.randomUUID(), UUID.randomUUID(),
+                        UUID.randomUUID(), UUID.randomUUID(), 3)),
+                new HashSet<>(Collections.singletonList(completedQuest)), new HashSetValuedHashMap<>(),
+                new HashSetValuedHashMap<>(), UUID.randomUUID(), "test", null);
+    }
+
+    @Test
+    public void load_history_when_needed()
+    {
+        UUID completedQuest = UUID.randomUUID();
+        QPlayer player = this.playerWithHistory(completedQuest);
+
+        playerImageBuilder.save(player);
+        QPlayer result = playerImageBuilder.load(player.getUUID());
+
+        assertFalse(result.isHistoryLoaded());
+        assertEquals(1, result.getProgressWrappers().size());
+        assertFalse(sectionLoads.contains("completed"));
+
+        assertTrue(result.getCompletedQuests().contains(completedQuest));
+        assertTrue(result.isHistoryLoaded());
+        assertTrue(sectionLoads.contains("completed"));
+    }
+
+    @Test(expected = ImageLoadException.class)
+    public void load_corrupt_player()
+    {
+        QPlayer player = this.playerWithHistory(UUID.randomUUID());
+
+        playerImageBuilder.save(player);
+        asyncStorage.flush();
+
+        // Progress without a quest is not the same as a player that was never saved
+        data.keySet().removeIf(key -> key.endsWith(".quest"));
+        playerImageBuilder.load(player.getUUID());
+    }
+
+    @Test(expected = ImageLoadException.class)
+    public void load_with_unavailable_storage()
+    {
+        QPlayer player = this.playerWithHistory(UUID.randomUUID());
+
+        playerImageBuilder.save(player);
+        asyncStorage.flush();
+
+        // A storage failure is not the same as a player that was never saved
+        failLoads = true;
+        playerImageBuilder.load(player.getUUID());
+    }
+
+    @Test
+    public void corrupt_history_not_saved()
+    {
+        QPlayer player = this.playerWithHistory(UUID.randomUUID());
+
+        playerImageBuilder.save(player);
+        asyncStorage.flush();
+        data.put("completed.quests", "invalid");
+
+        QPlayer result = playerImageBuilder.load(player.getUUID());
+
+        assertTrue(result.getCompletedQuests().isEmpty());
+        assertTrue(result.isReadOnly());
+
+        playerImageBuilder.save(result);
+        asyncStorage.flush();
+
+        assertEquals("invalid", data.get("completed.quests"));
+    }
+
+    @Test
+    public void save_keeps_history_that_was_not_loaded()
+    {
+        UUID completedQuest = UUID.randomUUID();
+        QPlayer player = this.playerWithHistory(completedQuest);
+
+        playerImageBuilder.save(player);
+        playerImageBuilder.save(playerImageBuilder.load(player.getUUID()));
+
+        assertFalse(sectionLoads.contains("completed"));
+        assertTrue(playerImageBuilder.load(player.getUUID()).getCompletedQuests().contains(completedQuest));
+    }
+
+    @Test
+    public void save_binary_keeps_history_that_was_not_loaded()
+    {
+        PlayerImageBuilder binaryBuilder = this.binaryBuilder();
+        UUID completedQuest = UUID.randomUUID();
+        QPlayer player = this.playerWithHistory(completedQuest);
+
+        // Saved as key value first, the history stays in that format until it is loaded
+        playerImageBuilder.save(player);
+        binaryBuilder.save(binaryBuilder.load(player.getUUID()));
+        asyncStorage.flush();
+
+        assertTrue(data.containsKey("completed.quests"));
+        assertFalse(data.containsKey("completed.binary"));
+
+        QPlayer result = binaryBuilder.load(player.getUUID());
+
+        assertFalse(result.isHistoryLoaded());
+        assertTrue(result.getCompletedQuests().contains(completedQuest));
+
+        binaryBuilder.save(result);
+        asyncStorage.flush();
+
+        assertEquals(new HashSet<>(Arrays.asList("name", "binary", "completed.binary")), data.keySet());
+        assertTrue(binaryBuilder.load(player.getUUID()).getCompletedQuests().contains(completedQuest));
+    }
+
+    @Test
+    public void save_changes_only_writes_changes()
+    {
+        UUID task = UUID.randomUUID();
+        UUID wrapper = UUID.randomUUID();
+        Quest quest = new Quest(UUID.randomUUID(), null, new LinkedList<>(), new HashSet<>(), new HashSet<>(),
+                new ArrayList<>(), false, false, false, false, true);
+        QPlayer player = new QPlayer(
+                Collections.singletonList(new ProgressWrapper(wrapper, quest.getUUID(), UUID.randomUUID(), task, 3)),
+                new HashSet<>(), new HashSetValuedHashMap<>(), new HashSetValuedHashMap<>(),
+                UUID.randomUUID(), "test", null);
+
+        // Never saved, so everything is written
+        assertTrue(player.needsFullSave());
+        playerImageBuilder.saveChanges(player);
+        asyncStorage.flush();
+
+        assertTrue(writtenKeys.contains("name"));
+        assertFalse(player.isDirty());
+
+        // Nothing changed
+        writtenKeys.clear();
+        playerImageBuilder.saveChanges(player);
+        asyncStorage.flush();
+
+        assertTrue(writtenKeys.isEmpty());
+
+        // Only the changed progress and completed quests are written
+        player.updateProgress(task, 5);
+        player.completeQuest(quest);
+        playerImageBuilder.saveChanges(player);
+        asyncStorage.flush();
+
+        assertEquals(new HashSet<>(Arrays.asList("progress." + wrapper + ".progress", "completed.quests")),
+                new HashSet<>(writtenKeys));
+
+        QPlayer result = playerImageBuilder.load(player.getUUID());
+
+        assertEquals(5, (int) result.getProgress(task).getProgress());
+        assertTrue(result.hasCompletedQuest(quest));
+    }
+
+    @Test
+    public void save_changes_does_not_load_history()
+    {
+        QPlayer player = this.playerWithHistory(UUID.randomUUID());
+
+        playerImageBuilder.save(player);
+
+        QPlayer result = playerImageBuilder.load(player.getUUID());
+        UUID task = result.getProgressWrappers().iterator().next().getTaskUUID();
+
+        result.updateProgress(task, 4);
+        playerImageBuilder.saveChanges(result);
+        asyncStorage.flush();
+
+        assertFalse(result.isHistoryLoaded());
+        assertFalse(sectionLoads.contains("completed"));
+    }
+
+    @Test
+    public void save_changes_removes_progress()
+    {
+        UUID task = UUID.randomUUID();
+        Quest quest = new Quest(UUID.randomUUID(), null, new LinkedList<>(), new HashSet<>(), new HashSet<>(),
+                new ArrayList<>(), false, false, false, false, true);
+        QPlayer player = new QPlayer(
+                Collections.singletonList(new ProgressWrapper(UUID.randomUUID(), quest.getUUID(),
+                        UUID.randomUUID(), task, 3)),
+                new HashSet<>(), new HashSetValuedHashMap<>(), new HashSetValuedHashMap<>(),
+                UUID.randomUUID(), "test", null);
+
+        playerImageBuilder.save(player);
+        QPlayer loaded = playerImageBuilder.load(player.getUUID());
+
+        assertFalse(loaded.needsFullSave());
+
+        loaded.cancelQuest(quest);
+        writtenKeys.clear();
+        playerImageBuilder.saveChanges(loaded);
+
+        assertNull(playerImageBuilder.load(player.getUUID()).getProgress(task));
+        assertFalse(writtenKeys.contains("name"));
+    }
+
+    @Test
+    public void save_changes_binary()
+    {
+        PlayerImageBuilder binaryBuilder = this.binaryBuilder();
+        UUID task = UUID.randomUUID();
+        QPlayer player = new QPlayer(
+                Collections.singletonList(new ProgressWrapper(UUID.randomUUID(), UUID.randomUUID(),
+                        UUID.randomUUID(), task, 3)),
+                new HashSet<>(), new HashSetValuedHashMap<>(), new HashSetValuedHashMap<>(),
+                UUID.randomUUID(), "test", null);
+
+        binaryBuilder.save(player);
+        asyncStorage.flush();
+        writtenKeys.clear();
+
+        player.updateProgress(task, 4);
+        binaryBuilder.saveChanges(player);
+        asyncStorage.flush();
+
+        assertEquals(Collections.singletonList("binary"), writtenKeys);
+        assertEquals(4, (int) binaryBuilder.load(player.getUUID()).getProgress(task).getProgress());
+    }
+
+    @Test
+    public void load_other_format_needs_full_save()
+    {
+        QPlayer player = this.playerWithHistory(UUID.randomUUID());
+
+        playerImageBuilder.save(player);
+
+        assertFalse(playerImageBuilder.load(player.getUUID()).needsFullSave());
+        assertTrue(this.binaryBuilder().load(player.getUUID()).needsFullSave());
+    }
+}
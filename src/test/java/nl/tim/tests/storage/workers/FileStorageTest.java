@@ -20,10 +20,15 @@ package nl.tim.tests.storage.workers;
 import nl.tim.questplugin.QuestPlugin;
 import nl.tim.questplugin.storage.ConfigHandler;
 import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.StorageException;
 import nl.tim.questplugin.storage.workers.FileStorage;
+import nl.tim.questplugin.utils.Constants;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
@@ -37,9 +42,10 @@ import java.util.List;
 import java.util.UUID;
 import java.util.logging.Logger;
 
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.when;
@@ -48,6 +54,9 @@ import static org.powermock.api.mockito.PowerMockito.when;
 @PrepareForTest(fullyQualifiedNames = "nl.tim.questplugin.*")
 public class FileStorageTest
 {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private FileStorage fileStorage;
 
     @Before
@@ -114,6 +123,7 @@ public class FileStorageTest
             dataPairs.add(null);
 
             fileStorage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+            fileStorage.flush();
 
             // Verify calls made
             verify(mockFileConfiguration, times(1)).load(any(File.class));
@@ -157,5 +167,170 @@ public class FileStorageTest
         }
     }
 
+    @Test
+    public void save_cached_until_flush()
+    {
+        try
+        {
+            // Create mock file configuration
+            YamlConfiguration mockFileConfiguration = PowerMockito.mock(YamlConfiguration.class);
+
+            // Intercept creation of file configuration
+            PowerMockito.whenNew(YamlConfiguration.class).withNoArguments().thenReturn(mockFileConfiguration);
+
+            // Save and load a couple of times
+            UUID uuid = UUID.randomUUID();
+
+            fileStorage.save(uuid, Storage.DataType.QUEST, new Storage.DataPair<>("key1", "data1"));
+            fileStorage.save(uuid, Storage.DataType.QUEST, new Storage.DataPair<>("key2", "data2"));
+            fileStorage.load(uuid, Storage.DataType.QUEST, "key1");
+            fileStorage.load(uuid, Storage.DataType.QUEST);
+
+            // The file should only be parsed once and not written yet
+            verify(mockFileConfiguration, times(1)).load(any(File.class));
+            verify(mockFileConfiguration, never()).save(any(File.class));
+
+            // Flushing should write the file exactly once, even when flushing twice
+            fileStorage.flush();
+            fileStorage.flush();
+
+            verify(mockFileConfiguration, times(1)).save(any(File.class));
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void flush_nothing_changed()
+    {
+        try
+        {
+            // Create mock file configuration
+            YamlConfiguration mockFileConfiguration = PowerMockito.mock(YamlConfiguration.class);
+
+            // Intercept creation of file configuration
+            PowerMockito.whenNew(YamlConfiguration.class).withNoArguments().thenReturn(mockFileConfiguration);
+
+            // Only read data
+            fileStorage.load(UUID.randomUUID(), Storage.DataType.AREA, "key");
+            fileStorage.flush();
+
+            // Nothing changed, so nothing should be written
+            verify(mockFileConfiguration, never()).save(any(File.class));
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void sharded_save_one_file_per_object() throws Exception
+    {
+        // Create storage that uses a sharded layout in a real folder
+        File storageFolder = temporaryFolder.newFolder("sharded");
+        FileStorage shardedStorage = new FileStorage(this.mockShardedPlugin(), storageFolder);
+
+        assertTrue("Sharded storage should initialize", shardedStorage.init());
+
+        // Save two objects
+        UUID uuid1 = UUID.randomUUID();
+        UUID uuid2 = UUID.randomUUID();
+
+        shardedStorage.save(uuid1, Storage.DataType.PLAYER, new Storage.DataPair<>("key", "data1"));
+        shardedStorage.save(uuid2, Storage.DataType.PLAYER, new Storage.DataPair<>("key", "data2"));
+
+        // Objects should be listed before they are written
+        assertEquals("Unflushed objects should be listed", 2,
+                shardedStorage.getSavedObjectsUID(Storage.DataType.PLAYER).size());
+
+        shardedStorage.flush();
+
+        // Every object should have its own file
+        File playerFolder = new File(storageFolder, "data" + File.separator + "players");
+
+        assertTrue("Object should have its own file", new File(playerFolder, uuid1 + ".yml").exists());
+        assertTrue("Object should have its own file", new File(playerFolder, uuid2 + ".yml").exists());
+
+        // A fresh storage should be able to read the objects again
+        FileStorage otherStorage = new FileStorage(this.mockShardedPlugin(), storageFolder);
+        otherStorage.init();
+
+        List<UUID> savedObjects = otherStorage.getSavedObjectsUID(Storage.DataType.PLAYER);
+
+        assertTrue("Both objects should be listed", savedObjects.contains(uuid1) && savedObjects.contains(uuid2));
+        assertEquals("Saved data should be loaded", "data2",
+                otherStorage.load(uuid2, Storage.DataType.PLAYER, "key").getData());
+    }
+
+    @Test
+    public void sharded_remove_deletes_empty_file() throws Exception
+    {
+        // Create storage that uses a sharded layout in a real folder
+        File storageFolder = temporaryFolder.newFolder("sharded");
+        FileStorage shardedStorage = new FileStorage(this.mockShardedPlugin(), storageFolder);
+        shardedStorage.init();
+
+        // Save and remove an object
+        UUID uuid = UUID.randomUUID();
+        File objectFile = new File(storageFolder, "data" + File.separator + "quest" + File.separator + uuid + ".yml");
+
+        shardedStorage.save(uuid, Storage.DataType.QUEST, new Storage.DataPair<>("key", "data"));
+        shardedStorage.flush();
+        shardedStorage.remove(uuid, Storage.DataType.QUEST, "key");
+
+        assertTrue("Removed object should not be listed", shardedStorage.getSavedObjectsUID(Storage.DataType.QUEST).isEmpty());
+
+        shardedStorage.flush();
+
+        assertFalse("File of an empty object should be deleted", objectFile.exists());
+    }
+
+    @Test
+    public void corrupt_file_not_overwritten() throws Exception
+    {
+        // Create mock file configuration that fails to parse
+        YamlConfiguration mockFileConfiguration = PowerMockito.mock(YamlConfiguration.class);
+        UUID uuid = UUID.randomUUID();
+
+        PowerMockito.doThrow(new InvalidConfigurationException("corrupt")).when(mockFileConfiguration)
+                .load(any(File.class));
+        PowerMockito.whenNew(YamlConfiguration.class).withNoArguments().thenReturn(mockFileConfiguration);
+
+        try
+        {
+            fileStorage.load(uuid, Storage.DataType.PLAYER);
+            fail("Loading a corrupt file should fail");
+        } catch (StorageException e)
+        {
+            // Expected, a failure is not the same as an object without data
+        }
+
+        try
+        {
+            fileStorage.save(uuid, Storage.DataType.PLAYER, new Storage.DataPair<>("name", "test"));
+            fail("Saving to a corrupt file should fail");
+        } catch (StorageException e)
+        {
+            // Expected, the file should be kept for recovery
+        }
+
+        fileStorage.flush();
+
+        // The file should not be overwritten with the data of other objects
+        verify(mockFileConfiguration, never()).save(any(File.class));
+    }
+
+    private QuestPlugin mockShardedPlugin()
+    {
+        QuestPlugin mockPlugin = PowerMockito.mock(QuestPlugin.class);
+        ConfigHandler mockConfigHandler = PowerMockito.mock(ConfigHandler.class);
+
+        when(mockPlugin.getConfigHandler()).thenReturn(mockConfigHandler);
+        when(mockConfigHandler.getOption(String.class, Constants.FILE_LAYOUT)).thenReturn("SHARDED");
+
+        return mockPlugin;
+    }
+
     // TODO: Test other methods from file storage
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.storage.workers;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.storage.ConfigHandler;
+import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.StorageException;
+import nl.tim.questplugin.storage.workers.MongoStorage;
+import nl.tim.questplugin.utils.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+@PowerMockIgnore({"javax.management.*", "javax.net.*", "com.mongodb.*", "org.bson.*", "de.bwaldvogel.*",
+        "io.netty.*", "org.slf4j.*"})
+public class MongoStorageTest
+{
+    private MongoServer mongoServer;
+    private MongoStorage mongoStorage;
+
+    @Before
+    public void setup()
+    {
+        // Start an in-memory Mongo server
+        mongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = mongoServer.bind();
+
+        // Create mocks
+        QuestPlugin mockPlugin = PowerMockito.mock(QuestPlugin.class);
+        ConfigHandler mockConfigHandler = PowerMockito.mock(ConfigHandler.class);
+        Logger mockLogger = PowerMockito.mock(Logger.class);
+
+        // Setup logger
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(mockLogger);
+
+        // Point the storage to the in-memory server
+        when(mockPlugin.getConfigHandler()).thenReturn(mockConfigHandler);
+        when(mockConfigHandler.getOption(String.class, Constants.MONGO_HOSTNAME)).thenReturn(address.getHostString());
+        when(mockConfigHandler.getOption(String.class, Constants.MONGO_PORT)).thenReturn(String.valueOf(address.getPort()));
+        when(mockConfigHandler.getOption(String.class, Constants.MONGO_DATABASE)).thenReturn("questplugin");
+
+        mongoStorage = new MongoStorage(mockPlugin);
+
+        assertTrue("In-memory server should always be available!", mongoStorage.init());
+    }
+
+    @After
+    public void teardown()
+    {
+        mongoStorage.close();
+        mongoServer.shutdownNow();
+    }
+
+    @Test
+    public void save_and_load()
+    {
+        UUID uuid = UUID.randomUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        dataPairs.add(new Storage.DataPair<>("name", "test"));
+        dataPairs.add(new Storage.DataPair<>("settings.radius", 12.5));
+        dataPairs.add(new Storage.DataPair<>("settings.ignore_height", true));
+        mongoStorage.save(uuid, Storage.DataType.REGION, dataPairs);
+
+        assertEquals("test", mongoStorage.load(uuid, Storage.DataType.REGION, "name").getData());
+        assertEquals("12.5", mongoStorage.load(uuid, Storage.DataType.REGION, "settings.radius").getData());
+        assertNull("Sections should not be returned as data!",
+                mongoStorage.load(uuid, Storage.DataType.REGION, "settings").getData());
+        assertEquals(3, mongoStorage.load(uuid, Storage.DataType.REGION).size());
+        assertTrue("Other types should not contain this object!",
+                mongoStorage.load(uuid, Storage.DataType.AREA).isEmpty());
+    }
+
+    @Test(expected = StorageException.class)
+    public void load_fails_when_server_unavailable()
+    {
+        UUID uuid = UUID.randomUUID();
+
+        mongoStorage.save(uuid, Storage.DataType.PLAYER, new Storage.DataPair<>("name", "test"));
+        mongoServer.shutdownNow();
+
+        // An unreachable server should not look like an object that was never saved
+        mongoStorage.loadSection(uuid, Storage.DataType.PLAYER, "name");
+    }
+
+    @Test
+    public void save_overwrites()
+    {
+        UUID uuid = UUID.randomUUID();
+
+        mongoStorage.save(uuid, Storage.DataType.PLAYER, new Storage.DataPair<>("name", "old"));
+        mongoStorage.save(uuid, Storage.DataType.PLAYER, new Storage.DataPair<>("name", "new"));
+
+        assertEquals("new", mongoStorage.load(uuid, Storage.DataType.PLAYER, "name").getData());
+        assertEquals(1, mongoStorage.load(uuid, Storage.DataType.PLAYER).size());
+    }
+
+    @Test
+    public void remove_subkeys()
+    {
+        UUID uuid = UUID.randomUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        dataPairs.add(new Storage.DataPair<>("progress.a", 1));
+        dataPairs.add(new Storage.DataPair<>("progress.b", 2));
+        dataPairs.add(new Storage.DataPair<>("progress_other", 3));
+        mongoStorage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+
+        mongoStorage.remove(uuid, Storage.DataType.PLAYER, "progress");
+
+        List<Storage.DataPair> result = mongoStorage.load(uuid, Storage.DataType.PLAYER);
+
+        assertEquals("Only keys below the removed key should be removed!", 1, result.size());
+        assertEquals("progress_other", result.get(0).getKey());
+    }
+
+    @Test
+    public void load_section()
+    {
+        UUID uuid = UUID.randomUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        dataPairs.add(new Storage.DataPair<>("name", "test"));
+        dataPairs.add(new Storage.DataPair<>("completed.quests", "a"));
+        dataPairs.add(new Storage.DataPair<>("completed.tasks.b", "c"));
+        dataPairs.add(new Storage.DataPair<>("completed_other", "d"));
+        mongoStorage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+
+        List<Storage.DataPair> result = mongoStorage.loadSection(uuid, Storage.DataType.PLAYER, "completed");
+
+        assertEquals("Only keys below the section should be loaded!", 2, result.size());
+        assertTrue(result.contains(new Storage.DataPair<>("completed.quests", "a")));
+        assertTrue(result.contains(new Storage.DataPair<>("completed.tasks.b", "c")));
+        assertTrue(mongoStorage.loadSection(uuid, Storage.DataType.PLAYER, "progress").isEmpty());
+    }
+
+    @Test
+    public void saved_objects()
+    {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        mongoStorage.save(first, Storage.DataType.QUEST, new Storage.DataPair<>("a", 1));
+        mongoStorage.save(first, Storage.DataType.QUEST, new Storage.DataPair<>("b", 2));
+        mongoStorage.save(second, Storage.DataType.QUEST, new Storage.DataPair<>("a", 1));
+
+        List<UUID> result = mongoStorage.getSavedObjectsUID(Storage.DataType.QUEST);
+
+        assertEquals(2, result.size());
+        assertTrue(result.contains(first) && result.contains(second));
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2019  Tim Anema
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package nl.tim.tests.storage.workers;
+
+import com.zaxxer.hikari.HikariDataSource;
+import nl.tim.questplugin.QuestPlugin;
+import nl.tim.questplugin.storage.ConfigHandler;
+import nl.tim.questplugin.storage.Storage;
+import nl.tim.questplugin.storage.StorageException;
+import nl.tim.questplugin.storage.workers.SQLStorage;
+import nl.tim.questplugin.utils.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(QuestPlugin.class)
+@PowerMockIgnore({"javax.management.*", "java.sql.*", "org.h2.*", "com.zaxxer.*", "org.slf4j.*"})
+public class SQLStorageTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SQLStorage sqlStorage;
+
+    @Before
+    public void setup()
+    {
+        // Create mocks
+        QuestPlugin mockPlugin = PowerMockito.mock(QuestPlugin.class);
+        ConfigHandler mockConfigHandler = PowerMockito.mock(ConfigHandler.class);
+        Logger mockLogger = PowerMockito.mock(Logger.class);
+
+        // Setup logger
+        PowerMockito.mockStatic(QuestPlugin.class);
+        when(QuestPlugin.getLog()).thenReturn(mockLogger);
+
+        // Use the embedded database
+        when(mockPlugin.getConfigHandler()).thenReturn(mockConfigHandler);
+        when(mockConfigHandler.getOption(String.class, Constants.SQL_TYPE)).thenReturn("H2");
+
+        sqlStorage = new SQLStorage(mockPlugin, temporaryFolder.getRoot());
+
+        assertTrue("Embedded database should always be available!", sqlStorage.init());
+    }
+
+    @After
+    public void teardown()
+    {
+        sqlStorage.close();
+    }
+
+    @Test
+    public void save_and_load()
+    {
+        UUID uuid = UUID.randomUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        dataPairs.add(new Storage.DataPair<>("name", "test"));
+        dataPairs.add(new Storage.DataPair<>("settings.radius", 12.5));
+        sqlStorage.save(uuid, Storage.DataType.REGION, dataPairs);
+
+        assertEquals("test", sqlStorage.load(uuid, Storage.DataType.REGION, "name").getData());
+        assertEquals("12.5", sqlStorage.load(uuid, Storage.DataType.REGION, "settings.radius").getData());
+        assertEquals(2, sqlStorage.load(uuid, Storage.DataType.REGION).size());
+        assertTrue("Other types should not contain this object!",
+                sqlStorage.load(uuid, Storage.DataType.AREA).isEmpty());
+    }
+
+    @Test
+    public void save_overwrites()
+    {
+        UUID uuid = UUID.randomUUID();
+
+        sqlStorage.save(uuid, Storage.DataType.PLAYER, new Storage.DataPair<>("name", "old"));
+        sqlStorage.save(uuid, Storage.DataType.PLAYER, new Storage.DataPair<>("name", "new"));
+
+        assertEquals("new", sqlStorage.load(uuid, Storage.DataType.PLAYER, "name").getData());
+        assertEquals(1, sqlStorage.load(uuid, Storage.DataType.PLAYER).size());
+    }
+
+    @Test
+    public void remove_subkeys()
+    {
+        UUID uuid = UUID.randomUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        dataPairs.add(new Storage.DataPair<>("progress.a", 1));
+        dataPairs.add(new Storage.DataPair<>("progress.b", 2));
+        dataPairs.add(new Storage.DataPair<>("progress_other", 3));
+        sqlStorage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+
+        sqlStorage.remove(uuid, Storage.DataType.PLAYER, "progress");
+
+        List<Storage.DataPair> result = sqlStorage.load(uuid, Storage.DataType.PLAYER);
+
+        assertEquals("Only keys below the removed key should be removed!", 1, result.size());
+        assertEquals("progress_other", result.get(0).getKey());
+    }
+
+    @Test
+    public void load_fails_when_database_unavailable()
+    {
+        UUID uuid = UUID.randomUUID();
+        HikariDataSource dataSource = Whitebox.getInternalState(sqlStorage, "dataSource");
+
+        sqlStorage.save(uuid, Storage.DataType.PLAYER, new Storage.DataPair<>("name", "test"));
+        dataSource.close();
+
+        // An unreachable database should not look like an object that was never saved
+        try
+        {
+            sqlStorage.loadSection(uuid, Storage.DataType.PLAYER, "name");
+            fail("Loading without a database should fail");
+        } catch (StorageException e)
+        {
+            // Expected
+        }
+
+        try
+        {
+            sqlStorage.load(uuid, Storage.DataType.PLAYER);
+            fail("Loading without a database should fail");
+        } catch (StorageException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void save_in_list_order()
+    {
+        UUID uuid = UUID.randomUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        // Removing a parent after saving a child removes the child, like the file storage
+        dataPairs.add(new Storage.DataPair<>("progress.a", 1));
+        dataPairs.add(new Storage.DataPair<>("progress", null));
+        dataPairs.add(new Storage.DataPair<>("other.a", 2));
+        dataPairs.add(new Storage.DataPair<>("other", null));
+        dataPairs.add(new Storage.DataPair<>("other.b", 3));
+        sqlStorage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+
+        List<Storage.DataPair> result = sqlStorage.load(uuid, Storage.DataType.PLAYER);
+
+        assertEquals(1, result.size());
+        assertEquals("other.b", result.get(0).getKey());
+        assertEquals("3", result.get(0).getData().toString());
+    }
+
+    @Test
+    public void load_section()
+    {
+        UUID uuid = UUID.randomUUID();
+        List<Storage.DataPair> dataPairs = new ArrayList<>();
+
+        dataPairs.add(new Storage.DataPair<>("name", "test"));
+        dataPairs.add(new Storage.DataPair<>("completed.quests", "a"));
+        dataPairs.add(new Storage.DataPair<>("completed.tasks.b", "c"));
+        dataPairs.add(new Storage.DataPair<>("completed_other", "d"));
+        sqlStorage.save(uuid, Storage.DataType.PLAYER, dataPairs);
+
+        List<Storage.DataPair> result = sqlStorage.loadSection(uuid, Storage.DataType.PLAYER, "completed");
+
+        assertEquals("Only keys below the section should be loaded!", 2, result.size());
+        assertTrue(result.contains(new Storage.DataPair<>("completed.quests", "a")));
+        assertTrue(result.contains(new Storage.DataPair<>("completed.tasks.b", "c")));
+        assertTrue(sqlStorage.loadSection(uuid, Storage.DataType.PLAYER, "progress").isEmpty());
+    }
+
+    @Test
+    public void saved_objects()
+    {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        sqlStorage.save(first, Storage.DataType.QUEST, new Storage.DataPair<>("a", 1));
+        sqlStorage.save(first, Storage.DataType.QUEST, new Storage.DataPair<>("b", 2));
+        sqlStorage.save(second, Storage.DataType.QUEST, new Storage.DataPair<>("a", 1));
+
+        List<UUID> result = sqlStorage.getSavedObjectsUID(Storage.DataType.QUEST);
+
+        assertEquals(2, result.size());
+        assertTrue(result.contains(first) && result.contains(second));
+    }
+}